@@ -0,0 +1,237 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Maps addresses in one library back to the symbols that contain them. Built from .symtab, or
+ * from .dynsym for stripped libraries, as parallel primitive arrays sorted by start address,
+ * so a lookup is a binary search that allocates nothing.
+ *
+ * Only defined FUNC and OBJECT symbols with a non-zero st_size are indexed. When symbols
+ * overlap, the innermost one (the one starting last) wins.
+ */
+public class AddressIndex {
+    private static final int PT_LOAD = 1;
+    private static final int EM_ARM = 40;
+
+    private final SymbolTable mTable;
+
+    // Indexed by position, in ascending order of start address.
+    private final long[] mStarts;
+    private final long[] mEnds;
+    /** The largest end of any interval at or before each position, to bound backward scans. */
+    private final long[] mMaxEnds;
+    private final int[] mSymbols;
+
+    // PT_LOAD segments, for translating file offsets into virtual addresses.
+    private final long[] mSegmentOffsets;
+    private final long[] mSegmentAddresses;
+    private final long[] mSegmentSizes;
+
+    private AddressIndex(SymbolTable table, boolean thumb, long[] segmentOffsets,
+                         long[] segmentAddresses, long[] segmentSizes) {
+        mTable = table;
+        mSegmentOffsets = segmentOffsets;
+        mSegmentAddresses = segmentAddresses;
+        mSegmentSizes = segmentSizes;
+
+        int count = 0;
+        long[] keys = new long[table.size()];
+        for (int i = 1; i < table.size(); ++i) {
+            if (isIndexed(table, i)) {
+                keys[count++] = i;
+            }
+        }
+        // Sort by (start, symbol index) in one primitive sort: starts are below 2^39 in
+        // practice, leaving the low 24 bits for the index and the sign bit clear.
+        long[] starts = new long[count];
+        for (int i = 0; i < count; ++i) {
+            starts[i] = start(table, (int) keys[i], thumb);
+        }
+        boolean packable = table.size() <= (1 << 24);
+        for (long start : starts) {
+            packable &= (start >>> 39) == 0;
+        }
+        int[] order = new int[count];
+        if (packable) {
+            long[] packed = new long[count];
+            for (int i = 0; i < count; ++i) {
+                packed[i] = (starts[i] << 24) | keys[i];
+            }
+            Arrays.sort(packed);
+            for (int i = 0; i < count; ++i) {
+                order[i] = (int) (packed[i] & 0xffffff);
+            }
+        } else {
+            Integer[] boxed = new Integer[count];
+            for (int i = 0; i < count; ++i) {
+                boxed[i] = (int) keys[i];
+            }
+            Arrays.sort(boxed, (a, b) -> Long.compare(start(table, a, thumb),
+                    start(table, b, thumb)));
+            for (int i = 0; i < count; ++i) {
+                order[i] = boxed[i];
+            }
+        }
+
+        mStarts = new long[count];
+        mEnds = new long[count];
+        mMaxEnds = new long[count];
+        mSymbols = order;
+        long maxEnd = Long.MIN_VALUE;
+        for (int i = 0; i < count; ++i) {
+            mStarts[i] = start(table, order[i], thumb);
+            mEnds[i] = mStarts[i] + table.getSize(order[i]);
+            maxEnd = Math.max(maxEnd, mEnds[i]);
+            mMaxEnds[i] = maxEnd;
+        }
+    }
+
+    /** Builds the index for {@code elf}, preferring .symtab over .dynsym. */
+    public static AddressIndex build(ReadElf elf) throws IOException {
+        SymbolTable table = elf.getSymbolTable();
+        if (!hasIndexed(table)) {
+            table = elf.getDynamicSymbolTable();
+        }
+
+        final int[] machine = new int[1];
+        final long[][] segments = new long[3][4];
+        final int[] segmentCount = new int[1];
+        elf.accept(new ElfVisitor() {
+            @Override
+            public boolean visitHeader(int elfClass, int data, int type, int m, long entry,
+                                       long phoff, long shoff, int flags, int phnum, int shnum,
+                                       int shstrndx) {
+                machine[0] = m;
+                return true;
+            }
+
+            @Override
+            public boolean visitSegment(int index, int type, int flags, long offset,
+                                        long vaddr, long paddr, long filesz, long memsz,
+                                        long align) {
+                if (type == PT_LOAD) {
+                    int n = segmentCount[0]++;
+                    if (n == segments[0].length) {
+                        for (int i = 0; i < segments.length; ++i) {
+                            segments[i] = Arrays.copyOf(segments[i], n * 2);
+                        }
+                    }
+                    segments[0][n] = offset;
+                    segments[1][n] = vaddr;
+                    segments[2][n] = filesz;
+                }
+                return true;
+            }
+
+            @Override
+            public boolean visitSymbol(boolean dynamic, int index, int nameOffset, int info,
+                                       int other, int shndx, long value, long size) {
+                return false; // Only the headers are needed.
+            }
+        });
+
+        final int n = segmentCount[0];
+        return new AddressIndex(table, machine[0] == EM_ARM,
+                Arrays.copyOf(segments[0], n), Arrays.copyOf(segments[1], n),
+                Arrays.copyOf(segments[2], n));
+    }
+
+    /** Number of indexed symbols. */
+    public int size() {
+        return mStarts.length;
+    }
+
+    /**
+     * Returns the position of the symbol containing virtual address {@code address}, or -1.
+     */
+    public int lookup(long address) {
+        // Find the last interval starting at or before the address.
+        int lo = 0;
+        int hi = mStarts.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mStarts[mid] <= address) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        for (int i = found; i >= 0 && mMaxEnds[i] > address; --i) {
+            if (address < mEnds[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Like {@link #lookup(long)}, for an offset into the file rather than a virtual address.
+     * The offset is translated through the PT_LOAD segment containing it; offsets outside
+     * every segment are looked up as they are.
+     */
+    public int lookupFileOffset(long offset) {
+        return lookup(toAddress(offset));
+    }
+
+    /** Translates a file offset into a virtual address using the PT_LOAD segments. */
+    public long toAddress(long offset) {
+        for (int i = 0; i < mSegmentOffsets.length; ++i) {
+            if (offset >= mSegmentOffsets[i] && offset - mSegmentOffsets[i] < mSegmentSizes[i]) {
+                return offset - mSegmentOffsets[i] + mSegmentAddresses[i];
+            }
+        }
+        return offset;
+    }
+
+    public long getStart(int position) {
+        return mStarts[position];
+    }
+
+    public long getSize(int position) {
+        return mEnds[position] - mStarts[position];
+    }
+
+    /** Index of the symbol at {@code position} in {@link #getSymbolTable()}. */
+    public int getSymbolIndex(int position) {
+        return mSymbols[position];
+    }
+
+    public String getName(int position) {
+        return mTable.getName(mSymbols[position]);
+    }
+
+    public SymbolTable getSymbolTable() {
+        return mTable;
+    }
+
+    /** Heap held by the index itself, not counting its {@link SymbolTable}. */
+    public long getRetainedSize() {
+        return 64 + mStarts.length * (8L + 8 + 8 + 4) + mSegmentOffsets.length * 24L;
+    }
+
+    private static boolean hasIndexed(SymbolTable table) {
+        for (int i = 1; i < table.size(); ++i) {
+            if (isIndexed(table, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIndexed(SymbolTable table, int index) {
+        int type = table.getType(index);
+        return table.isDefined(index) && table.getSize(index) != 0
+                && (type == ReadElf.Symbol.STT_FUNC || type == ReadElf.Symbol.STT_OBJECT);
+    }
+
+    /** st_value, without the Thumb bit that ARM sets on Thumb function addresses. */
+    private static long start(SymbolTable table, int index, boolean thumb) {
+        long value = table.getValue(index);
+        if (thumb && table.getType(index) == ReadElf.Symbol.STT_FUNC) {
+            value &= ~1L;
+        }
+        return value;
+    }
+}
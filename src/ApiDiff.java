@@ -0,0 +1,310 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Diffs the exported symbols of every library across the API levels of a sysroot laid out as
+ * {@code <root>/<abi>/<api>/*.so}. Each .dynsym is sorted by name once, as an array of symbol
+ * indices that leaves the names in the mapped string table, and adjacent API levels are then
+ * merged in linear time.
+ *
+ * Each library holds only two of its levels at a time, and only a window of about twice the
+ * parallelism of libraries is in flight or awaiting the consumer, so the heap needed is
+ * bounded by the largest libraries rather than the sysroot.
+ */
+public class ApiDiff {
+    /** One difference between an API level and the one before it. */
+    public static class Change {
+        public enum Kind {
+            ADDED, REMOVED, CHANGED
+        }
+
+        public final Kind kind;
+        public final String abi;
+        public final String library;
+        /** The API level at which the change is first seen. */
+        public final int api;
+        public final String symbol;
+        /** st_info before the change; 0 for ADDED. */
+        public final int oldInfo;
+        /** st_info after the change; 0 for REMOVED. */
+        public final int newInfo;
+
+        Change(Kind kind, String abi, String library, int api, String symbol, int oldInfo,
+               int newInfo) {
+            this.kind = kind;
+            this.abi = abi;
+            this.library = library;
+            this.api = api;
+            this.symbol = symbol;
+            this.oldInfo = oldInfo;
+            this.newInfo = newInfo;
+        }
+
+        @Override
+        public String toString() {
+            return abi + "\t" + library + "\t" + api + "\t" + kind + "\t" + symbol;
+        }
+    }
+
+    /** The exported entries of one .dynsym, as indices sorted by name. */
+    private static class SortedExports {
+        static final SortedExports EMPTY = new SortedExports(SymbolTable.empty());
+
+        final SymbolTable table;
+        final int[] order;
+
+        SortedExports(SymbolTable table) {
+            this.table = table;
+            int count = 0;
+            int[] indices = new int[table.size()];
+            for (int i = 1; i < table.size(); ++i) {
+                if (table.isDefined(i) && table.getNameOffset(i) != 0
+                        && table.getBind(i) != ReadElf.Symbol.STB_LOCAL) {
+                    indices[count++] = i;
+                }
+            }
+            order = Arrays.copyOf(indices, count);
+            NameIndex.sort(order, (a, b) -> table.compareNames(a, table, b));
+        }
+    }
+
+    private final int mParallelism;
+
+    public ApiDiff() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ApiDiff(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        mParallelism = parallelism;
+    }
+
+    /**
+     * Prints, per ABI, library and symbol, the API level at which the symbol first became
+     * available; with {@code -c}, prints every change instead.
+     */
+    public static void main(String[] args) throws IOException {
+        boolean changes = false;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        for (; i < args.length - 1; ++i) {
+            if ("-c".equals(args[i])) {
+                changes = true;
+            } else if ("-j".equals(args[i]) && i + 2 < args.length) {
+                parallelism = Integer.parseInt(args[++i]);
+            } else {
+                break;
+            }
+        }
+        if (i != args.length - 1) {
+            System.err.println("usage: ApiDiff [-c] [-j parallelism] <sysroot>");
+            System.exit(1);
+        }
+        final PrintStream out = System.out;
+        ApiDiff diff = new ApiDiff(parallelism);
+        if (changes) {
+            out.println("abi\tlibrary\tapi\tchange\tsymbol");
+            diff.diff(new File(args[i]), out::println);
+        } else {
+            out.println("abi\tlibrary\tsymbol\tfirst_api");
+            diff.writeFirstAvailable(new File(args[i]), out);
+        }
+    }
+
+    /**
+     * Writes a TSV row per symbol ever exported by each library of each ABI, giving the first
+     * API level at which it was available.
+     */
+    public void writeFirstAvailable(File root, final PrintStream out) throws IOException {
+        final Set<String> seen = new HashSet<>();
+        final String[] library = new String[2];
+        diff(root, change -> {
+            if (!change.abi.equals(library[0]) || !change.library.equals(library[1])) {
+                library[0] = change.abi;
+                library[1] = change.library;
+                seen.clear();
+            }
+            // A symbol that is removed and later restored keeps its first API level.
+            if (change.kind == Change.Kind.ADDED && seen.add(change.symbol)) {
+                out.println(change.abi + "\t" + change.library + "\t" + change.symbol + "\t"
+                        + change.api);
+            }
+        });
+    }
+
+    /**
+     * Reports every change below {@code root} to {@code consumer}, on the calling thread, in
+     * ABI, library, API level and symbol order. Libraries are diffed concurrently.
+     */
+    public void diff(File root, Consumer<Change> consumer) throws IOException {
+        final List<Callable<List<Change>>> tasks = new ArrayList<>();
+        for (File abiDir : listSorted(root)) {
+            if (!abiDir.isDirectory()) {
+                continue;
+            }
+            final String abi = abiDir.getName();
+            final List<File> apiDirs = new ArrayList<>();
+            final List<Integer> apis = new ArrayList<>();
+            final Set<String> libraries = new TreeSet<>();
+            for (File apiDir : listSorted(abiDir)) {
+                final int api = parseApiLevel(apiDir);
+                if (api < 0) {
+                    continue;
+                }
+                apiDirs.add(apiDir);
+                apis.add(api);
+                for (File file : listSorted(apiDir)) {
+                    if (file.isFile() && file.getName().endsWith(".so")) {
+                        libraries.add(file.getName());
+                    }
+                }
+            }
+            // Sort the levels numerically; directory order puts 9 after 30.
+            Integer[] byApi = new Integer[apis.size()];
+            for (int i = 0; i < byApi.length; ++i) {
+                byApi[i] = i;
+            }
+            Arrays.sort(byApi, (a, b) -> Integer.compare(apis.get(a), apis.get(b)));
+            final File[] dirs = new File[byApi.length];
+            final int[] levels = new int[byApi.length];
+            for (int i = 0; i < byApi.length; ++i) {
+                dirs[i] = apiDirs.get(byApi[i]);
+                levels[i] = apis.get(byApi[i]);
+            }
+            for (final String library : libraries) {
+                tasks.add(() -> diffLibrary(abi, library, dirs, levels));
+            }
+        }
+
+        // Only a window of libraries is in flight: a finished library's changes are held
+        // until the consumer reaches it, so submitting everything at once would hold the
+        // whole sysroot's changes.
+        final int window = 2 * mParallelism;
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            final Deque<Future<List<Change>>> futures = new ArrayDeque<>();
+            int next = 0;
+            while (next < tasks.size() || !futures.isEmpty()) {
+                while (next < tasks.size() && futures.size() < window) {
+                    futures.add(pool.submit(tasks.get(next++)));
+                }
+                for (Change change : futures.remove().get()) {
+                    consumer.accept(change);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while diffing " + root, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to diff " + root, cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static List<Change> diffLibrary(String abi, String library, File[] dirs,
+                                            int[] levels) throws IOException {
+        List<Change> changes = new ArrayList<>();
+        SortedExports previous = SortedExports.EMPTY;
+        for (int i = 0; i < dirs.length; ++i) {
+            SortedExports current = load(new File(dirs[i], library), previous);
+            if (current != previous) {
+                merge(abi, library, levels[i], previous, current, changes);
+                previous = current;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Returns the exports of {@code file}; an empty set if it doesn't exist, and
+     * {@code previous} if it exists but isn't ELF (such as a linker script), which carries
+     * the last real level forward instead of reporting everything removed.
+     */
+    private static SortedExports load(File file, SortedExports previous) throws IOException {
+        if (!file.isFile()) {
+            return SortedExports.EMPTY;
+        }
+        try (ReadElf elf = ReadElf.read(file)) {
+            return new SortedExports(elf.getDynamicSymbolTable());
+        } catch (IllegalArgumentException e) {
+            return previous;
+        }
+    }
+
+    /** Merges two sorted export lists in one linear pass. */
+    private static void merge(String abi, String library, int api, SortedExports before,
+                              SortedExports after, List<Change> changes) {
+        final SymbolTable a = before.table;
+        final SymbolTable b = after.table;
+        int i = 0;
+        int j = 0;
+        while (i < before.order.length || j < after.order.length) {
+            int c;
+            if (i >= before.order.length) {
+                c = 1;
+            } else if (j >= after.order.length) {
+                c = -1;
+            } else {
+                c = a.compareNames(before.order[i], b, after.order[j]);
+            }
+            if (c < 0) {
+                int index = before.order[i++];
+                changes.add(new Change(Change.Kind.REMOVED, abi, library, api, a.getName(index),
+                        a.getInfo(index), 0));
+            } else if (c > 0) {
+                int index = after.order[j++];
+                changes.add(new Change(Change.Kind.ADDED, abi, library, api, b.getName(index),
+                        0, b.getInfo(index)));
+            } else {
+                // Duplicate names (several versions of one symbol) are paired up in order.
+                int oldIndex = before.order[i++];
+                int newIndex = after.order[j++];
+                if (a.getInfo(oldIndex) != b.getInfo(newIndex)) {
+                    changes.add(new Change(Change.Kind.CHANGED, abi, library, api,
+                            b.getName(newIndex), a.getInfo(oldIndex), b.getInfo(newIndex)));
+                }
+            }
+        }
+    }
+
+    static int parseApiLevel(File dir) {
+        if (!dir.isDirectory()) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(dir.getName());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static File[] listSorted(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,212 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scans a sysroot tree laid out as {@code <root>/<abi>/<api>/*.so} (the layout of
+ * src/resources) and builds a symbol availability matrix:
+ * symbol x ABI x API level -> the library exporting it, and its bind/type.
+ *
+ * Every library is parsed by its own {@link ReadElf} on a {@link ForkJoinPool} whose
+ * parallelism bounds the number of files open at once.
+ */
+public class CorpusScanner {
+    /** One cell of the matrix: where a symbol is exported for a given ABI and API level. */
+    public static class Entry {
+        public final String library;
+        public final ReadElf.Symbol symbol;
+
+        Entry(String library, ReadElf.Symbol symbol) {
+            this.library = library;
+            this.symbol = symbol;
+        }
+
+        @Override
+        public String toString() {
+            return library + ":" + symbol.toBind() + "," + symbol.toType();
+        }
+    }
+
+    /** symbol -> ABI -> API level -> {@link Entry}. Safe to fill from many threads. */
+    public static class SymbolMatrix {
+        private final ConcurrentSkipListMap<String,
+                ConcurrentMap<String, ConcurrentNavigableMap<Integer, Entry>>> mSymbols =
+                new ConcurrentSkipListMap<>();
+        private final AtomicInteger mFileCount = new AtomicInteger();
+        private final List<String> mSkipped = new ArrayList<>();
+
+        void add(String abi, int api, String library, ReadElf.Symbol symbol) {
+            // Several libraries of one level can export the same name (libandroid.so and
+            // libnativewindow.so both do); keep the first library by name so the result
+            // doesn't depend on scheduling.
+            mSymbols.computeIfAbsent(symbol.name, k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(abi, k -> new ConcurrentSkipListMap<>())
+                    .merge(api, new Entry(library, symbol),
+                            (a, b) -> a.library.compareTo(b.library) <= 0 ? a : b);
+        }
+
+        synchronized void skip(String path) {
+            mSkipped.add(path);
+        }
+
+        /** Returns ABI -> API level -> entry for {@code symbol}, or null if it is never exported. */
+        public Map<String, SortedMap<Integer, Entry>> get(String symbol) {
+            Map<String, ConcurrentNavigableMap<Integer, Entry>> abis = mSymbols.get(symbol);
+            return abis == null ? null : Collections.unmodifiableMap(abis);
+        }
+
+        public Iterable<String> symbols() {
+            return mSymbols.keySet();
+        }
+
+        public int size() {
+            return mSymbols.size();
+        }
+
+        public int getFileCount() {
+            return mFileCount.get();
+        }
+
+        /** Files that were found but are not ELF objects (e.g. the libc++.so linker scripts). */
+        public synchronized List<String> getSkipped() {
+            return new ArrayList<>(mSkipped);
+        }
+
+        /** Writes one tab-separated line per symbol/ABI/API level cell. */
+        public void writeTo(PrintStream out) {
+            for (Map.Entry<String, ConcurrentMap<String, ConcurrentNavigableMap<Integer, Entry>>>
+                    symbol : mSymbols.entrySet()) {
+                for (Map.Entry<String, ConcurrentNavigableMap<Integer, Entry>> abi
+                        : new TreeMap<>(symbol.getValue()).entrySet()) {
+                    for (Map.Entry<Integer, Entry> api : abi.getValue().entrySet()) {
+                        out.println(symbol.getKey() + "\t" + abi.getKey() + "\t" + api.getKey()
+                                + "\t" + api.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private final int mParallelism;
+
+    public CorpusScanner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public CorpusScanner(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        mParallelism = parallelism;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        if (args.length > 1 && "-j".equals(args[0])) {
+            parallelism = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        if (i >= args.length) {
+            System.err.println("usage: CorpusScanner [-j parallelism] <sysroot>");
+            System.exit(1);
+        }
+        SymbolMatrix matrix = new CorpusScanner(parallelism).scan(new File(args[i]));
+        matrix.writeTo(System.out);
+    }
+
+    /** Scans every {@code <abi>/<api>/*.so} below {@code root}. */
+    public SymbolMatrix scan(File root) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            return scan(root, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Scans every {@code <abi>/<api>/*.so} below {@code root} on {@code pool}, which is left
+     * running; the scanner's own parallelism is ignored.
+     */
+    public SymbolMatrix scan(File root, ForkJoinPool pool) throws IOException {
+        final SymbolMatrix matrix = new SymbolMatrix();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (File abiDir : ApiDiff.listSorted(root)) {
+            if (!abiDir.isDirectory()) {
+                continue;
+            }
+            for (File apiDir : ApiDiff.listSorted(abiDir)) {
+                final int api = ApiDiff.parseApiLevel(apiDir);
+                if (api < 0) {
+                    continue;
+                }
+                for (File file : ApiDiff.listSorted(apiDir)) {
+                    if (file.isFile() && file.getName().endsWith(".so")) {
+                        final String abi = abiDir.getName();
+                        tasks.add(() -> {
+                            scanFile(matrix, abi, api, file);
+                            return null;
+                        });
+                    }
+                }
+            }
+        }
+
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning " + root, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to scan " + root, cause);
+        }
+        return matrix;
+    }
+
+    private static void scanFile(SymbolMatrix matrix, String abi, int api, File file) {
+        ReadElf re;
+        try {
+            re = ReadElf.read(file);
+        } catch (IllegalArgumentException | IOException e) {
+            // One unreadable or unsupported library shouldn't abort the whole scan.
+            matrix.skip(file.getPath());
+            return;
+        }
+        try {
+            SymbolTable symbols = re.getDynamicSymbolTable();
+            for (int i = 1; i < symbols.size(); ++i) {
+                if (symbols.isDefined(i) && symbols.getNameOffset(i) != 0) {
+                    ReadElf.Symbol symbol = symbols.getSymbol(i);
+                    if (symbol.name != null) {
+                        matrix.add(abi, api, file.getName(), symbol);
+                    }
+                }
+            }
+            matrix.mFileCount.incrementAndGet();
+        } finally {
+            re.close();
+        }
+    }
+}
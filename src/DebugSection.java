@@ -0,0 +1,299 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The contents of one DWARF section, read through forward cursors. A plain section is a slice
+ * of the file; a compressed one (SHF_COMPRESSED, or a GNU .zdebug_* section) is inflated as a
+ * cursor advances, a chunk at a time, so the uncompressed section is never held in memory.
+ * Moving a cursor backwards over a compressed section starts inflating again from the top,
+ * so readers should visit offsets in ascending order where they can.
+ */
+final class DebugSection {
+    static final long SHF_COMPRESSED = 0x800;
+
+    private static final int ELFCOMPRESS_ZLIB = 1;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final String mName;
+    private final ByteBuffer mData;
+    private final boolean mCompressed;
+    private final long mSize;
+    private final ByteOrder mOrder;
+
+    private DebugSection(String name, ByteBuffer data, boolean compressed, long size,
+            ByteOrder order) {
+        mName = name;
+        mData = data;
+        mCompressed = compressed;
+        mSize = size;
+        mOrder = order;
+    }
+
+    /**
+     * Wraps the bytes of section {@code name}, given as they are in the file with the section's
+     * sh_flags. Throws IOException for compression formats other than zlib.
+     */
+    static DebugSection of(String name, ByteBuffer data, long flags, boolean is64)
+            throws IOException {
+        final ByteOrder order = data.order();
+        if ((flags & SHF_COMPRESSED) != 0) {
+            // Elf32_Chdr is {type, size, addralign}; Elf64_Chdr is {type, reserved, size,
+            // addralign}.
+            final int headerSize = is64 ? 24 : 12;
+            if (data.limit() < headerSize) {
+                throw new IOException("Truncated compression header in " + name);
+            }
+            final int type = data.getInt(0);
+            if (type != ELFCOMPRESS_ZLIB) {
+                throw new IOException("Unsupported compression type " + type + " in " + name);
+            }
+            final long size = is64 ? data.getLong(8) : data.getInt(4) & 0xffffffffL;
+            return new DebugSection(name, slice(data, headerSize), true, size, order);
+        }
+        if (name.startsWith(".zdebug_")) {
+            // "ZLIB" and the uncompressed size as a big-endian 64-bit value.
+            if (data.limit() < 12 || data.get(0) != 'Z' || data.get(1) != 'L'
+                    || data.get(2) != 'I' || data.get(3) != 'B') {
+                // Small .zdebug sections may be stored uncompressed.
+                return new DebugSection(name, data, false, data.limit(), order);
+            }
+            final long size = data.duplicate().order(ByteOrder.BIG_ENDIAN).getLong(4);
+            return new DebugSection(name, slice(data, 12), true, size, order);
+        }
+        return new DebugSection(name, data, false, data.limit(), order);
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    /** Uncompressed size. */
+    long size() {
+        return mSize;
+    }
+
+    boolean isCompressed() {
+        return mCompressed;
+    }
+
+    /** Returns a cursor at {@code position}. */
+    Cursor open(long position) throws IOException {
+        Cursor cursor = mCompressed ? new InflatingCursor() : new MappedCursor();
+        cursor.seek(position);
+        return cursor;
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, int from) {
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(from);
+        return buffer.slice().order(data.order());
+    }
+
+    /** A position in the section with the DWARF primitive readers. Not thread safe. */
+    abstract class Cursor implements AutoCloseable {
+        long mPosition;
+
+        /** Releases the inflater of a compressed section's cursor. */
+        @Override
+        public void close() {
+        }
+
+        long position() {
+            return mPosition;
+        }
+
+        boolean hasRemaining() {
+            return mPosition < mSize;
+        }
+
+        abstract void seek(long position) throws IOException;
+
+        abstract int u8() throws IOException;
+
+        void skip(long count) throws IOException {
+            seek(mPosition + count);
+        }
+
+        int u16() throws IOException {
+            final int a = u8();
+            final int b = u8();
+            return mOrder == ByteOrder.LITTLE_ENDIAN ? a | (b << 8) : (a << 8) | b;
+        }
+
+        long u32() throws IOException {
+            final long a = u16();
+            final long b = u16();
+            return mOrder == ByteOrder.LITTLE_ENDIAN ? a | (b << 16) : (a << 16) | b;
+        }
+
+        long u64() throws IOException {
+            final long a = u32();
+            final long b = u32();
+            return mOrder == ByteOrder.LITTLE_ENDIAN ? a | (b << 32) : (a << 32) | b;
+        }
+
+        /** An unsigned value of {@code size} bytes, for addresses and offsets. */
+        long unsigned(int size) throws IOException {
+            switch (size) {
+                case 1:
+                    return u8();
+                case 2:
+                    return u16();
+                case 4:
+                    return u32();
+                case 8:
+                    return u64();
+                default:
+                    throw new IOException("Bad field size " + size + " in " + mName);
+            }
+        }
+
+        long uleb128() throws IOException {
+            long result = 0;
+            for (int shift = 0; ; shift += 7) {
+                final int b = u8();
+                if (shift < 64) {
+                    result |= (long) (b & 0x7f) << shift;
+                }
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+        }
+
+        long sleb128() throws IOException {
+            long result = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = u8();
+                if (shift < 64) {
+                    result |= (long) (b & 0x7f) << shift;
+                }
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (shift < 64 && (b & 0x40) != 0) {
+                result |= -1L << shift;
+            }
+            return result;
+        }
+
+        /** A NUL-terminated string. */
+        String cstring() throws IOException {
+            byte[] bytes = new byte[32];
+            int length = 0;
+            for (int b = u8(); b != 0; b = u8()) {
+                if (length == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, length * 2);
+                }
+                bytes[length++] = (byte) b;
+            }
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final class MappedCursor extends Cursor {
+        @Override
+        void seek(long position) throws IOException {
+            if (position < 0 || position > mSize) {
+                throw new EOFException("Seek to " + position + " is outside " + mName);
+            }
+            mPosition = position;
+        }
+
+        @Override
+        int u8() throws IOException {
+            if (mPosition >= mSize) {
+                throw new EOFException("Unexpected end of " + mName);
+            }
+            return mData.get((int) mPosition++) & 0xff;
+        }
+    }
+
+    private final class InflatingCursor extends Cursor {
+        private final byte[] mInput = new byte[CHUNK_SIZE];
+        private final byte[] mOutput = new byte[CHUNK_SIZE];
+        private Inflater mInflater;
+        private int mInputPosition;
+        /** Section offset of mOutput[0], and how much of mOutput holds data. */
+        private long mOutputStart;
+        private int mOutputLength;
+
+        @Override
+        void seek(long position) throws IOException {
+            if (position < 0 || position > mSize) {
+                throw new EOFException("Seek to " + position + " is outside " + mName);
+            }
+            if (mInflater == null || position < mOutputStart) {
+                restart();
+            }
+            while (position >= mOutputStart + mOutputLength && position < mSize) {
+                fill();
+            }
+            mPosition = position;
+        }
+
+        @Override
+        int u8() throws IOException {
+            if (mPosition >= mOutputStart + mOutputLength) {
+                if (mPosition >= mSize) {
+                    throw new EOFException("Unexpected end of " + mName);
+                }
+                fill();
+            }
+            return mOutput[(int) (mPosition++ - mOutputStart)] & 0xff;
+        }
+
+        @Override
+        public void close() {
+            if (mInflater != null) {
+                mInflater.end();
+                mInflater = null;
+            }
+        }
+
+        private void restart() {
+            if (mInflater != null) {
+                mInflater.end();
+            }
+            mInflater = new Inflater();
+            mInputPosition = 0;
+            mOutputStart = 0;
+            mOutputLength = 0;
+        }
+
+        /** Replaces the output chunk with the next one. */
+        private void fill() throws IOException {
+            mOutputStart += mOutputLength;
+            mOutputLength = 0;
+            try {
+                while (mOutputLength == 0) {
+                    if (mInflater.needsInput()) {
+                        final int count = Math.min(mInput.length, mData.limit() - mInputPosition);
+                        if (count <= 0) {
+                            throw new EOFException("Truncated compressed data in " + mName);
+                        }
+                        ByteBuffer input = mData.duplicate();
+                        input.position(mInputPosition);
+                        input.get(mInput, 0, count);
+                        mInputPosition += count;
+                        mInflater.setInput(mInput, 0, count);
+                    }
+                    mOutputLength = mInflater.inflate(mOutput);
+                    if (mOutputLength == 0 && (mInflater.finished()
+                            || mInflater.needsDictionary())) {
+                        throw new EOFException("Unexpected end of " + mName);
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt compressed data in " + mName, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,1473 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Demangles Itanium C++ ABI symbol names ({@code _Z...}), printing them the way c++filt does.
+ * It covers what shows up in shared libraries: nested and template names, substitutions,
+ * function, array and member pointer types, ctors, dtors, operators, lambdas, local names,
+ * ABI tags, the special vtable/typeinfo/thunk/guard names and the simple template argument
+ * expressions of enable_if. Names that use other expressions or decltype are left mangled.
+ *
+ * Results are cached, since the same names recur across libraries and API levels. An
+ * instance may be shared between threads.
+ */
+public class Demangler {
+    /** Cached marker for names that can't be demangled. */
+    private static final String FAILED = new String("");
+
+    private final ConcurrentMap<String, String> mCache = new ConcurrentHashMap<>();
+    private final int mMaxCacheSize;
+
+    public Demangler() {
+        this(1 << 18);
+    }
+
+    /** Creates a demangler that caches at most {@code maxCacheSize} results. */
+    public Demangler(int maxCacheSize) {
+        mMaxCacheSize = maxCacheSize;
+    }
+
+    /** Returns the demangled form of {@code name}, or null if it isn't a mangled C++ name. */
+    public String demangle(String name) {
+        String result = mCache.get(name);
+        if (result == null) {
+            result = demangleUncached(name);
+            if (mCache.size() >= mMaxCacheSize) {
+                mCache.clear();
+            }
+            mCache.put(name, result != null ? result : FAILED);
+        }
+        return result != FAILED ? result : null;
+    }
+
+    /** Returns the demangled form of {@code name}, or {@code name} itself. */
+    public String demangleOrSelf(String name) {
+        String result = demangle(name);
+        return result != null ? result : name;
+    }
+
+    public static String demangleUncached(String name) {
+        if (!name.startsWith("_Z")) {
+            return null;
+        }
+        try {
+            return new Parser(name).parse();
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | StackOverflowError e) {
+            return null;
+        }
+    }
+
+    /** A parsed name or type, printed in two halves around a declarator (libc++abi style). */
+    private abstract static class Node {
+        abstract void printLeft(StringBuilder sb);
+
+        void printRight(StringBuilder sb) {
+        }
+
+        boolean hasFunction() {
+            return false;
+        }
+
+        boolean hasArray() {
+            return false;
+        }
+
+        /** Returns the template argument pack this node expands over, if any. */
+        Pack findPack() {
+            return null;
+        }
+
+        /** The unqualified name, without template arguments, for ctors and dtors. */
+        String baseName() {
+            return toString();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            printLeft(sb);
+            printRight(sb);
+            return sb.toString();
+        }
+    }
+
+    private static class NameNode extends Node {
+        final String mName;
+
+        NameNode(String name) {
+            mName = name;
+        }
+
+        @Override
+        void printLeft(StringBuilder sb) {
+            sb.append(mName);
+        }
+    }
+
+    private static class NestedName extends Node {
+        final Node mScope;
+        final Node mName;
+
+        NestedName(Node scope, Node name) {
+            mScope = scope;
+            mName = name;
+        }
+
+        @Override
+        void printLeft(StringBuilder sb) {
+            mScope.printLeft(sb);
+            sb.append("::");
+            mName.printLeft(sb);
+        }
+
+        @Override
+        Pack findPack() {
+            Pack pack = mScope.findPack();
+            return pack != null ? pack : mName.findPack();
+        }
+
+        @Override
+        String baseName() {
+            return mName.baseName();
+        }
+    }
+
+    private static class TemplateName extends Node {
+        final Node mName;
+        final List<Node> mArgs;
+
+        TemplateName(Node name, List<Node> args) {
+            mName = name;
+            mArgs = args;
+        }
+
+        @Override
+        void printLeft(StringBuilder sb) {
+            mName.printLeft(sb);
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) == '<') {
+                sb.append(' '); // operator< <T>
+            }
+            sb.append('<');
+            printList(sb, mArgs);
+            if (sb.charAt(sb.length() - 1) == '>') {
+                sb.append(' ');
+            }
+            sb.append('>');
+        }
+
+        @Override
+        Pack findPack() {
+            for (Node arg : mArgs) {
+                Pack pack = arg.findPack();
+                if (pack != null) {
+                    return pack;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        String baseName() {
+            return mName.baseName();
+        }
+    }
+
+    /**
+     * A template argument pack, {@code J...E}. While a {@link PackExpansion} prints, the pack
+     * stands for one element at a time.
+     */
+    private static class Pack extends Node {
+        final List<Node> mElements;
+        int mCurrent = -1;
+
+        Pack(List<Node> elements) {
+            mElements = elements;
+        }
+
+        /** The element being expanded, or null when the whole pack is printed. */
+        Node current() {
+            return mCurrent >= 0 ? mElements.get(mCurrent) : null;
+        }
+
+        @Override
+        void printLeft(StringBuilder sb) {
+            if (mCurrent >= 0) {
+                mElements.get(mCurrent).printLeft(sb);
+            } else {
+                printList(sb, mElements);
+            }
+        }
+
+        @Override
+        void printRight(StringBuilder sb) {
+            if (mCurrent >= 0) {
+                mElements.get(mCurrent).printRight(sb);
+            }
+        }
+
+        @Override
+        boolean hasFunction() {
+            return mCurrent >= 0 && mElements.get(mCurrent).hasFunction();
+        }
+
+        @Override
+        boolean hasArray() {
+            return mCurrent >= 0 && mElements.get(mCurrent).hasArray();
+        }
+
+        @Override
+        Pack findPack() {
+            return this;
+        }
+    }
+
+    private static class PackExpansion extends Node {
+        final Node mPattern;
+
+        PackExpansion(Node pattern) {
+            mPattern = pattern;
+        }
+
+        @Override
+        void printLeft(StringBuilder sb) {
+            Pack pack = mPattern.findPack();
+            if (pack == null) {
+                mPattern.printLeft(sb);
+                mPattern.printRight(sb);
+                sb.append("...");
+                return;
+            }
+            // Print the pattern once per element, as c++filt does: Args&&... becomes
+            // "int&, bool&&".
+            List<Node> expanded = new ArrayList<>(pack.mElements.size());
+            for (int i = 0; i < pack.mElements.size(); ++i) {
+                pack.mCurrent = i;
+                expanded.add(new NameNode(mPattern.toString()));
+            }
+            pack.mCurrent = -1;
+            printList(sb, expanded);
+        }
+    }
+
+    private static class Qualified extends Node {
+        final Node mBase;
+        final String mQualifiers;
+
+        Qualified(Node base, String qualifiers) {
+            mBase = base;
+            mQualifiers = qualifiers;
+        }
+
+        @Override
+        void printLeft(StringBuilder sb) {
+            mBase.printLeft(sb);
+            if (!mBase.hasFunction()) {
+                sb.append(mQualifiers);
+            }
+        }
+
+        @Override
+        void printRight(StringBuilder sb) {
+            mBase.printRight(sb);
+            if (mBase.hasFunction()) {
+                sb.append(mQualifiers);
+            }
+        }
+
+        @Override
+        boolean hasFunction() {
+            return mBase.hasFunction();
+        }
+
+        @Override
+        boolean hasArray() {
+            return mBase.hasArray();
+        }
+
+        @Override
+        Pack findPack() {
+            return mBase.findPack();
+        }
+    }
+
+    /** A pointer, or an lvalue or rvalue reference. */
+    private static class Indirection extends Node {
+        final Node mPointee;
+        final String mSymbol;
+
+        Indirection(Node pointee, String symbol) {
+            mPointee = pointee;
+            mSymbol = symbol;
+        }
+
+        @Override
+        void printLeft(StringBuilder sb) {
+            Indirection collapsed = collapse();
+            if (collapsed != this) {
+                collapsed.printLeft(sb);
+                return;
+            }
+            mPointee.printLeft(sb);
+            if (mPointee.hasArray()) {
+                sb.append(' ');
+            }
+            if (mPointee.hasArray() || mPointee.hasFunction()) {
+                sb.append('(');
+            }
+            sb.append(mSymbol);
+        }
+
+        @Override
+        void printRight(StringBuilder sb) {
+            Indirection collapsed = collapse();
+            if (collapsed != this) {
+                collapsed.printRight(sb);
+                return;
+            }
+            if (mPointee.hasArray() || mPointee.hasFunction()) {
+                sb.append(')');
+            }
+            mPointee.printRight(sb);
+        }
+
+        @Override
+        Pack findPack() {
+            return mPointee.findPack();
+        }
+
+        /**
+         * Applies reference collapsing when a reference is formed to a reference, which
+         * happens through template parameters: T& with T = int&& is int&.
+         */
+        private Indirection collapse() {
+            if (mSymbol.equals("*")) {
+                return this;
+            }
+            Node pointee = mPointee;
+            while (pointee instanceof Pack && ((Pack) pointee).current() != null) {
+                pointee = ((Pack) pointee).current();
+            }
+            if (!(pointee instanceof Indirection)) {
+                return this;
+            }
+            Indirection inner = (Indirection) pointee;
+            if (inner.mSymbol.equals("*")) {
+                return pointee == mPointee ? this : new Indirection(pointee, mSymbol);
+            }
+            String symbol = mSymbol.equals("&&") && inner.mSymbol.equals("&&") ? "&&" : "&";
+            return new Indirection(inner.mPointee, symbol).collapse();
+        }
+    }
+
+    private static class MemberPointer extends Node {
+        final Node mClass;
+        final Node mMember;
+
+        MemberPointer(Node cls, Node member) {
+            mClass = cls;
+            mMember = member;
+        }
+
+        @Override
+        void printLeft(StringBuilder sb) {
+            mMember.printLeft(sb);
+            sb.append(mMember.hasArray() || mMember.hasFunction() ? "(" : " ");
+            sb.append(mClass).append("::*");
+        }
+
+        @Override
+        void printRight(StringBuilder sb) {
+            if (mMember.hasArray() || mMember.hasFunction()) {
+                sb.append(')');
+            }
+            mMember.printRight(sb);
+        }
+
+        @Override
+        Pack findPack() {
+            Pack pack = mClass.findPack();
+            return pack != null ? pack : mMember.findPack();
+        }
+    }
+
+    private static class FunctionType extends Node {
+        final Node mReturn;
+        final List<Node> mParams;
+        final String mSuffix;
+
+        FunctionType(Node ret, List<Node> params, String suffix) {
+            mReturn = ret;
+            mParams = params;
+            mSuffix = suffix;
+        }
+
+        @Override
+        void printLeft(StringBuilder sb) {
+            mReturn.printLeft(sb);
+            sb.append(' ');
+        }
+
+        @Override
+        void printRight(StringBuilder sb) {
+            sb.append('(');
+            printList(sb, mParams);
+            sb.append(')');
+            mReturn.printRight(sb);
+            sb.append(mSuffix);
+        }
+
+        @Override
+        boolean hasFunction() {
+            return true;
+        }
+
+        @Override
+        Pack findPack() {
+            Pack pack = mReturn.findPack();
+            for (int i = 0; pack == null && i < mParams.size(); ++i) {
+                pack = mParams.get(i).findPack();
+            }
+            return pack;
+        }
+    }
+
+    private static class ArrayType extends Node {
+        final Node mElement;
+        final String mDimension;
+
+        ArrayType(Node element, String dimension) {
+            mElement = element;
+            mDimension = dimension;
+        }
+
+        @Override
+        void printLeft(StringBuilder sb) {
+            mElement.printLeft(sb);
+        }
+
+        @Override
+        void printRight(StringBuilder sb) {
+            if (sb.length() == 0 || sb.charAt(sb.length() - 1) != ']') {
+                sb.append(' ');
+            }
+            sb.append('[').append(mDimension).append(']');
+            mElement.printRight(sb);
+        }
+
+        @Override
+        boolean hasArray() {
+            return true;
+        }
+
+        @Override
+        Pack findPack() {
+            return mElement.findPack();
+        }
+    }
+
+    /** A function's name and signature: {@code ret name(params) const &}. */
+    private static class FunctionEncoding extends Node {
+        final Node mReturn;
+        final Node mName;
+        final List<Node> mParams;
+        final String mSuffix;
+
+        FunctionEncoding(Node ret, Node name, List<Node> params, String suffix) {
+            mReturn = ret;
+            mName = name;
+            mParams = params;
+            mSuffix = suffix;
+        }
+
+        @Override
+        void printLeft(StringBuilder sb) {
+            if (mReturn != null) {
+                mReturn.printLeft(sb);
+                if (!mReturn.hasFunction() && !mReturn.hasArray()) {
+                    sb.append(' ');
+                }
+            }
+            mName.printLeft(sb);
+        }
+
+        @Override
+        void printRight(StringBuilder sb) {
+            sb.append('(');
+            printList(sb, mParams);
+            sb.append(')');
+            if (mReturn != null) {
+                mReturn.printRight(sb);
+            }
+            sb.append(mSuffix);
+        }
+    }
+
+    /** Prints {@code nodes} separated by ", ", skipping any that print nothing (empty packs). */
+    private static void printList(StringBuilder sb, List<Node> nodes) {
+        boolean first = true;
+        for (Node node : nodes) {
+            final int mark = sb.length();
+            if (!first) {
+                sb.append(", ");
+            }
+            final int start = sb.length();
+            node.printLeft(sb);
+            node.printRight(sb);
+            if (sb.length() == start) {
+                sb.setLength(mark);
+            } else {
+                first = false;
+            }
+        }
+    }
+
+    /** A template argument expression; only simple names print without parentheses. */
+    private static class Expression extends Node {
+        final Node mValue;
+        final boolean mSimple;
+
+        Expression(Node value, boolean simple) {
+            mValue = value;
+            mSimple = simple;
+        }
+
+        @Override
+        void printLeft(StringBuilder sb) {
+            mValue.printLeft(sb);
+            mValue.printRight(sb);
+        }
+    }
+
+    /** What parsing a name tells the enclosing encoding. */
+    private static class NameState {
+        String qualifiers = "";
+        String refQualifier = "";
+        boolean endsWithTemplateArgs;
+        boolean ctorDtorConversion;
+    }
+
+    private static class Parser {
+        private static final int MAX_DEPTH = 256;
+
+        private final String mName;
+        private int mPos;
+        private int mDepth;
+        private final List<Node> mSubstitutions = new ArrayList<>();
+        private List<Node> mTemplateArgs = Collections.emptyList();
+
+        Parser(String name) {
+            mName = name;
+        }
+
+        String parse() {
+            mPos = 2; // _Z
+            Node encoding = parseEncoding();
+            String result = encoding.toString();
+            if (mPos < mName.length()) {
+                if (mName.charAt(mPos) != '.') {
+                    throw new IllegalArgumentException();
+                }
+                result += " [clone " + mName.substring(mPos) + "]";
+            }
+            return result;
+        }
+
+        private char peek() {
+            return mPos < mName.length() ? mName.charAt(mPos) : '\0';
+        }
+
+        private char peek(int ahead) {
+            return mPos + ahead < mName.length() ? mName.charAt(mPos + ahead) : '\0';
+        }
+
+        private boolean consume(char c) {
+            if (peek() == c) {
+                mPos++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean consume(String s) {
+            if (mName.startsWith(s, mPos)) {
+                mPos += s.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw new IllegalArgumentException();
+            }
+        }
+
+        private boolean atEnd() {
+            return mPos >= mName.length() || peek() == 'E' || peek() == '.';
+        }
+
+        private Node parseEncoding() {
+            if (++mDepth > MAX_DEPTH) {
+                throw new IllegalArgumentException();
+            }
+            try {
+                if (peek() == 'T' || (peek() == 'G' && peek(1) != '\0')) {
+                    return parseSpecialName();
+                }
+                NameState state = new NameState();
+                Node name = parseName(state);
+                if (atEnd()) {
+                    return name;
+                }
+                Node ret = null;
+                if (state.endsWithTemplateArgs && !state.ctorDtorConversion) {
+                    ret = parseType();
+                }
+                List<Node> params = new ArrayList<>();
+                if (!consume('v')) {
+                    while (!atEnd()) {
+                        params.add(parseType());
+                    }
+                }
+                return new FunctionEncoding(ret, name, params,
+                        state.qualifiers + state.refQualifier);
+            } finally {
+                mDepth--;
+            }
+        }
+
+        private Node parseSpecialName() {
+            if (consume("TV")) {
+                return new NameNode("vtable for " + parseType());
+            }
+            if (consume("TT")) {
+                return new NameNode("VTT for " + parseType());
+            }
+            if (consume("TI")) {
+                return new NameNode("typeinfo for " + parseType());
+            }
+            if (consume("TS")) {
+                return new NameNode("typeinfo name for " + parseType());
+            }
+            if (consume("Th")) {
+                parseNumber();
+                expect('_');
+                return new NameNode("non-virtual thunk to " + parseEncoding());
+            }
+            if (consume("Tv")) {
+                parseNumber();
+                expect('_');
+                parseNumber();
+                expect('_');
+                return new NameNode("virtual thunk to " + parseEncoding());
+            }
+            if (consume("Tc")) {
+                parseCallOffset();
+                parseCallOffset();
+                return new NameNode("covariant return thunk to " + parseEncoding());
+            }
+            if (consume("TC")) {
+                Node derived = parseType();
+                parseNumber();
+                expect('_');
+                Node base = parseType();
+                return new NameNode("construction vtable for " + base + "-in-" + derived);
+            }
+            if (consume("TH")) {
+                return new NameNode("TLS init function for " + parseName(null));
+            }
+            if (consume("TW")) {
+                return new NameNode("TLS wrapper function for " + parseName(null));
+            }
+            if (consume("GV")) {
+                return new NameNode("guard variable for " + parseName(null));
+            }
+            if (consume("GR")) {
+                Node name = parseName(null);
+                int index = 0;
+                if (peek() != '_') {
+                    index = parseSeqId() + 1;
+                }
+                expect('_');
+                return new NameNode("reference temporary #" + index + " for " + name);
+            }
+            if (consume("GTt")) {
+                return new NameNode("transaction clone for " + parseEncoding());
+            }
+            throw new IllegalArgumentException();
+        }
+
+        private void parseCallOffset() {
+            if (consume('h')) {
+                parseNumber();
+                expect('_');
+            } else if (consume('v')) {
+                parseNumber();
+                expect('_');
+                parseNumber();
+                expect('_');
+            } else {
+                throw new IllegalArgumentException();
+            }
+        }
+
+        private Node parseName(NameState state) {
+            if (peek() == 'N') {
+                return parseNestedName(state);
+            }
+            if (peek() == 'Z') {
+                return parseLocalName(state);
+            }
+            Node name;
+            if (peek() == 'S' && peek(1) != 't') {
+                name = parseSubstitution();
+                if (peek() != 'I') {
+                    return name;
+                }
+            } else {
+                if (consume("St")) {
+                    name = new NestedName(new NameNode("std"), parseUnqualifiedName(state, null));
+                } else {
+                    name = parseUnqualifiedName(state, null);
+                }
+                if (peek() != 'I') {
+                    return name;
+                }
+                mSubstitutions.add(name);
+            }
+            List<Node> args = parseTemplateArgs(state != null);
+            if (state != null) {
+                state.endsWithTemplateArgs = true;
+            }
+            return new TemplateName(name, args);
+        }
+
+        private Node parseNestedName(NameState state) {
+            expect('N');
+            String qualifiers = parseCvQualifiers();
+            String ref = "";
+            if (consume('R')) {
+                ref = " &";
+            } else if (consume('O')) {
+                ref = " &&";
+            }
+            if (state != null) {
+                state.qualifiers = qualifiers;
+                state.refQualifier = ref;
+            }
+
+            Node soFar = null;
+            while (!consume('E')) {
+                if (state != null) {
+                    state.endsWithTemplateArgs = false;
+                }
+                char c = peek();
+                if (c == 'S' && peek(1) == 't') {
+                    mPos += 2;
+                    soFar = new NameNode("std");
+                    continue;
+                }
+                if (c == 'S') {
+                    if (soFar != null) {
+                        throw new IllegalArgumentException();
+                    }
+                    soFar = parseSubstitution();
+                    continue;
+                }
+                if (c == 'M') {
+                    mPos++; // The data member a lambda's closure type belongs to.
+                    continue;
+                }
+                if (c == 'D' && (peek(1) == 't' || peek(1) == 'T')) {
+                    throw new IllegalArgumentException(); // decltype
+                }
+                if (c == 'T') {
+                    soFar = push(soFar, parseTemplateParam());
+                } else if (c == 'I') {
+                    if (soFar == null) {
+                        throw new IllegalArgumentException();
+                    }
+                    soFar = new TemplateName(soFar, parseTemplateArgs(state != null));
+                    if (state != null) {
+                        state.endsWithTemplateArgs = true;
+                    }
+                } else {
+                    soFar = push(soFar, parseUnqualifiedName(state, soFar));
+                }
+                mSubstitutions.add(soFar);
+            }
+            if (soFar == null || mSubstitutions.isEmpty()) {
+                throw new IllegalArgumentException();
+            }
+            // The complete name is not itself a substitution candidate.
+            mSubstitutions.remove(mSubstitutions.size() - 1);
+            return soFar;
+        }
+
+        private static Node push(Node scope, Node name) {
+            return scope == null ? name : new NestedName(scope, name);
+        }
+
+        private Node parseLocalName(NameState state) {
+            expect('Z');
+            Node encoding = parseEncoding();
+            expect('E');
+            if (encoding instanceof FunctionEncoding) {
+                // The enclosing function is printed without its return type.
+                FunctionEncoding function = (FunctionEncoding) encoding;
+                encoding = new FunctionEncoding(null, function.mName, function.mParams,
+                        function.mSuffix);
+            }
+            if (consume('s')) {
+                parseDiscriminator();
+                return new NameNode(encoding + "::string literal");
+            }
+            if (consume('d')) {
+                if (peek() != '_') {
+                    parseNumber();
+                }
+                expect('_');
+            }
+            Node entity = parseName(state);
+            parseDiscriminator();
+            return new NestedName(new NameNode(encoding.toString()), entity);
+        }
+
+        private void parseDiscriminator() {
+            if (peek() != '_') {
+                return;
+            }
+            mPos++;
+            if (consume('_')) {
+                parseNumber();
+                expect('_');
+            } else if (Character.isDigit(peek())) {
+                mPos++;
+            } else {
+                throw new IllegalArgumentException();
+            }
+        }
+
+        private Node parseUnqualifiedName(NameState state, Node scope) {
+            char c = peek();
+            Node name;
+            if (c == 'C' && (Character.isDigit(peek(1)) || peek(1) == 'I')) {
+                mPos++;
+                if (consume('I')) {
+                    mPos++;
+                    parseType();
+                } else {
+                    mPos++;
+                }
+                name = new NameNode(ctorDtorBaseName(scope));
+                markCtorDtorConversion(state);
+            } else if (c == 'D' && Character.isDigit(peek(1))) {
+                mPos += 2;
+                name = new NameNode("~" + ctorDtorBaseName(scope));
+                markCtorDtorConversion(state);
+            } else if (Character.isDigit(c)) {
+                name = parseSourceName();
+            } else if (c == 'U') {
+                name = parseUnnamedTypeName();
+            } else if (c == 'L') {
+                mPos++;
+                name = parseSourceName();
+                parseDiscriminator();
+            } else if (c >= 'a' && c <= 'z') {
+                name = parseOperatorName(state);
+            } else {
+                throw new IllegalArgumentException();
+            }
+            while (peek() == 'B') {
+                mPos++;
+                name = new NameNode(name + "[abi:" + parseSourceName() + "]");
+            }
+            return name;
+        }
+
+        private static void markCtorDtorConversion(NameState state) {
+            if (state != null) {
+                state.ctorDtorConversion = true;
+            }
+        }
+
+        private static String ctorDtorBaseName(Node scope) {
+            if (scope == null) {
+                throw new IllegalArgumentException();
+            }
+            String name = scope.baseName();
+            // Strip any ABI tags: Foo[abi:cxx11]::Foo().
+            int tag = name.indexOf("[abi:");
+            return tag >= 0 ? name.substring(0, tag) : name;
+        }
+
+        private Node parseSourceName() {
+            int length = parseNumber();
+            if (length <= 0 || mPos + length > mName.length()) {
+                throw new IllegalArgumentException();
+            }
+            String name = mName.substring(mPos, mPos + length);
+            mPos += length;
+            if (name.startsWith("_GLOBAL__N")) {
+                return new NameNode("(anonymous namespace)");
+            }
+            return new NameNode(name);
+        }
+
+        private Node parseUnnamedTypeName() {
+            if (consume("Ut")) {
+                int n = peek() == '_' ? 1 : parseNumber() + 2;
+                expect('_');
+                return new NameNode("{unnamed type#" + n + "}");
+            }
+            if (consume("Ul")) {
+                List<Node> params = new ArrayList<>();
+                if (!consume('v')) {
+                    while (peek() != 'E') {
+                        params.add(parseType());
+                    }
+                }
+                expect('E');
+                int n = peek() == '_' ? 1 : parseNumber() + 2;
+                expect('_');
+                StringBuilder sb = new StringBuilder("{lambda(");
+                printList(sb, params);
+                return new NameNode(sb.append(")#").append(n).append('}').toString());
+            }
+            throw new IllegalArgumentException();
+        }
+
+        private Node parseOperatorName(NameState state) {
+            if (consume("cv")) {
+                markCtorDtorConversion(state);
+                return new NameNode("operator " + parseType());
+            }
+            if (consume("li")) {
+                return new NameNode("operator\"\" " + parseSourceName());
+            }
+            if (peek() == 'v' && Character.isDigit(peek(1))) {
+                mPos += 2;
+                return new NameNode("operator " + parseSourceName());
+            }
+            String code = mName.substring(mPos, Math.min(mPos + 2, mName.length()));
+            String op = operator(code);
+            if (op == null) {
+                throw new IllegalArgumentException();
+            }
+            mPos += 2;
+            return new NameNode(Character.isLetter(op.charAt(0)) ? "operator " + op
+                    : "operator" + op);
+        }
+
+        private static String operator(String code) {
+            switch (code) {
+                case "nw": return "new";
+                case "na": return "new[]";
+                case "dl": return "delete";
+                case "da": return "delete[]";
+                case "ps": return "+";
+                case "ng": return "-";
+                case "ad": return "&";
+                case "de": return "*";
+                case "co": return "~";
+                case "pl": return "+";
+                case "mi": return "-";
+                case "ml": return "*";
+                case "dv": return "/";
+                case "rm": return "%";
+                case "an": return "&";
+                case "or": return "|";
+                case "eo": return "^";
+                case "aS": return "=";
+                case "pL": return "+=";
+                case "mI": return "-=";
+                case "mL": return "*=";
+                case "dV": return "/=";
+                case "rM": return "%=";
+                case "aN": return "&=";
+                case "oR": return "|=";
+                case "eO": return "^=";
+                case "ls": return "<<";
+                case "rs": return ">>";
+                case "lS": return "<<=";
+                case "rS": return ">>=";
+                case "eq": return "==";
+                case "ne": return "!=";
+                case "lt": return "<";
+                case "gt": return ">";
+                case "le": return "<=";
+                case "ge": return ">=";
+                case "ss": return "<=>";
+                case "nt": return "!";
+                case "aa": return "&&";
+                case "oo": return "||";
+                case "pp": return "++";
+                case "mm": return "--";
+                case "cm": return ",";
+                case "pm": return "->*";
+                case "pt": return "->";
+                case "cl": return "()";
+                case "ix": return "[]";
+                case "qu": return "?";
+                case "aw": return "co_await";
+                default: return null;
+            }
+        }
+
+        private String parseCvQualifiers() {
+            StringBuilder sb = new StringBuilder();
+            boolean restrict = consume('r');
+            boolean isVolatile = consume('V');
+            if (consume('K')) {
+                sb.append(" const");
+            }
+            if (isVolatile) {
+                sb.append(" volatile");
+            }
+            if (restrict) {
+                sb.append(" restrict");
+            }
+            return sb.toString();
+        }
+
+        private Node parseSubstitution() {
+            expect('S');
+            char c = peek();
+            String abbreviation = null;
+            switch (c) {
+                case 'a': abbreviation = "std::allocator"; break;
+                case 'b': abbreviation = "std::basic_string"; break;
+                case 's': abbreviation = "std::string"; break;
+                case 'i': abbreviation = "std::istream"; break;
+                case 'o': abbreviation = "std::ostream"; break;
+                case 'd': abbreviation = "std::iostream"; break;
+                default: break;
+            }
+            if (abbreviation != null) {
+                mPos++;
+                return new NameNode(abbreviation);
+            }
+            int index = 0;
+            if (c != '_') {
+                index = parseSeqId() + 1;
+            }
+            expect('_');
+            if (index >= mSubstitutions.size()) {
+                throw new IllegalArgumentException();
+            }
+            return mSubstitutions.get(index);
+        }
+
+        /** A base-36 number using digits and upper-case letters. */
+        private int parseSeqId() {
+            int value = 0;
+            int start = mPos;
+            while (true) {
+                char c = peek();
+                if (c >= '0' && c <= '9') {
+                    value = value * 36 + (c - '0');
+                } else if (c >= 'A' && c <= 'Z') {
+                    value = value * 36 + (c - 'A' + 10);
+                } else {
+                    break;
+                }
+                mPos++;
+            }
+            if (mPos == start) {
+                throw new IllegalArgumentException();
+            }
+            return value;
+        }
+
+        private int parseNumber() {
+            boolean negative = consume('n');
+            int start = mPos;
+            long value = 0;
+            while (Character.isDigit(peek())) {
+                value = value * 10 + (mName.charAt(mPos++) - '0');
+                if (value > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException();
+                }
+            }
+            if (mPos == start) {
+                throw new IllegalArgumentException();
+            }
+            return (int) (negative ? -value : value);
+        }
+
+        private Node parseTemplateParam() {
+            expect('T');
+            int index = 0;
+            if (peek() != '_') {
+                index = parseNumber() + 1;
+            }
+            expect('_');
+            if (index >= mTemplateArgs.size()) {
+                throw new IllegalArgumentException();
+            }
+            return mTemplateArgs.get(index);
+        }
+
+        private List<Node> parseTemplateArgs(boolean tagTemplates) {
+            expect('I');
+            List<Node> args = new ArrayList<>();
+            while (!consume('E')) {
+                args.add(parseTemplateArg());
+            }
+            if (tagTemplates) {
+                mTemplateArgs = args;
+            }
+            return args;
+        }
+
+        private Node parseTemplateArg() {
+            char c = peek();
+            if (c == 'L') {
+                return parseExprPrimary();
+            }
+            if (c == 'J') {
+                mPos++;
+                List<Node> elements = new ArrayList<>();
+                while (!consume('E')) {
+                    elements.add(parseTemplateArg());
+                }
+                return new Pack(elements);
+            }
+            if (c == 'X') {
+                mPos++;
+                Node expression = parseExpression();
+                expect('E');
+                return expression;
+            }
+            return parseType();
+        }
+
+        /**
+         * Parses the expressions seen in enable_if arguments: literals, template parameters,
+         * unresolved names, address-of and the unary and binary operators.
+         */
+        private Node parseExpression() {
+            if (++mDepth > MAX_DEPTH) {
+                throw new IllegalArgumentException();
+            }
+            try {
+                char c = peek();
+                if (c == 'L') {
+                    return new Expression(parseExprPrimary(), false);
+                }
+                if (c == 'T') {
+                    return new Expression(parseTemplateParam(), false);
+                }
+                if (consume("sr")) {
+                    return new Expression(parseUnresolvedName(), true);
+                }
+                String code = mName.substring(mPos, Math.min(mPos + 2, mName.length()));
+                String op = operator(code);
+                if (op == null || !Character.isLetter(code.charAt(0))
+                        || Character.isLetter(op.charAt(0)) || op.equals("()")
+                        || op.equals("[]") || op.equals("?")) {
+                    throw new IllegalArgumentException();
+                }
+                mPos += 2;
+                Node operand = parseExpression();
+                if (code.equals("ad") || code.equals("de") || code.equals("ng")
+                        || code.equals("ps") || code.equals("nt") || code.equals("co")) {
+                    Node inner = ((Expression) operand).mValue;
+                    if (code.equals("ad") && inner instanceof FunctionEncoding) {
+                        // The address of a function is printed without its signature.
+                        return new Expression(new NameNode(op
+                                + ((FunctionEncoding) inner).mName), false);
+                    }
+                    return new Expression(new NameNode(op + subexpression(operand)), false);
+                }
+                String text = subexpression(operand) + op + subexpression(parseExpression());
+                return new Expression(new NameNode(op.equals(">") ? "(" + text + ")" : text),
+                        false);
+            } finally {
+                mDepth--;
+            }
+        }
+
+        private static String subexpression(Node node) {
+            Expression expression = (Expression) node;
+            return expression.mSimple ? expression.toString() : "(" + expression + ")";
+        }
+
+        /** {@code <qualifier>+ E <base>} or {@code <type> <base>}, after "sr". */
+        private Node parseUnresolvedName() {
+            Node scope;
+            if (Character.isDigit(peek())) {
+                scope = parseSimpleId();
+                while (!consume('E')) {
+                    scope = new NestedName(scope, parseSimpleId());
+                }
+            } else {
+                scope = peek() == 'S' ? parseSubstitution() : parseTemplateParam();
+                if (peek() == 'I') {
+                    scope = new TemplateName(scope, parseTemplateArgs(false));
+                }
+            }
+            return new NestedName(scope, parseSimpleId());
+        }
+
+        private Node parseSimpleId() {
+            Node name = parseSourceName();
+            if (peek() == 'I') {
+                name = new TemplateName(name, parseTemplateArgs(false));
+            }
+            return name;
+        }
+
+        private Node parseExprPrimary() {
+            expect('L');
+            if (consume("_Z")) {
+                Node encoding = parseEncoding();
+                expect('E');
+                return encoding;
+            }
+            Node type = parseType();
+            String typeName = type.toString();
+            int start = mPos;
+            while (peek() != 'E') {
+                mPos++;
+            }
+            String value = mName.substring(start, mPos);
+            expect('E');
+            if (value.startsWith("n")) {
+                value = "-" + value.substring(1);
+            }
+            switch (typeName) {
+                case "bool":
+                    if (value.equals("0")) {
+                        return new NameNode("false");
+                    } else if (value.equals("1")) {
+                        return new NameNode("true");
+                    }
+                    break;
+                case "int":
+                    return new NameNode(value);
+                case "unsigned int":
+                    return new NameNode(value + "u");
+                case "long":
+                    return new NameNode(value + "l");
+                case "unsigned long":
+                    return new NameNode(value + "ul");
+                case "long long":
+                    return new NameNode(value + "ll");
+                case "unsigned long long":
+                    return new NameNode(value + "ull");
+                default:
+                    break;
+            }
+            return new NameNode("(" + typeName + ")" + value);
+        }
+
+        private Node parseType() {
+            if (++mDepth > MAX_DEPTH) {
+                throw new IllegalArgumentException();
+            }
+            try {
+                return parseTypeUnchecked();
+            } finally {
+                mDepth--;
+            }
+        }
+
+        private Node parseTypeUnchecked() {
+            char c = peek();
+            String builtin = builtin(c);
+            if (builtin != null) {
+                mPos++;
+                return new NameNode(builtin);
+            }
+            Node result;
+            switch (c) {
+                case 'D':
+                    result = parseDType();
+                    if (result instanceof NameNode) {
+                        return result; // A builtin: not a substitution candidate.
+                    }
+                    break;
+                case 'r':
+                case 'V':
+                case 'K': {
+                    String qualifiers = parseCvQualifiers();
+                    result = new Qualified(parseType(), qualifiers);
+                    break;
+                }
+                case 'P':
+                    mPos++;
+                    result = new Indirection(parseType(), "*");
+                    break;
+                case 'R':
+                    mPos++;
+                    result = new Indirection(parseType(), "&");
+                    break;
+                case 'O':
+                    mPos++;
+                    result = new Indirection(parseType(), "&&");
+                    break;
+                case 'F':
+                    result = parseFunctionType("");
+                    break;
+                case 'A':
+                    result = parseArrayType();
+                    break;
+                case 'M': {
+                    mPos++;
+                    Node cls = parseType();
+                    result = new MemberPointer(cls, parseType());
+                    break;
+                }
+                case 'T': {
+                    result = parseTemplateParam();
+                    if (peek() == 'I') {
+                        mSubstitutions.add(result);
+                        result = new TemplateName(result, parseTemplateArgs(false));
+                    }
+                    break;
+                }
+                case 'u':
+                    mPos++;
+                    result = parseSourceName();
+                    break;
+                case 'S':
+                    if (peek(1) != 't') {
+                        result = parseSubstitution();
+                        if (peek() != 'I') {
+                            return result;
+                        }
+                        result = new TemplateName(result, parseTemplateArgs(false));
+                        break;
+                    }
+                    result = parseName(null);
+                    break;
+                default:
+                    result = parseName(null);
+                    break;
+            }
+            mSubstitutions.add(result);
+            return result;
+        }
+
+        private static String builtin(char c) {
+            switch (c) {
+                case 'v': return "void";
+                case 'w': return "wchar_t";
+                case 'b': return "bool";
+                case 'c': return "char";
+                case 'a': return "signed char";
+                case 'h': return "unsigned char";
+                case 's': return "short";
+                case 't': return "unsigned short";
+                case 'i': return "int";
+                case 'j': return "unsigned int";
+                case 'l': return "long";
+                case 'm': return "unsigned long";
+                case 'x': return "long long";
+                case 'y': return "unsigned long long";
+                case 'n': return "__int128";
+                case 'o': return "unsigned __int128";
+                case 'f': return "float";
+                case 'd': return "double";
+                case 'e': return "long double";
+                case 'g': return "__float128";
+                case 'z': return "...";
+                default: return null;
+            }
+        }
+
+        /** Types starting with 'D': the extended builtins, pack expansions and vectors. */
+        private Node parseDType() {
+            char c = peek(1);
+            String builtin = null;
+            switch (c) {
+                case 'n': builtin = "decltype(nullptr)"; break;
+                case 'i': builtin = "char32_t"; break;
+                case 's': builtin = "char16_t"; break;
+                case 'u': builtin = "char8_t"; break;
+                case 'a': builtin = "auto"; break;
+                case 'c': builtin = "decltype(auto)"; break;
+                case 'f': builtin = "decimal32"; break;
+                case 'd': builtin = "decimal64"; break;
+                case 'e': builtin = "decimal128"; break;
+                case 'h': builtin = "half"; break;
+                default: break;
+            }
+            if (builtin != null) {
+                mPos += 2;
+                return new NameNode(builtin);
+            }
+            if (c == 'F') {
+                mPos += 2;
+                int bits = parseNumber();
+                expect('_');
+                return new NameNode("_Float" + bits);
+            }
+            if (c == 'p') {
+                mPos += 2;
+                return new PackExpansion(parseType());
+            }
+            if (c == 'v') {
+                mPos += 2;
+                int count = parseNumber();
+                expect('_');
+                return new Qualified(parseType(), " __vector(" + count + ")");
+            }
+            if (c == 'x' || c == 'o' || c == 'O' || c == 'w') {
+                // Exception specifications and transaction_safe on a function type.
+                return parseFunctionType("");
+            }
+            throw new IllegalArgumentException();
+        }
+
+        private Node parseFunctionType(String qualifiers) {
+            String suffix = qualifiers;
+            if (consume("Dx")) {
+                suffix += " transaction_safe";
+            }
+            if (consume("Do")) {
+                suffix += " noexcept";
+            } else if (peek() == 'D' && (peek(1) == 'O' || peek(1) == 'w')) {
+                throw new IllegalArgumentException(); // noexcept(expr), throw(types)
+            }
+            expect('F');
+            consume('Y'); // extern "C"
+            Node ret = parseType();
+            List<Node> params = new ArrayList<>();
+            String ref = "";
+            while (!consume('E')) {
+                if (consume('v')) {
+                    continue;
+                }
+                if (peek() == 'R' && peek(1) == 'E') {
+                    mPos++;
+                    ref = " &";
+                    continue;
+                }
+                if (peek() == 'O' && peek(1) == 'E') {
+                    mPos++;
+                    ref = " &&";
+                    continue;
+                }
+                params.add(parseType());
+            }
+            return new FunctionType(ret, params, ref + suffix);
+        }
+
+        private Node parseArrayType() {
+            expect('A');
+            String dimension = "";
+            if (Character.isDigit(peek())) {
+                dimension = Integer.toString(parseNumber());
+            } else if (peek() != '_') {
+                throw new IllegalArgumentException(); // Dependent dimensions aren't supported.
+            }
+            expect('_');
+            return new ArrayType(parseType(), dimension);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Resolves the DT_NEEDED closure of libraries the way the dynamic linker would, an ldd that
+ * never runs anything. Libraries are looked up through their DT_RPATH/DT_RUNPATH and then a
+ * list of search directories, such as {@code aarch64-linux-android/<api>/} of a sysroot.
+ *
+ * Every library is parsed at most once per resolver and its node is shared by every graph
+ * that reaches it, so resolving many applications against one sysroot parses the sysroot
+ * once. A resolver may be used from several threads at a time.
+ */
+public class DependencyResolver {
+    /** A parsed library: its dynamic section and exported symbols. Immutable. */
+    public static class Library {
+        private final File mFile;
+        private final String mName;
+        private final List<String> mNeeded;
+        private final List<File> mSearchPath;
+        private final SymbolTable mSymbols;
+
+        Library(File file, ReadElf elf) {
+            mFile = file;
+            mName = elf.getSoname() != null ? elf.getSoname() : file.getName();
+            mNeeded = elf.getNeeded();
+            mSearchPath = searchPath(file, elf);
+            mSymbols = elf.getDynamicSymbolTable();
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        /** DT_SONAME, or the file name for libraries without one. */
+        public String getName() {
+            return mName;
+        }
+
+        public List<String> getNeeded() {
+            return mNeeded;
+        }
+
+        public SymbolTable getDynamicSymbols() {
+            return mSymbols;
+        }
+
+        /** Returns true if this library exports a definition of {@code name}. */
+        public boolean defines(byte[] name) {
+            int index = mSymbols.indexOf(name);
+            return index > 0 && mSymbols.isDefined(index)
+                    && mSymbols.getBind(index) != ReadElf.Symbol.STB_LOCAL;
+        }
+
+        @Override
+        public String toString() {
+            return mName + " => " + mFile;
+        }
+
+        /** DT_RPATH (only without DT_RUNPATH) and then DT_RUNPATH, with $ORIGIN expanded. */
+        private static List<File> searchPath(File file, ReadElf elf) {
+            List<File> result = new ArrayList<>();
+            String runpath = elf.getRunpath();
+            String rpath = runpath == null ? elf.getRpath() : null;
+            String origin = file.getAbsoluteFile().getParent();
+            for (String path : new String[] {rpath, runpath}) {
+                if (path == null) {
+                    continue;
+                }
+                for (String dir : path.split(":")) {
+                    if (!dir.isEmpty()) {
+                        result.add(new File(dir.replace("${ORIGIN}", origin)
+                                .replace("$ORIGIN", origin)));
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /** The dependency closure of one root library, with every import bound to a provider. */
+    public static class Graph {
+        private final Library mRoot;
+        private final List<Library> mLoadOrder;
+        private final Map<Library, List<Library>> mEdges;
+        private final SortedSet<String> mMissing;
+        private final Map<String, Library> mBindings;
+        private final SortedSet<String> mUnresolved;
+
+        Graph(Library root, List<Library> loadOrder, Map<Library, List<Library>> edges,
+              SortedSet<String> missing, Map<String, Library> bindings,
+              SortedSet<String> unresolved) {
+            mRoot = root;
+            mLoadOrder = loadOrder;
+            mEdges = edges;
+            mMissing = missing;
+            mBindings = bindings;
+            mUnresolved = unresolved;
+        }
+
+        public Library getRoot() {
+            return mRoot;
+        }
+
+        /** The root and every library it pulls in, breadth first, as the linker loads them. */
+        public List<Library> getLoadOrder() {
+            return mLoadOrder;
+        }
+
+        /** The libraries {@code library}'s DT_NEEDED entries resolved to. */
+        public List<Library> getDependencies(Library library) {
+            List<Library> result = mEdges.get(library);
+            return result != null ? result : Collections.<Library>emptyList();
+        }
+
+        /** DT_NEEDED names that could not be found. */
+        public SortedSet<String> getMissing() {
+            return mMissing;
+        }
+
+        /**
+         * Returns the library that satisfies imports of {@code symbol}: the first in load
+         * order to define it. Null if {@code symbol} isn't imported or nothing defines it.
+         */
+        public Library getProvider(String symbol) {
+            return mBindings.get(symbol);
+        }
+
+        /** Every imported symbol and the library it binds to. */
+        public Map<String, Library> getBindings() {
+            return mBindings;
+        }
+
+        /** Strong imports that nothing in the graph defines. */
+        public SortedSet<String> getUnresolved() {
+            return mUnresolved;
+        }
+
+        /** Prints the graph the way ldd does, followed by any unresolved symbols. */
+        public void writeTo(PrintStream out) {
+            out.println(mRoot.getFile() + ":");
+            for (Library library : mLoadOrder) {
+                if (library != mRoot) {
+                    out.println("\t" + library);
+                }
+            }
+            for (String name : mMissing) {
+                out.println("\t" + name + " => not found");
+            }
+            for (String symbol : mUnresolved) {
+                out.println("\tundefined symbol: " + symbol);
+            }
+        }
+    }
+
+    private final List<File> mSearchPath;
+    private final int mParallelism;
+    private final ConcurrentMap<String, FutureTask<Library>> mLibraries =
+            new ConcurrentHashMap<>();
+
+    public DependencyResolver(List<File> searchPath) {
+        this(searchPath, Runtime.getRuntime().availableProcessors());
+    }
+
+    public DependencyResolver(List<File> searchPath, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        mSearchPath = new ArrayList<>(searchPath);
+        mParallelism = parallelism;
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<File> searchPath = new ArrayList<>();
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+            if ("-L".equals(args[i])) {
+                searchPath.add(new File(args[i + 1]));
+            } else if ("-j".equals(args[i])) {
+                parallelism = Integer.parseInt(args[i + 1]);
+            } else {
+                break;
+            }
+        }
+        if (i >= args.length) {
+            System.err.println("usage: DependencyResolver [-L dir]... [-j parallelism] <lib>...");
+            System.exit(1);
+        }
+        List<File> roots = new ArrayList<>();
+        for (; i < args.length; ++i) {
+            roots.add(new File(args[i]));
+        }
+        for (Graph graph : new DependencyResolver(searchPath, parallelism).resolveAll(roots)) {
+            graph.writeTo(System.out);
+        }
+    }
+
+    /** Resolves {@code roots} concurrently, returning their graphs in the same order. */
+    public List<Graph> resolveAll(List<File> roots) throws IOException {
+        List<Callable<Graph>> tasks = new ArrayList<>();
+        for (File root : roots) {
+            tasks.add(() -> resolve(root));
+        }
+        List<Graph> result = new ArrayList<>(roots.size());
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            for (Future<Graph> f : pool.invokeAll(tasks)) {
+                result.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while resolving", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to resolve", cause);
+        } finally {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    /** Resolves the DT_NEEDED closure of {@code file} and binds its imports. */
+    public Graph resolve(File file) throws IOException {
+        final Library root = load(file);
+        if (root == null) {
+            throw new IllegalArgumentException("Not an ELF file: " + file);
+        }
+
+        // Breadth first, like the dynamic linker: each library appears once, where it is
+        // first needed.
+        List<Library> loadOrder = new ArrayList<>();
+        Map<Library, List<Library>> edges = new HashMap<>();
+        SortedSet<String> missing = new TreeSet<>();
+        Set<Library> seen = new HashSet<>();
+        Deque<Library> queue = new ArrayDeque<>();
+        seen.add(root);
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            Library library = queue.remove();
+            loadOrder.add(library);
+            List<Library> dependencies = new ArrayList<>(library.getNeeded().size());
+            for (String needed : library.getNeeded()) {
+                Library dependency = find(needed, library);
+                if (dependency == null) {
+                    missing.add(needed);
+                    continue;
+                }
+                dependencies.add(dependency);
+                if (seen.add(dependency)) {
+                    queue.add(dependency);
+                }
+            }
+            edges.put(library, Collections.unmodifiableList(dependencies));
+        }
+
+        // Bind every import to the first library in load order that defines it: the global
+        // lookup scope.
+        Map<String, Library> bindings = new LinkedHashMap<>();
+        SortedSet<String> unresolved = new TreeSet<>();
+        for (Library library : loadOrder) {
+            SymbolTable symbols = library.getDynamicSymbols();
+            for (int i = 1; i < symbols.size(); ++i) {
+                if (symbols.isDefined(i) || symbols.getNameOffset(i) == 0) {
+                    continue;
+                }
+                String name = symbols.getName(i);
+                if (name == null || bindings.containsKey(name)) {
+                    continue;
+                }
+                Library provider = null;
+                byte[] bytes = name.getBytes();
+                for (Library candidate : loadOrder) {
+                    if (candidate.defines(bytes)) {
+                        provider = candidate;
+                        break;
+                    }
+                }
+                bindings.put(name, provider);
+                if (provider == null && symbols.getBind(i) != ReadElf.Symbol.STB_WEAK) {
+                    unresolved.add(name);
+                }
+            }
+        }
+        return new Graph(root, Collections.unmodifiableList(loadOrder),
+                Collections.unmodifiableMap(edges), Collections.unmodifiableSortedSet(missing),
+                Collections.unmodifiableMap(bindings),
+                Collections.unmodifiableSortedSet(unresolved));
+    }
+
+    /** Number of distinct files this resolver has parsed or tried to. */
+    public int getLibraryCount() {
+        return mLibraries.size();
+    }
+
+    private Library find(String needed, Library from) throws IOException {
+        if (needed.indexOf('/') >= 0) {
+            return load(new File(needed));
+        }
+        for (List<File> path : Arrays.asList(from.mSearchPath, mSearchPath)) {
+            for (File dir : path) {
+                File candidate = new File(dir, needed);
+                if (candidate.isFile()) {
+                    Library library = load(candidate);
+                    if (library != null) {
+                        return library;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the node for {@code file}, parsing it on first use; null if it isn't an ELF
+     * file, such as a linker script named like a library.
+     */
+    private Library load(final File file) throws IOException {
+        final String key = file.getCanonicalPath();
+        FutureTask<Library> task = mLibraries.get(key);
+        if (task == null) {
+            FutureTask<Library> created = new FutureTask<>(() -> {
+                try (ReadElf elf = ReadElf.read(file)) {
+                    return new Library(file, elf);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            });
+            task = mLibraries.putIfAbsent(key, created);
+            if (task == null) {
+                task = created;
+                created.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + file, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to load " + file, cause);
+        }
+    }
+}
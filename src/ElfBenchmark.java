@@ -0,0 +1,317 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A self-contained benchmark suite over a sysroot corpus such as src/resources, in the spirit
+ * of JMH with {@code -prof gc}: each benchmark is warmed up, then run for a number of timed
+ * iterations, and reports throughput together with allocated bytes per operation and the
+ * collections that happened while it ran.
+ *
+ * <pre>
+ * java ElfBenchmark [-w warmups] [-i iterations] [-t millis] [-j parallelism]
+ *         [-b name[,name...]] &lt;sysroot&gt;
+ * </pre>
+ *
+ * Every benchmark bypasses {@link SymbolCache}, so the numbers measure parsing. Allocation is
+ * summed over live threads, so the scan benchmark runs on one pool whose workers outlive the
+ * measurement; an iteration that loses a thread's allocation anyway is reported as n/a.
+ */
+public class ElfBenchmark {
+    /** One operation of a benchmark. The result is folded into a sink so it can't be elided. */
+    private interface Operation {
+        long run() throws IOException;
+    }
+
+    private static volatile long sSink;
+
+    private final File mRoot;
+    private final List<File> mFiles = new ArrayList<>();
+    // A defined name from each file's .dynsym and .symtab, probed by the lookup benchmarks.
+    private final List<String> mDynamicNames = new ArrayList<>();
+    private final List<String> mNames = new ArrayList<>();
+    private final int mParallelism;
+
+    private int mNext;
+    private List<ReadElf> mOpen;
+    private ForkJoinPool mPool;
+
+    public ElfBenchmark(File root, int parallelism) throws IOException {
+        mRoot = root;
+        mParallelism = parallelism;
+        collect(root);
+        if (mFiles.isEmpty()) {
+            throw new IOException("No ELF files under " + root);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int warmups = 3;
+        int iterations = 5;
+        long millis = 1000;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        List<String> selected = null;
+        int i = 0;
+        for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+            switch (args[i]) {
+                case "-w":
+                    warmups = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-i":
+                    iterations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-t":
+                    millis = Long.parseLong(args[i + 1]);
+                    break;
+                case "-j":
+                    parallelism = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-b":
+                    selected = Arrays.asList(args[i + 1].split(","));
+                    break;
+                default:
+                    i = args.length;
+            }
+        }
+        if (i != args.length - 1) {
+            System.err.println("usage: ElfBenchmark [-w warmups] [-i iterations] [-t millis]"
+                    + " [-j parallelism] [-b name[,name...]] <sysroot>");
+            System.exit(1);
+        }
+
+        ElfBenchmark benchmark = new ElfBenchmark(new File(args[i]), parallelism);
+        System.out.printf("%d files, %d warmup and %d measurement iterations of %d ms%n",
+                benchmark.mFiles.size(), warmups, iterations, millis);
+        System.out.printf("%-14s %14s %12s %14s %8s %8s%n",
+                "Benchmark", "ops/s", "error", "alloc B/op", "gc", "gc ms");
+        try {
+            for (Map.Entry<String, Operation> e : benchmark.operations().entrySet()) {
+                if (selected == null || selected.contains(e.getKey())) {
+                    benchmark.run(e.getKey(), e.getValue(), warmups, iterations, millis);
+                }
+            }
+        } finally {
+            benchmark.closeOpen();
+        }
+    }
+
+    /** The benchmarks, in the order they run. */
+    private Map<String, Operation> operations() throws IOException {
+        Map<String, Operation> result = new LinkedHashMap<>();
+        // Header, section header and program header parsing.
+        result.put("open", () -> {
+            try (ReadElf re = new ReadElf(nextFile())) {
+                return re.getType();
+            }
+        });
+        // Lookups on a freshly opened file, including building whatever index they need.
+        result.put("lookupCold", () -> {
+            final int index = nextIndex();
+            try (ReadElf re = new ReadElf(mFiles.get(index))) {
+                return identity(re.getDynamicSymbol(mDynamicNames.get(index)))
+                        + identity(re.getSymbol(mNames.get(index)));
+            }
+        });
+        // Lookups on files that are already open and indexed.
+        result.put("lookupWarm", () -> {
+            final int index = nextIndex();
+            ReadElf re = openAll().get(index);
+            return identity(re.getDynamicSymbol(mDynamicNames.get(index)))
+                    + identity(re.getSymbol(mNames.get(index)));
+        });
+        // Materializing both tables as name-keyed maps.
+        result.put("materialize", () -> {
+            try (ReadElf re = new ReadElf(nextFile())) {
+                return re.getSymbols().size() + re.getDynamicSymbols().size();
+            }
+        });
+        // A whole-corpus CorpusScanner run; one operation scans every file.
+        result.put("scan", () -> new CorpusScanner(mParallelism).scan(mRoot, pool()).size());
+        return result;
+    }
+
+    private void run(String name, Operation op, int warmups, int iterations, long millis)
+            throws IOException {
+        for (int i = 0; i < warmups; ++i) {
+            iterate(op, millis, null);
+        }
+        double[] rates = new double[iterations];
+        long[] totals = new long[3]; // ops, allocated bytes, collections
+        long gcMillis = -gcTime();
+        for (int i = 0; i < iterations; ++i) {
+            rates[i] = iterate(op, millis, totals);
+        }
+        gcMillis += gcTime();
+
+        double mean = 0;
+        for (double rate : rates) {
+            mean += rate / iterations;
+        }
+        double variance = 0;
+        for (double rate : rates) {
+            variance += (rate - mean) * (rate - mean) / Math.max(1, iterations - 1);
+        }
+        String alloc = totals[1] < 0 ? "n/a" : String.valueOf(totals[1] / totals[0]);
+        System.out.printf("%-14s %14.1f %12.1f %14s %8d %8d%n", name, mean,
+                Math.sqrt(variance), alloc, totals[2], gcMillis);
+    }
+
+    /** Runs {@code op} for {@code millis} and returns operations per second. */
+    private double iterate(Operation op, long millis, long[] totals) throws IOException {
+        final long allocated = allocatedBytes();
+        final long collections = gcCount();
+        final long start = System.nanoTime();
+        final long deadline = start + millis * 1000000L;
+        long ops = 0;
+        long sink = 0;
+        long now;
+        do {
+            sink += op.run();
+            ops++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        sSink += sink;
+        if (totals != null) {
+            totals[0] += ops;
+            // A thread that exits takes its count with it, which can make the delta negative.
+            long bytes = allocatedBytes();
+            totals[1] = bytes < 0 || allocated < 0 || bytes < allocated || totals[1] < 0
+                    ? -1 : totals[1] + bytes - allocated;
+            totals[2] += gcCount() - collections;
+        }
+        return ops * 1e9 / (now - start);
+    }
+
+    private int nextIndex() {
+        final int index = mNext;
+        mNext = index + 1 == mFiles.size() ? 0 : index + 1;
+        return index;
+    }
+
+    private File nextFile() {
+        return mFiles.get(nextIndex());
+    }
+
+    private List<ReadElf> openAll() throws IOException {
+        if (mOpen == null) {
+            mOpen = new ArrayList<>(mFiles.size());
+            for (File file : mFiles) {
+                ReadElf re = new ReadElf(file);
+                mOpen.add(re);
+                // Build the indexes up front so only the lookups are measured.
+                re.getSymbolTable();
+                re.getDynamicSymbolTable();
+            }
+        }
+        return mOpen;
+    }
+
+    /** The scan benchmark's pool, kept alive so its workers' allocation stays countable. */
+    private ForkJoinPool pool() {
+        if (mPool == null) {
+            mPool = new ForkJoinPool(mParallelism);
+        }
+        return mPool;
+    }
+
+    private void closeOpen() {
+        if (mPool != null) {
+            mPool.shutdown();
+            mPool = null;
+        }
+        if (mOpen != null) {
+            for (ReadElf re : mOpen) {
+                re.close();
+            }
+            mOpen = null;
+        }
+    }
+
+    private void collect(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collect(file);
+            } else if (file.getName().endsWith(".so")) {
+                ReadElf re;
+                try {
+                    re = new ReadElf(file);
+                } catch (IllegalArgumentException e) {
+                    continue; // e.g. a linker script named libc++.so
+                }
+                try {
+                    mFiles.add(file);
+                    mDynamicNames.add(probeName(re.getDynamicSymbolTable()));
+                    mNames.add(probeName(re.getSymbolTable()));
+                } finally {
+                    re.close();
+                }
+            }
+        }
+    }
+
+    /** Picks the defined, named entry nearest the middle of {@code table}. */
+    private static String probeName(SymbolTable table) {
+        for (int i = table.size() / 2, j = i; i > 0 || j < table.size(); --i, ++j) {
+            if (i > 0 && table.isDefined(i) && table.getName(i) != null) {
+                return table.getName(i);
+            }
+            if (j < table.size() && table.isDefined(j) && table.getName(j) != null) {
+                return table.getName(j);
+            }
+        }
+        return "";
+    }
+
+    private static long identity(Object o) {
+        return System.identityHashCode(o);
+    }
+
+    /** Bytes allocated by all live threads so far, or -1 if the JVM can't tell. */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        if (!hotspot.isThreadAllocatedMemorySupported()
+                || !hotspot.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : hotspot.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
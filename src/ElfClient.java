@@ -0,0 +1,186 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A thin client for {@link ElfServer}. Given a command on the command line it sends that one
+ * request; otherwise it sends every line of standard input as one batch. Responses are
+ * printed without their "OK" headers, and the exit status is 1 if any request failed.
+ *
+ * With {@code -s}, a server is started in the background if none is listening, using this
+ * JVM's java binary and class path, and logging to the temporary directory.
+ */
+public class ElfClient {
+    private static final int START_TIMEOUT_MS = 10000;
+
+    private final int mPort;
+
+    public ElfClient(int port) {
+        mPort = port;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = ElfServer.DEFAULT_PORT;
+        boolean start = false;
+        int i = 0;
+        for (; i < args.length; ++i) {
+            if ("-p".equals(args[i]) && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("-s".equals(args[i])) {
+                start = true;
+            } else {
+                break;
+            }
+        }
+        List<String> requests = new ArrayList<>();
+        if (i < args.length) {
+            StringBuilder sb = new StringBuilder(args[i]);
+            for (++i; i < args.length; ++i) {
+                sb.append('\t').append(args[i]);
+            }
+            requests.add(sb.toString());
+        } else {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    requests.add(line);
+                }
+            }
+        }
+
+        ElfClient client = new ElfClient(port);
+        if (start) {
+            client.ensureServer();
+        }
+        final PrintStream out = System.out;
+        boolean failed = false;
+        for (String response : client.send(requests)) {
+            if (response.startsWith("ERR ")) {
+                System.err.println(response.substring(4));
+                failed = true;
+            } else {
+                out.print(response);
+            }
+        }
+        out.flush();
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Sends {@code requests} as one batch over a single connection and returns each response:
+     * its lines, newline-terminated, or "ERR " and the message.
+     */
+    public List<String> send(List<String> requests) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), mPort);
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            // The server answers each request as soon as it reads it, so writing the whole
+            // batch before reading anything can fill both sides' socket buffers and leave both
+            // blocked in write. Write from another thread while this one reads.
+            final IOException[] writeError = new IOException[1];
+            Thread writer = new Thread(() -> {
+                try {
+                    for (String request : requests) {
+                        out.write(request);
+                        out.write('\n');
+                    }
+                    out.flush();
+                    socket.shutdownOutput();
+                } catch (IOException e) {
+                    writeError[0] = e;
+                }
+            }, "ElfClient writer");
+            writer.setDaemon(true);
+            writer.start();
+
+            List<String> responses = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); ++i) {
+                String header = in.readLine();
+                if (header == null) {
+                    throw new IOException("Server closed the connection");
+                }
+                if (header.startsWith("ERR ")) {
+                    responses.add(header);
+                    continue;
+                }
+                if (!header.startsWith("OK ")) {
+                    throw new IOException("Bad response: " + header);
+                }
+                final int count = Integer.parseInt(header.substring(3));
+                StringBuilder sb = new StringBuilder();
+                for (int j = 0; j < count; ++j) {
+                    String line = in.readLine();
+                    if (line == null) {
+                        throw new IOException("Server closed the connection");
+                    }
+                    sb.append(line).append('\n');
+                }
+                responses.add(sb.toString());
+            }
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sending requests", e);
+            }
+            if (writeError[0] != null) {
+                throw writeError[0];
+            }
+            return responses;
+        }
+    }
+
+    /** Starts a server in the background unless one already answers on this port. */
+    public void ensureServer() throws IOException {
+        if (isListening()) {
+            return;
+        }
+        final String java = System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java";
+        // Log to a file rather than inherit our streams, which would keep a caller that waits
+        // for our output to end waiting on the server instead.
+        final File log = new File(System.getProperty("java.io.tmpdir"), "ElfServer." + mPort
+                + ".log");
+        new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ElfServer.class.getName(), "-p", Integer.toString(mPort))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(log))
+                .start();
+        final long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        while (!isListening()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Server didn't start on port " + mPort);
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while starting server", e);
+            }
+        }
+    }
+
+    private boolean isListening() {
+        try {
+            new Socket(InetAddress.getLoopbackAddress(), mPort).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
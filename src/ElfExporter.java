@@ -0,0 +1,641 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Streams the header, section headers, program headers and symbols of an ELF file to an
+ * {@link OutputStream}, straight from an {@link ElfVisitor} walk, as JSON Lines or as a compact
+ * binary format. No table is built and nothing is allocated per symbol: names are copied
+ * from the string table bytes, numbers are encoded into a reused buffer, and the heap used is
+ * the same for a table of ten symbols or ten million.
+ *
+ * JSON Lines has one object per record, with a {@code kind} of header, section, segment or
+ * symbol, and the ELF field names. Symbols also have a {@code table} of symtab or dynsym.
+ * Numbers are unsigned decimals. Names are written as the file has them, which is UTF-8 in
+ * practice.
+ *
+ * The binary format is columnar within blocks of up to {@value #BLOCK_ROWS} records of one
+ * kind, so that memory stays bounded. All integers are big-endian.
+ * <pre>
+ * file    := "ELFX" u8(version = 1) block* u8(0)
+ * block   := u8(kind) u32(rows) u32(payload bytes) column*
+ * column  := u8(width) value[rows]                  numbers, each {@code width} bytes wide
+ *          | u8(width) length[rows] u32(n) byte[n]  names: their lengths, then their bytes
+ * </pre>
+ * Each column uses the smallest of 1, 2, 4 or 8 bytes that holds every value in the block. The
+ * kinds and their columns are:
+ * <pre>
+ * 1 header   class data type machine entry phoff shoff flags phnum shnum shstrndx
+ * 2 section  index name type flags addr offset size link info addralign entsize
+ * 3 segment  index type flags offset vaddr paddr filesz memsz align
+ * 4 symtab   index name info other shndx value size
+ * 5 dynsym   index name info other shndx value size
+ * </pre>
+ */
+public class ElfExporter {
+    /** An output format, with the extension {@link #exportAll} gives its files. */
+    public enum Format {
+        JSON_LINES(".jsonl"), BINARY(".elfx");
+
+        public final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    static final int BLOCK_ROWS = 4096;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int VERSION = 1;
+
+    private static final int KIND_END = 0;
+    private static final int KIND_HEADER = 1;
+    private static final int KIND_SECTION = 2;
+    private static final int KIND_SEGMENT = 3;
+    private static final int KIND_SYMTAB = 4;
+    private static final int KIND_DYNSYM = 5;
+    private static final int MAX_COLUMNS = 11;
+
+    private ElfExporter() {
+    }
+
+    /**
+     * Exports every ELF file given, or found under the directories given, to
+     * {@code <out dir>/<path below the argument><extension>}; other files are skipped.
+     */
+    public static void main(String[] args) throws IOException {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        Format format = Format.JSON_LINES;
+        int i = 0;
+        for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+            if ("-j".equals(args[i])) {
+                parallelism = Integer.parseInt(args[i + 1]);
+            } else if ("-f".equals(args[i]) && "binary".equals(args[i + 1])) {
+                format = Format.BINARY;
+            } else if ("-f".equals(args[i]) && "jsonl".equals(args[i + 1])) {
+                format = Format.JSON_LINES;
+            } else {
+                break;
+            }
+        }
+        if (i + 1 >= args.length) {
+            System.err.println("usage: ElfExporter [-j parallelism] [-f jsonl|binary] <out dir> "
+                    + "<file|dir>...");
+            System.exit(1);
+        }
+        final File outDir = new File(args[i++]);
+        final Map<File, File> jobs = new LinkedHashMap<>();
+        for (; i < args.length; ++i) {
+            final File input = new File(args[i]);
+            collect(input, new File(outDir, input.getName()), format, jobs);
+        }
+        final int count = exportAll(jobs, format, parallelism);
+        System.err.println("exported " + count + " of " + jobs.size() + " files to " + outDir);
+    }
+
+    /** Writes {@code elf} to {@code out} in {@code format}. Doesn't close {@code out}. */
+    public static void export(ReadElf elf, Format format, OutputStream out) throws IOException {
+        final Sink sink = new Sink(out);
+        if (format == Format.JSON_LINES) {
+            final JsonVisitor visitor = new JsonVisitor(elf, sink);
+            elf.accept(visitor);
+            visitor.finish();
+        } else {
+            final BinaryVisitor visitor = new BinaryVisitor(elf, sink);
+            elf.accept(visitor);
+            visitor.finish();
+        }
+        sink.flush();
+    }
+
+    /**
+     * Exports each input file to its output file on {@code parallelism} threads, creating
+     * directories as needed. Inputs that aren't ELF are skipped and get no output file.
+     * Returns the number of files exported.
+     */
+    public static int exportAll(Map<File, File> jobs, Format format, int parallelism)
+            throws IOException {
+        final List<Callable<Boolean>> tasks = new ArrayList<>(jobs.size());
+        for (Map.Entry<File, File> job : jobs.entrySet()) {
+            tasks.add(() -> export(job.getKey(), job.getValue(), format));
+        }
+        int count = 0;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Future<Boolean> f : pool.invokeAll(tasks)) {
+                if (f.get()) {
+                    ++count;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while exporting", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to export", cause);
+        } finally {
+            pool.shutdown();
+        }
+        return count;
+    }
+
+    private static boolean export(File input, File output, Format format) throws IOException {
+        try (ReadElf elf = ReadElf.read(input)) {
+            final File parent = output.getParentFile();
+            if (parent != null && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("Can't create " + parent);
+            }
+            try (OutputStream out = new FileOutputStream(output)) {
+                export(elf, format, out);
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static void collect(File input, File output, Format format, Map<File, File> jobs) {
+        if (input.isFile()) {
+            jobs.put(input, new File(output.getPath() + format.extension));
+            return;
+        }
+        for (File child : ApiDiff.listSorted(input)) {
+            collect(child, new File(output, child.getName()), format, jobs);
+        }
+    }
+
+    /** Length of the NUL-terminated name at {@code offset} of {@code table}, or -1. */
+    private static int nameLength(ByteBuffer table, int offset) {
+        if (offset <= 0 || offset >= table.limit()) {
+            return -1;
+        }
+        for (int i = offset; i < table.limit(); ++i) {
+            if (table.get(i) == 0) {
+                return i - offset;
+            }
+        }
+        return -1;
+    }
+
+    /** A buffer in front of an OutputStream, with the encoders both formats need. */
+    private static final class Sink {
+        private final OutputStream mOut;
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+        private final byte[] mDigits = new byte[20];
+        private int mLength;
+
+        Sink(OutputStream out) {
+            mOut = out;
+        }
+
+        void writeByte(int b) throws IOException {
+            if (mLength == mBuffer.length) {
+                drain();
+            }
+            mBuffer[mLength++] = (byte) b;
+        }
+
+        /** Writes the low {@code width} bytes of {@code value}, big-endian. */
+        void writeUnsigned(long value, int width) throws IOException {
+            if (mLength + width > mBuffer.length) {
+                drain();
+            }
+            for (int shift = (width - 1) * 8; shift >= 0; shift -= 8) {
+                mBuffer[mLength++] = (byte) (value >>> shift);
+            }
+        }
+
+        /** Writes {@code value} as an unsigned decimal. */
+        void writeDecimal(long value) throws IOException {
+            int count = 0;
+            if (value < 0) {
+                // Peel off the last digit unsigned; what is left fits a signed long.
+                mDigits[count++] = (byte) ('0' + Long.remainderUnsigned(value, 10));
+                value = Long.divideUnsigned(value, 10);
+            }
+            do {
+                mDigits[count++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            if (mLength + count > mBuffer.length) {
+                drain();
+            }
+            while (count > 0) {
+                mBuffer[mLength++] = mDigits[--count];
+            }
+        }
+
+        /** Writes {@code s}, which must be ASCII. */
+        void writeAscii(String s) throws IOException {
+            for (int i = 0; i < s.length(); ++i) {
+                writeByte(s.charAt(i));
+            }
+        }
+
+        void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+            if (length > mBuffer.length - mLength) {
+                drain();
+                if (length > mBuffer.length) {
+                    mOut.write(bytes, offset, length);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, offset, mBuffer, mLength, length);
+            mLength += length;
+        }
+
+        /** Writes {@code length} bytes of {@code table} from {@code offset} as a JSON string. */
+        void writeJsonString(ByteBuffer table, int offset, int length) throws IOException {
+            writeByte('"');
+            for (int i = offset; i < offset + length; ++i) {
+                writeJsonByte(table.get(i));
+            }
+            writeByte('"');
+        }
+
+        void writeJsonString(String s) throws IOException {
+            writeByte('"');
+            for (int i = 0; i < s.length(); ++i) {
+                if (s.charAt(i) >= 0x80) {
+                    // Rare enough in section names that encoding a copy doesn't matter.
+                    for (byte b : s.substring(i).getBytes(StandardCharsets.UTF_8)) {
+                        writeJsonByte(b);
+                    }
+                    break;
+                }
+                writeJsonByte((byte) s.charAt(i));
+            }
+            writeByte('"');
+        }
+
+        private void writeJsonByte(byte b) throws IOException {
+            if (b == '"' || b == '\\') {
+                writeByte('\\');
+                writeByte(b);
+            } else if (b >= 0 && b < 0x20) {
+                writeAscii("\\u00");
+                writeByte(Character.forDigit(b >> 4, 16));
+                writeByte(Character.forDigit(b & 0xf, 16));
+            } else {
+                writeByte(b);
+            }
+        }
+
+        void flush() throws IOException {
+            drain();
+            mOut.flush();
+        }
+
+        private void drain() throws IOException {
+            mOut.write(mBuffer, 0, mLength);
+            mLength = 0;
+        }
+    }
+
+    /** Writes one JSON object per line. */
+    private static final class JsonVisitor implements ElfVisitor {
+        private final Sink mSink;
+        private final ByteBuffer mStrTab;
+        private final ByteBuffer mDynStr;
+        private IOException mError;
+
+        JsonVisitor(ReadElf elf, Sink sink) throws IOException {
+            mSink = sink;
+            mStrTab = elf.getStringTable(false);
+            mDynStr = elf.getStringTable(true);
+        }
+
+        @Override
+        public boolean visitHeader(int elfClass, int data, int type, int machine, long entry,
+                                   long phoff, long shoff, int flags, int phnum, int shnum,
+                                   int shstrndx) {
+            try {
+                begin("header");
+                field("class", elfClass);
+                field("data", data);
+                field("type", type);
+                field("machine", machine);
+                field("entry", entry);
+                field("phoff", phoff);
+                field("shoff", shoff);
+                field("flags", flags & 0xffffffffL);
+                field("phnum", phnum);
+                field("shnum", shnum);
+                field("shstrndx", shstrndx);
+                end();
+                return true;
+            } catch (IOException e) {
+                mError = e;
+                return false;
+            }
+        }
+
+        @Override
+        public boolean visitSection(int index, String name, int type, long flags, long addr,
+                                    long offset, long size, int link, int info, long addralign,
+                                    long entsize) {
+            try {
+                begin("section");
+                field("index", index);
+                mSink.writeAscii(",\"name\":");
+                if (name == null) {
+                    mSink.writeAscii("null");
+                } else {
+                    mSink.writeJsonString(name);
+                }
+                field("type", type & 0xffffffffL);
+                field("flags", flags);
+                field("addr", addr);
+                field("offset", offset);
+                field("size", size);
+                field("link", link & 0xffffffffL);
+                field("info", info & 0xffffffffL);
+                field("addralign", addralign);
+                field("entsize", entsize);
+                end();
+                return true;
+            } catch (IOException e) {
+                mError = e;
+                return false;
+            }
+        }
+
+        @Override
+        public boolean visitSegment(int index, int type, int flags, long offset, long vaddr,
+                                    long paddr, long filesz, long memsz, long align) {
+            try {
+                begin("segment");
+                field("index", index);
+                field("type", type & 0xffffffffL);
+                field("flags", flags & 0xffffffffL);
+                field("offset", offset);
+                field("vaddr", vaddr);
+                field("paddr", paddr);
+                field("filesz", filesz);
+                field("memsz", memsz);
+                field("align", align);
+                end();
+                return true;
+            } catch (IOException e) {
+                mError = e;
+                return false;
+            }
+        }
+
+        @Override
+        public boolean visitSymbol(boolean dynamic, int index, int nameOffset, int info,
+                                   int other, int shndx, long value, long size) {
+            try {
+                begin("symbol");
+                mSink.writeAscii(dynamic ? ",\"table\":\"dynsym\"" : ",\"table\":\"symtab\"");
+                field("index", index);
+                mSink.writeAscii(",\"name\":");
+                final ByteBuffer table = dynamic ? mDynStr : mStrTab;
+                final int length = nameLength(table, nameOffset);
+                if (length < 0) {
+                    mSink.writeAscii("null");
+                } else {
+                    mSink.writeJsonString(table, nameOffset, length);
+                }
+                field("info", info);
+                field("other", other);
+                field("shndx", shndx);
+                field("value", value);
+                field("size", size);
+                end();
+                return true;
+            } catch (IOException e) {
+                mError = e;
+                return false;
+            }
+        }
+
+        /** Throws the error that ended the walk, if any. */
+        void finish() throws IOException {
+            if (mError != null) {
+                throw mError;
+            }
+        }
+
+        private void begin(String kind) throws IOException {
+            mSink.writeAscii("{\"kind\":\"");
+            mSink.writeAscii(kind);
+            mSink.writeByte('"');
+        }
+
+        private void field(String key, long value) throws IOException {
+            mSink.writeAscii(",\"");
+            mSink.writeAscii(key);
+            mSink.writeAscii("\":");
+            mSink.writeDecimal(value);
+        }
+
+        private void end() throws IOException {
+            mSink.writeAscii("}\n");
+        }
+    }
+
+    /** Gathers up to {@link #BLOCK_ROWS} records of one kind and writes them column by column. */
+    private static final class BinaryVisitor implements ElfVisitor {
+        private final Sink mSink;
+        private final ByteBuffer mStrTab;
+        private final ByteBuffer mDynStr;
+        private final long[][] mColumns = new long[MAX_COLUMNS][BLOCK_ROWS];
+        private final int[] mWidths = new int[MAX_COLUMNS];
+        /** The names of the block's rows, back to back; their lengths are a column. */
+        private byte[] mNames = new byte[BLOCK_ROWS * 16];
+        private int mNamesLength;
+        private int mKind = KIND_END;
+        private int mColumnCount;
+        /** Index of the name column, or -1 if the kind has none. */
+        private int mNameColumn;
+        private int mRows;
+        private IOException mError;
+
+        BinaryVisitor(ReadElf elf, Sink sink) throws IOException {
+            mSink = sink;
+            mStrTab = elf.getStringTable(false);
+            mDynStr = elf.getStringTable(true);
+            sink.writeAscii("ELFX");
+            sink.writeByte(VERSION);
+        }
+
+        @Override
+        public boolean visitHeader(int elfClass, int data, int type, int machine, long entry,
+                                   long phoff, long shoff, int flags, int phnum, int shnum,
+                                   int shstrndx) {
+            if (!startRow(KIND_HEADER, 11, -1)) {
+                return false;
+            }
+            final int r = mRows++;
+            mColumns[0][r] = elfClass;
+            mColumns[1][r] = data;
+            mColumns[2][r] = type;
+            mColumns[3][r] = machine;
+            mColumns[4][r] = entry;
+            mColumns[5][r] = phoff;
+            mColumns[6][r] = shoff;
+            mColumns[7][r] = flags & 0xffffffffL;
+            mColumns[8][r] = phnum;
+            mColumns[9][r] = shnum;
+            mColumns[10][r] = shstrndx;
+            return true;
+        }
+
+        @Override
+        public boolean visitSection(int index, String name, int type, long flags, long addr,
+                                    long offset, long size, int link, int info, long addralign,
+                                    long entsize) {
+            if (!startRow(KIND_SECTION, 11, 1)) {
+                return false;
+            }
+            final int r = mRows++;
+            mColumns[0][r] = index;
+            if (name == null) {
+                mColumns[1][r] = 0;
+            } else {
+                final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                appendName(bytes.length);
+                System.arraycopy(bytes, 0, mNames, mNamesLength, bytes.length);
+                mNamesLength += bytes.length;
+                mColumns[1][r] = bytes.length;
+            }
+            mColumns[2][r] = type & 0xffffffffL;
+            mColumns[3][r] = flags;
+            mColumns[4][r] = addr;
+            mColumns[5][r] = offset;
+            mColumns[6][r] = size;
+            mColumns[7][r] = link & 0xffffffffL;
+            mColumns[8][r] = info & 0xffffffffL;
+            mColumns[9][r] = addralign;
+            mColumns[10][r] = entsize;
+            return true;
+        }
+
+        @Override
+        public boolean visitSegment(int index, int type, int flags, long offset, long vaddr,
+                                    long paddr, long filesz, long memsz, long align) {
+            if (!startRow(KIND_SEGMENT, 9, -1)) {
+                return false;
+            }
+            final int r = mRows++;
+            mColumns[0][r] = index;
+            mColumns[1][r] = type & 0xffffffffL;
+            mColumns[2][r] = flags & 0xffffffffL;
+            mColumns[3][r] = offset;
+            mColumns[4][r] = vaddr;
+            mColumns[5][r] = paddr;
+            mColumns[6][r] = filesz;
+            mColumns[7][r] = memsz;
+            mColumns[8][r] = align;
+            return true;
+        }
+
+        @Override
+        public boolean visitSymbol(boolean dynamic, int index, int nameOffset, int info,
+                                   int other, int shndx, long value, long size) {
+            if (!startRow(dynamic ? KIND_DYNSYM : KIND_SYMTAB, 7, 1)) {
+                return false;
+            }
+            final int r = mRows++;
+            mColumns[0][r] = index;
+            final ByteBuffer table = dynamic ? mDynStr : mStrTab;
+            final int length = Math.max(0, nameLength(table, nameOffset));
+            appendName(length);
+            for (int i = 0; i < length; ++i) {
+                mNames[mNamesLength++] = table.get(nameOffset + i);
+            }
+            mColumns[1][r] = length;
+            mColumns[2][r] = info;
+            mColumns[3][r] = other;
+            mColumns[4][r] = shndx;
+            mColumns[5][r] = value;
+            mColumns[6][r] = size;
+            return true;
+        }
+
+        /** Writes the last block and the end marker. */
+        void finish() throws IOException {
+            if (mError != null) {
+                throw mError;
+            }
+            writeBlock();
+            mSink.writeByte(KIND_END);
+        }
+
+        /** Writes the current block first if the next row can't join it. */
+        private boolean startRow(int kind, int columnCount, int nameColumn) {
+            if (kind == mKind && mRows < BLOCK_ROWS) {
+                return true;
+            }
+            try {
+                writeBlock();
+            } catch (IOException e) {
+                mError = e;
+                return false;
+            }
+            mKind = kind;
+            mColumnCount = columnCount;
+            mNameColumn = nameColumn;
+            return true;
+        }
+
+        /** Makes room for {@code length} more name bytes. */
+        private void appendName(int length) {
+            if (mNamesLength + length > mNames.length) {
+                mNames = Arrays.copyOf(mNames, Math.max(mNames.length * 2, mNamesLength + length));
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (mRows == 0) {
+                return;
+            }
+            long payload = 0;
+            for (int c = 0; c < mColumnCount; ++c) {
+                long all = 0;
+                for (int r = 0; r < mRows; ++r) {
+                    all |= mColumns[c][r];
+                }
+                mWidths[c] = (all >>> 8) == 0 ? 1 : (all >>> 16) == 0 ? 2
+                        : (all >>> 32) == 0 ? 4 : 8;
+                payload += 1 + (long) mRows * mWidths[c];
+            }
+            if (mNameColumn >= 0) {
+                payload += 4 + mNamesLength;
+            }
+            mSink.writeByte(mKind);
+            mSink.writeUnsigned(mRows, 4);
+            mSink.writeUnsigned(payload, 4);
+            for (int c = 0; c < mColumnCount; ++c) {
+                mSink.writeByte(mWidths[c]);
+                final long[] column = mColumns[c];
+                for (int r = 0; r < mRows; ++r) {
+                    mSink.writeUnsigned(column[r], mWidths[c]);
+                }
+                if (c == mNameColumn) {
+                    mSink.writeUnsigned(mNamesLength, 4);
+                    mSink.writeBytes(mNames, 0, mNamesLength);
+                }
+            }
+            mRows = 0;
+            mNamesLength = 0;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Where the fields of section headers, program headers and symbols sit for one ELF class and
+ * byte order. {@link ReadElf} picks one of the four instances from e_ident once, and reads
+ * whole tables through it with absolute {@link ByteBuffer} gets in the matching byte order, so
+ * the per-entry loops have no class or endianness tests left in them.
+ */
+abstract class ElfLayout {
+    static final ElfLayout ELF32_LE = new Elf32(ByteOrder.LITTLE_ENDIAN);
+    static final ElfLayout ELF64_LE = new Elf64(ByteOrder.LITTLE_ENDIAN);
+    static final ElfLayout ELF32_BE = new Elf32(ByteOrder.BIG_ENDIAN);
+    static final ElfLayout ELF64_BE = new Elf64(ByteOrder.BIG_ENDIAN);
+
+    private static final int ELFCLASS32 = 1;
+    private static final int ELFCLASS64 = 2;
+    private static final int ELFDATA2LSB = 1;
+    private static final int ELFDATA2MSB = 2;
+
+    final ByteOrder order;
+
+    ElfLayout(ByteOrder order) {
+        this.order = order;
+    }
+
+    /** Returns the layout for e_ident's EI_CLASS and EI_DATA, or null if either is invalid. */
+    static ElfLayout get(int elfClass, int elfData) {
+        if (elfData == ELFDATA2LSB) {
+            return elfClass == ELFCLASS32 ? ELF32_LE : elfClass == ELFCLASS64 ? ELF64_LE : null;
+        }
+        if (elfData == ELFDATA2MSB) {
+            return elfClass == ELFCLASS32 ? ELF32_BE : elfClass == ELFCLASS64 ? ELF64_BE : null;
+        }
+        return null;
+    }
+
+    /** Width of Elf_Addr, Elf_Off and Elf_Xword. */
+    abstract int addrSize();
+
+    /** sizeof(Elf_Shdr), the smallest e_shentsize this layout can read. */
+    abstract int shdrSize();
+
+    /** sizeof(Elf_Phdr). */
+    abstract int phdrSize();
+
+    /** sizeof(Elf_Sym). */
+    abstract int symSize();
+
+    // Elf_Shdr fields of the entry at byte {@code e} of {@code b}.
+
+    final long shName(ByteBuffer b, int e) {
+        return b.getInt(e) & 0xffffffffL;
+    }
+
+    final int shType(ByteBuffer b, int e) {
+        return b.getInt(e + 4);
+    }
+
+    abstract long shOffset(ByteBuffer b, int e);
+
+    abstract long shSize(ByteBuffer b, int e);
+
+    // Elf_Phdr fields of the entry at byte {@code e} of {@code b}.
+
+    final int pType(ByteBuffer b, int e) {
+        return b.getInt(e);
+    }
+
+    abstract long pOffset(ByteBuffer b, int e);
+
+    abstract long pVaddr(ByteBuffer b, int e);
+
+    /** Decodes {@code count} Elf_Sym entries starting at byte 0 of {@code b} into the arrays. */
+    abstract void readSymbols(ByteBuffer b, int count, int[] names, long[] values, long[] sizes,
+            byte[] infos, byte[] others, short[] shndxs);
+
+    private static final class Elf32 extends ElfLayout {
+        Elf32(ByteOrder order) {
+            super(order);
+        }
+
+        @Override
+        int addrSize() {
+            return 4;
+        }
+
+        @Override
+        int shdrSize() {
+            return 40;
+        }
+
+        @Override
+        int phdrSize() {
+            return 32;
+        }
+
+        @Override
+        int symSize() {
+            return 16;
+        }
+
+        @Override
+        long shOffset(ByteBuffer b, int e) {
+            return b.getInt(e + 16) & 0xffffffffL;
+        }
+
+        @Override
+        long shSize(ByteBuffer b, int e) {
+            return b.getInt(e + 20) & 0xffffffffL;
+        }
+
+        @Override
+        long pOffset(ByteBuffer b, int e) {
+            return b.getInt(e + 4) & 0xffffffffL;
+        }
+
+        @Override
+        long pVaddr(ByteBuffer b, int e) {
+            return b.getInt(e + 8) & 0xffffffffL;
+        }
+
+        @Override
+        void readSymbols(ByteBuffer b, int count, int[] names, long[] values, long[] sizes,
+                byte[] infos, byte[] others, short[] shndxs) {
+            for (int i = 0, e = 0; i < count; ++i, e += 16) {
+                names[i] = b.getInt(e);
+                values[i] = b.getInt(e + 4) & 0xffffffffL;
+                sizes[i] = b.getInt(e + 8) & 0xffffffffL;
+                infos[i] = b.get(e + 12);
+                others[i] = b.get(e + 13);
+                shndxs[i] = b.getShort(e + 14);
+            }
+        }
+    }
+
+    private static final class Elf64 extends ElfLayout {
+        Elf64(ByteOrder order) {
+            super(order);
+        }
+
+        @Override
+        int addrSize() {
+            return 8;
+        }
+
+        @Override
+        int shdrSize() {
+            return 64;
+        }
+
+        @Override
+        int phdrSize() {
+            return 56;
+        }
+
+        @Override
+        int symSize() {
+            return 24;
+        }
+
+        @Override
+        long shOffset(ByteBuffer b, int e) {
+            return b.getLong(e + 24);
+        }
+
+        @Override
+        long shSize(ByteBuffer b, int e) {
+            return b.getLong(e + 32);
+        }
+
+        @Override
+        long pOffset(ByteBuffer b, int e) {
+            return b.getLong(e + 8);
+        }
+
+        @Override
+        long pVaddr(ByteBuffer b, int e) {
+            return b.getLong(e + 16);
+        }
+
+        @Override
+        void readSymbols(ByteBuffer b, int count, int[] names, long[] values, long[] sizes,
+                byte[] infos, byte[] others, short[] shndxs) {
+            for (int i = 0, e = 0; i < count; ++i, e += 24) {
+                names[i] = b.getInt(e);
+                infos[i] = b.get(e + 4);
+                others[i] = b.get(e + 5);
+                shndxs[i] = b.getShort(e + 6);
+                values[i] = b.getLong(e + 8);
+                sizes[i] = b.getLong(e + 16);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Receives parse events from {@link ReadElf}; install one with
+ * {@link ReadElf#setListener(ElfListener)}. Every callback takes primitives (and the path the
+ * instance already holds), so reporting allocates nothing. With no listener installed,
+ * {@link ReadElf} skips even the clock reads.
+ *
+ * Callbacks can arrive from many threads at once. All methods default to doing nothing.
+ */
+public interface ElfListener {
+    enum Phase {
+        /** The ELF header (Ehdr). */
+        HEADER,
+        /** The section header table (Shdr), including the section name lookups. */
+        SECTION_HEADERS,
+        /** The program header table (Phdr). */
+        PROGRAM_HEADERS,
+        /** Decoding a whole .symtab or .dynsym into a {@link SymbolTable}. */
+        SYMBOL_TABLE,
+    }
+
+    /** A parse phase of {@code path} finished after {@code nanos} nanoseconds. */
+    default void onPhase(String path, Phase phase, long nanos) {
+    }
+
+    /**
+     * {@code bytes} were read from the file using {@code syscalls} system calls: zero for reads
+     * served from the mapping, one or more for the positional-read fallback.
+     */
+    default void onRead(int bytes, int syscalls) {
+    }
+
+    /** {@code count} symbol table entries of {@code path} were decoded. */
+    default void onSymbolsDecoded(String path, int count) {
+    }
+}
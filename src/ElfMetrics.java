@@ -0,0 +1,97 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@link ElfListener} that aggregates counters and timings across every file parsed while
+ * it is installed. Updates are contention-free {@link LongAdder}s, so it can stay on in
+ * production and be polled or {@link #reset() reset} at any time.
+ */
+public class ElfMetrics implements ElfListener {
+    private static final Phase[] PHASES = Phase.values();
+
+    private final LongAdder[] mPhaseCounts = new LongAdder[PHASES.length];
+    private final LongAdder[] mPhaseNanos = new LongAdder[PHASES.length];
+    private final LongAdder mBytesRead = new LongAdder();
+    private final LongAdder mReads = new LongAdder();
+    private final LongAdder mSyscalls = new LongAdder();
+    private final LongAdder mSymbolsDecoded = new LongAdder();
+
+    public ElfMetrics() {
+        for (int i = 0; i < PHASES.length; ++i) {
+            mPhaseCounts[i] = new LongAdder();
+            mPhaseNanos[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void onPhase(String path, Phase phase, long nanos) {
+        mPhaseCounts[phase.ordinal()].increment();
+        mPhaseNanos[phase.ordinal()].add(nanos);
+    }
+
+    @Override
+    public void onRead(int bytes, int syscalls) {
+        mBytesRead.add(bytes);
+        mReads.increment();
+        if (syscalls != 0) {
+            mSyscalls.add(syscalls);
+        }
+    }
+
+    @Override
+    public void onSymbolsDecoded(String path, int count) {
+        mSymbolsDecoded.add(count);
+    }
+
+    /** Number of times {@code phase} ran. */
+    public long getPhaseCount(Phase phase) {
+        return mPhaseCounts[phase.ordinal()].sum();
+    }
+
+    /** Total time spent in {@code phase}, in nanoseconds. */
+    public long getPhaseNanos(Phase phase) {
+        return mPhaseNanos[phase.ordinal()].sum();
+    }
+
+    public long getBytesRead() {
+        return mBytesRead.sum();
+    }
+
+    /** Number of individual field or block reads. */
+    public long getReads() {
+        return mReads.sum();
+    }
+
+    /** System calls made by the positional-read fallback; mapped reads make none. */
+    public long getSyscalls() {
+        return mSyscalls.sum();
+    }
+
+    public long getSymbolsDecoded() {
+        return mSymbolsDecoded.sum();
+    }
+
+    public void reset() {
+        for (int i = 0; i < PHASES.length; ++i) {
+            mPhaseCounts[i].reset();
+            mPhaseNanos[i].reset();
+        }
+        mBytesRead.reset();
+        mReads.reset();
+        mSyscalls.reset();
+        mSymbolsDecoded.reset();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ElfMetrics[");
+        for (Phase phase : PHASES) {
+            sb.append(phase).append('=').append(getPhaseCount(phase)).append('/')
+                    .append(getPhaseNanos(phase) / 1000).append("us,");
+        }
+        sb.append("bytesRead=").append(getBytesRead());
+        sb.append(",reads=").append(getReads());
+        sb.append(",syscalls=").append(getSyscalls());
+        sb.append(",symbolsDecoded=").append(getSymbolsDecoded());
+        return sb.append(']').toString();
+    }
+}
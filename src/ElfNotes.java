@@ -0,0 +1,377 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The notes of an ELF file, read without the rest of it: the header, the PT_NOTE segments
+ * (or SHT_NOTE sections, for relocatable objects), and nothing else. Headers and notes nearly
+ * always sit in the first page, which is read in one go, so this costs about one read per
+ * file, against mapping the file and walking every section for a {@link ReadElf}.
+ *
+ * That is all it takes to fingerprint a library by its GNU build ID (to dedupe identical
+ * copies, or to match a crash report to a binary) or to find the API level in its Android
+ * ident note. {@link #readAll} does a whole tree in parallel.
+ */
+public class ElfNotes {
+    public static final int NT_GNU_BUILD_ID = 3;
+    public static final int NT_ANDROID_TYPE_IDENT = 1;
+
+    private static final int HEAD_SIZE = 4096;
+    /** Notes larger than this are not read; real ones are tens of bytes. */
+    private static final int MAX_NOTES_SIZE = 1 << 20;
+
+    private static final int PT_NOTE = 4;
+    private static final int SHT_NOTE = 7;
+
+    /** One note: its owner, its type and its descriptor bytes. */
+    public static class Note {
+        public final String name;
+        public final int type;
+        public final byte[] desc;
+
+        Note(String name, int type, byte[] desc) {
+            this.name = name;
+            this.type = type;
+            this.desc = desc;
+        }
+
+        @Override
+        public String toString() {
+            return name + "/" + type + "[" + desc.length + "]";
+        }
+    }
+
+    private final String mPath;
+    private final ByteOrder mOrder;
+    private final List<Note> mNotes;
+
+    private ElfNotes(String path, ByteOrder order, List<Note> notes) {
+        mPath = path;
+        mOrder = order;
+        mNotes = notes;
+    }
+
+    /**
+     * Prints the build ID, Android API level and path of every ELF file given or found under
+     * the directories given; with {@code -d}, prints only build IDs shared by several files.
+     */
+    public static void main(String[] args) throws IOException {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        boolean duplicates = false;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); ++i) {
+            if ("-j".equals(args[i]) && i + 1 < args.length) {
+                parallelism = Integer.parseInt(args[++i]);
+            } else if ("-d".equals(args[i])) {
+                duplicates = true;
+            } else {
+                break;
+            }
+        }
+        if (i >= args.length) {
+            System.err.println("usage: ElfNotes [-j parallelism] [-d] <file|dir>...");
+            System.exit(1);
+        }
+        List<File> files = new ArrayList<>();
+        for (; i < args.length; ++i) {
+            collect(new File(args[i]), files);
+        }
+        final PrintStream out = System.out;
+        final Map<File, ElfNotes> notes = readAll(files, parallelism);
+        if (!duplicates) {
+            for (ElfNotes note : notes.values()) {
+                final String buildId = note.getBuildIdHex();
+                out.println((buildId != null ? buildId : "-") + "\t" + note.getAndroidApiLevel()
+                        + "\t" + note.getPath());
+            }
+            return;
+        }
+        Map<String, List<String>> byBuildId = new TreeMap<>();
+        for (ElfNotes note : notes.values()) {
+            if (note.getBuildIdHex() != null) {
+                byBuildId.computeIfAbsent(note.getBuildIdHex(), k -> new ArrayList<>())
+                        .add(note.getPath());
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : byBuildId.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                out.println(entry.getKey());
+                for (String path : entry.getValue()) {
+                    out.println("\t" + path);
+                }
+            }
+        }
+    }
+
+    /** Reads the notes of {@code file}; throws IllegalArgumentException if it isn't ELF. */
+    public static ElfNotes read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long length = channel.size();
+            final ByteBuffer head = read(channel, 0, (int) Math.min(HEAD_SIZE, length));
+            final List<Note> notes = parse(file.getPath(), channel, length, head);
+            return new ElfNotes(file.getPath(), head.order(), notes);
+        }
+    }
+
+    /**
+     * Reads the notes of every file in {@code files} on {@code parallelism} threads, returning
+     * them in the same order. Files that aren't ELF are left out.
+     */
+    public static Map<File, ElfNotes> readAll(List<File> files, int parallelism)
+            throws IOException {
+        List<Callable<ElfNotes>> tasks = new ArrayList<>(files.size());
+        for (File file : files) {
+            tasks.add(() -> {
+                try {
+                    return read(file);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            });
+        }
+        Map<File, ElfNotes> result = new LinkedHashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Future<ElfNotes>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < files.size(); ++i) {
+                ElfNotes notes = futures.get(i).get();
+                if (notes != null) {
+                    result.put(files.get(i), notes);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading notes", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to read notes", cause);
+        } finally {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /** Every note, in file order. */
+    public List<Note> getNotes() {
+        return mNotes;
+    }
+
+    /** Returns the first note named {@code name} with type {@code type}, or null. */
+    public Note getNote(String name, int type) {
+        for (Note note : mNotes) {
+            if (note.type == type && note.name.equals(name)) {
+                return note;
+            }
+        }
+        return null;
+    }
+
+    /** The NT_GNU_BUILD_ID descriptor, or null if the file has none. */
+    public byte[] getBuildId() {
+        Note note = getNote("GNU", NT_GNU_BUILD_ID);
+        return note != null ? note.desc.clone() : null;
+    }
+
+    /** The build ID in lower-case hex, as readelf and crash reports print it, or null. */
+    public String getBuildIdHex() {
+        Note note = getNote("GNU", NT_GNU_BUILD_ID);
+        if (note == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(note.desc.length * 2);
+        for (byte b : note.desc) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /** The API level in the Android ident note, or -1 if there is none. */
+    public int getAndroidApiLevel() {
+        Note note = getNote("Android", NT_ANDROID_TYPE_IDENT);
+        if (note == null || note.desc.length < 4) {
+            return -1;
+        }
+        return ByteBuffer.wrap(note.desc).order(mOrder).getInt(0);
+    }
+
+    /** The NDK version in the Android ident note (e.g. "r21e"), or null if it isn't there. */
+    public String getAndroidNdkVersion() {
+        Note note = getNote("Android", NT_ANDROID_TYPE_IDENT);
+        return note != null && note.desc.length >= 4 + 64 ? cString(note.desc, 4, 64) : null;
+    }
+
+    private static List<Note> parse(String path, FileChannel channel, long length,
+            ByteBuffer head) throws IOException {
+        if (head.limit() < 52 || head.get(0) != 0x7f || head.get(1) != 'E'
+                || head.get(2) != 'L' || head.get(3) != 'F') {
+            throw new IllegalArgumentException("Invalid ELF file: " + path);
+        }
+        final boolean is64 = head.get(4) == 2;
+        if (!is64 && head.get(4) != 1) {
+            throw new IllegalArgumentException("Invalid ELF EI_CLASS: " + head.get(4) + ": "
+                    + path);
+        }
+        head.order(head.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        if (is64 && head.limit() < 64) {
+            throw new IllegalArgumentException("Truncated ELF header: " + path);
+        }
+        final long phoff = is64 ? head.getLong(32) : head.getInt(28) & 0xffffffffL;
+        final long shoff = is64 ? head.getLong(40) : head.getInt(32) & 0xffffffffL;
+        final int phentsize = head.getShort(is64 ? 54 : 42) & 0xffff;
+        final int phnum = head.getShort(is64 ? 56 : 44) & 0xffff;
+        final int shentsize = head.getShort(is64 ? 58 : 46) & 0xffff;
+        final int shnum = head.getShort(is64 ? 60 : 48) & 0xffff;
+
+        List<Note> notes = new ArrayList<>();
+        if (phnum > 0 && phentsize >= (is64 ? 56 : 32)) {
+            final ByteBuffer phdrs = slice(channel, length, head, phoff, (long) phnum * phentsize);
+            for (int i = 0; phdrs != null && i < phnum; ++i) {
+                final int entry = i * phentsize;
+                if (phdrs.getInt(entry) != PT_NOTE) {
+                    continue;
+                }
+                final long offset = is64 ? phdrs.getLong(entry + 8)
+                        : phdrs.getInt(entry + 4) & 0xffffffffL;
+                final long size = is64 ? phdrs.getLong(entry + 32)
+                        : phdrs.getInt(entry + 16) & 0xffffffffL;
+                final long align = is64 ? phdrs.getLong(entry + 48)
+                        : phdrs.getInt(entry + 28) & 0xffffffffL;
+                parseNotes(slice(channel, length, head, offset, size), align, notes);
+            }
+            return Collections.unmodifiableList(notes);
+        }
+        // No segments, as in a .o: fall back to the section headers.
+        if (shnum > 0 && shentsize >= (is64 ? 64 : 40)) {
+            final ByteBuffer shdrs = slice(channel, length, head, shoff, (long) shnum * shentsize);
+            for (int i = 0; shdrs != null && i < shnum; ++i) {
+                final int entry = i * shentsize;
+                if (shdrs.getInt(entry + 4) != SHT_NOTE) {
+                    continue;
+                }
+                final long offset = is64 ? shdrs.getLong(entry + 24)
+                        : shdrs.getInt(entry + 16) & 0xffffffffL;
+                final long size = is64 ? shdrs.getLong(entry + 32)
+                        : shdrs.getInt(entry + 20) & 0xffffffffL;
+                final long align = is64 ? shdrs.getLong(entry + 48)
+                        : shdrs.getInt(entry + 32) & 0xffffffffL;
+                parseNotes(slice(channel, length, head, offset, size), align, notes);
+            }
+        }
+        return Collections.unmodifiableList(notes);
+    }
+
+    /**
+     * Returns {@code size} bytes at {@code offset}, from {@code head} if they are in it and
+     * read from the file otherwise; null if they lie outside the file or are implausibly large.
+     */
+    private static ByteBuffer slice(FileChannel channel, long length, ByteBuffer head,
+            long offset, long size) throws IOException {
+        if (offset < 0 || size < 0 || size > MAX_NOTES_SIZE || offset + size > length) {
+            return null;
+        }
+        if (offset + size <= head.limit()) {
+            ByteBuffer buffer = head.duplicate();
+            buffer.position((int) offset);
+            buffer.limit((int) (offset + size));
+            return buffer.slice().order(head.order());
+        }
+        return read(channel, offset, (int) size).order(head.order());
+    }
+
+    /** Parses Elf_Nhdr records, padded to {@code align} (4, or 8 for 8-aligned segments). */
+    private static void parseNotes(ByteBuffer data, long align, List<Note> notes) {
+        if (data == null) {
+            return;
+        }
+        final int pad = align == 8 ? 8 : 4;
+        int offset = 0;
+        while (offset + 12 <= data.limit()) {
+            final int namesz = data.getInt(offset);
+            final int descsz = data.getInt(offset + 4);
+            final int type = data.getInt(offset + 8);
+            final int nameOffset = offset + 12;
+            final long descOffset = nameOffset + roundUp(namesz, 4);
+            if (namesz < 0 || descsz < 0 || descOffset + descsz > data.limit()) {
+                return;
+            }
+            final String name = cString(data, nameOffset, namesz);
+            final byte[] desc = new byte[descsz];
+            for (int i = 0; i < descsz; ++i) {
+                desc[i] = data.get((int) descOffset + i);
+            }
+            notes.add(new Note(name, type, desc));
+            offset = (int) roundUp(descOffset + descsz, pad);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int size)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long roundUp(long value, int alignment) {
+        return (value + alignment - 1) & -alignment;
+    }
+
+    private static String cString(ByteBuffer data, int offset, int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            bytes[i] = data.get(offset + i);
+        }
+        return cString(bytes, 0, size);
+    }
+
+    private static String cString(byte[] bytes, int offset, int size) {
+        int end = offset;
+        while (end < offset + size && bytes[end] != 0) {
+            ++end;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.US_ASCII);
+    }
+
+    private static void collect(File file, List<File> files) {
+        if (file.isFile()) {
+            files.add(file);
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            collect(child, files);
+        }
+    }
+}
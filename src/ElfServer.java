@@ -0,0 +1,425 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-running query server that keeps recently used libraries parsed, so that build steps
+ * pay neither JVM startup nor a re-parse per query. It listens on a loopback TCP port and
+ * speaks a line protocol that {@link ElfClient}, or even {@code nc}, can drive:
+ *
+ * <pre>
+ *   request:  command SP arg...   (fields are tab-separated if the line has a tab)
+ *   response: "OK" SP count, then count lines; or "ERR" SP message
+ * </pre>
+ *
+ * Requests may be pipelined: a client can send a whole batch before reading, and gets the
+ * responses back in order, flushed once the batch has been read. See {@link #execute} for
+ * the commands.
+ *
+ * Parsed libraries are kept in an LRU cache bounded by their estimated retained heap size,
+ * {@link ReadElf#getRetainedSize()}, which grows as queries decode more tables. Every query
+ * checks the file's size and modification time, and re-parses a library that has changed.
+ */
+public class ElfServer {
+    public static final int DEFAULT_PORT = 47011;
+
+    /** One cached library, and the indexes built over it so far. */
+    private static final class Entry {
+        final ReadElf elf;
+        final long length;
+        final long lastModified;
+        volatile NameIndex names;
+        long retainedSize;
+
+        Entry(ReadElf elf, long length, long lastModified) {
+            this.elf = elf;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        long computeRetainedSize() {
+            NameIndex index = names;
+            return elf.getRetainedSize() + (index != null ? index.getRetainedSize() : 0);
+        }
+    }
+
+    private final long mBudget;
+    private final List<File> mSearchPath;
+
+    /** Guarded by {@code this}, as is {@link #mRetainedSize}. */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mRetainedSize;
+
+    /** Resolver for dependency queries; replaced when a library it parsed changes. */
+    private DependencyResolver mResolver;
+    private final Map<String, long[]> mResolverStamps = new LinkedHashMap<>();
+    private long mResolverSize;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    private volatile ServerSocket mSocket;
+
+    /**
+     * Creates a server whose cache holds at most {@code budget} bytes of parsed tables, and
+     * whose dependency queries search {@code searchPath} after each library's own paths.
+     */
+    public ElfServer(long budget, List<File> searchPath) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("budget must be positive: " + budget);
+        }
+        mBudget = budget;
+        mSearchPath = new ArrayList<>(searchPath);
+        mResolver = new DependencyResolver(mSearchPath);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        long budget = 256L << 20;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        List<File> searchPath = new ArrayList<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                usage();
+            } else if ("-p".equals(args[i])) {
+                port = Integer.parseInt(args[i + 1]);
+            } else if ("-m".equals(args[i])) {
+                budget = Long.parseLong(args[i + 1]) << 20;
+            } else if ("-j".equals(args[i])) {
+                parallelism = Integer.parseInt(args[i + 1]);
+            } else if ("-L".equals(args[i])) {
+                searchPath.add(new File(args[i + 1]));
+            } else {
+                usage();
+            }
+        }
+        new ElfServer(budget, searchPath).serve(port, parallelism);
+    }
+
+    private static void usage() {
+        System.err.println("usage: ElfServer [-p port] [-m budget_mb] [-j threads] [-L dir]...");
+        System.exit(1);
+    }
+
+    /**
+     * Accepts connections on the loopback interface until a "shutdown" request arrives,
+     * serving up to {@code parallelism} connections at a time.
+     */
+    public void serve(int port, int parallelism) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try (ServerSocket socket = new ServerSocket(port, 64, InetAddress.getLoopbackAddress())) {
+            mSocket = socket;
+            while (true) {
+                final Socket connection;
+                try {
+                    connection = socket.accept();
+                } catch (SocketException e) {
+                    if (socket.isClosed()) {
+                        break; // shutdown
+                    }
+                    throw e;
+                }
+                executor.execute(() -> handle(connection));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** Stops {@link #serve} from accepting connections. */
+    public void shutdown() {
+        ServerSocket socket = mSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void handle(Socket connection) {
+        try (Socket s = connection;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(
+                     new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if ("quit".equals(line)) {
+                    break;
+                }
+                List<String> result = new ArrayList<>();
+                String error = null;
+                try {
+                    execute(line, result);
+                } catch (IOException | RuntimeException e) {
+                    error = String.valueOf(e.getMessage()).replace('\n', ' ');
+                }
+                if (error != null) {
+                    out.write("ERR " + error + "\n");
+                } else {
+                    out.write("OK " + result.size() + "\n");
+                    for (String r : result) {
+                        out.write(r);
+                        out.write('\n');
+                    }
+                }
+                // Flush once the client's batch has been drained.
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException ignored) {
+            // The client went away; nothing to report to.
+        }
+    }
+
+    /**
+     * Runs one request, adding its output lines to {@code result}. The commands are:
+     *
+     * <pre>
+     *   symbol FILE NAME     the .dynsym and .symtab entries named NAME
+     *   symbols FILE GLOB    the .dynsym names that match GLOB
+     *   sections FILE        index, name, type, offset and size of each section
+     *   needed FILE          the DT_NEEDED entries
+     *   soname FILE          DT_SONAME, if any
+     *   plt FILE             the symbols bound through the PLT
+     *   deps FILE            the resolved dependency closure, as ldd prints it
+     *   stats                cache statistics
+     *   shutdown             stops the server
+     * </pre>
+     */
+    void execute(String request, List<String> result) throws IOException {
+        final String[] args = request.indexOf('\t') >= 0
+                ? request.split("\t") : request.trim().split(" +");
+        final String command = args[0];
+        switch (command) {
+            case "stats":
+                synchronized (this) {
+                    result.add("entries\t" + mEntries.size());
+                    result.add("retained\t" + mRetainedSize);
+                    result.add("budget\t" + mBudget);
+                }
+                result.add("hits\t" + mHits.get());
+                result.add("misses\t" + mMisses.get());
+                result.add("evictions\t" + mEvictions.get());
+                return;
+            case "shutdown":
+                shutdown();
+                return;
+            case "symbol":
+            case "symbols":
+            case "sections":
+            case "needed":
+            case "soname":
+            case "plt":
+            case "deps":
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+        if (args.length < 2) {
+            throw new IllegalArgumentException("usage: " + command + " FILE ...");
+        }
+        final File file = new File(args[1]);
+        if (command.equals("deps")) {
+            resolve(file, result);
+            return;
+        }
+        final Entry entry = get(file);
+        final ReadElf elf = entry.elf;
+        switch (command) {
+            case "symbol": {
+                requireArgs(args, 3);
+                addSymbol(result, "dynamic", elf.getDynamicSymbol(args[2]));
+                addSymbol(result, "static", elf.getSymbol(args[2]));
+                break;
+            }
+            case "symbols": {
+                requireArgs(args, 3);
+                NameIndex index = entry.names;
+                if (index == null) {
+                    index = new NameIndex(elf.getDynamicSymbolTable());
+                    entry.names = index;
+                }
+                final SymbolTable table = index.getTable();
+                for (int i : index.glob(args[2])) {
+                    result.add(table.getName(i));
+                }
+                break;
+            }
+            case "sections":
+                elf.accept(new ElfVisitor() {
+                    @Override
+                    public boolean visitSection(int index, String name, int type, long flags,
+                                                long addr, long offset, long size, int link,
+                                                int info, long addralign, long entsize) {
+                        result.add(index + "\t" + (name != null ? name : "") + "\t" + type
+                                + "\t" + offset + "\t" + size);
+                        return true;
+                    }
+
+                    @Override
+                    public boolean visitSymbol(boolean dynamic, int index, int nameOffset,
+                                               int info, int other, int shndx, long value,
+                                               long size) {
+                        return false;
+                    }
+                });
+                break;
+            case "needed":
+                result.addAll(elf.getNeeded());
+                break;
+            case "soname":
+                if (elf.getSoname() != null) {
+                    result.add(elf.getSoname());
+                }
+                break;
+            default: // plt
+                result.addAll(elf.getPltImports());
+                break;
+        }
+        updateRetainedSize(file.getCanonicalPath(), entry);
+    }
+
+    private static void requireArgs(String[] args, int count) {
+        if (args.length < count) {
+            throw new IllegalArgumentException("Missing argument to " + args[0]);
+        }
+    }
+
+    private static void addSymbol(List<String> result, String kind, ReadElf.Symbol symbol) {
+        if (symbol != null) {
+            result.add(kind + "\t" + symbol.name + "\t" + Long.toHexString(symbol.value) + "\t"
+                    + symbol.size + "\t" + symbol.type + "\t" + symbol.bind + "\t"
+                    + symbol.shndx);
+        }
+    }
+
+    /**
+     * Returns the cached entry for {@code file}, parsing it if it isn't cached or has changed
+     * since. Parsing happens outside the lock; two threads that miss on the same file may
+     * both parse it, and the later one's entry is kept.
+     */
+    private Entry get(File file) throws IOException {
+        final String key = file.getCanonicalPath();
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+            if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+                mHits.incrementAndGet();
+                return entry;
+            }
+        }
+        mMisses.incrementAndGet();
+        if (!file.isFile()) {
+            throw new IOException("No such file: " + file);
+        }
+        Entry entry = new Entry(ReadElf.read(file), length, lastModified);
+        entry.retainedSize = entry.computeRetainedSize();
+        synchronized (this) {
+            Entry old = mEntries.put(key, entry);
+            if (old != null) {
+                mRetainedSize -= old.retainedSize;
+            }
+            mRetainedSize += entry.retainedSize;
+            evict();
+        }
+        return entry;
+    }
+
+    /** Re-estimates {@code entry} after a query may have decoded more of it. */
+    private void updateRetainedSize(String key, Entry entry) {
+        final long size = entry.computeRetainedSize();
+        synchronized (this) {
+            if (mEntries.get(key) == entry && size != entry.retainedSize) {
+                mRetainedSize += size - entry.retainedSize;
+                entry.retainedSize = size;
+                evict();
+            }
+        }
+    }
+
+    /** Drops least recently used entries until the cache fits its budget. */
+    private void evict() {
+        // Keep the most recent entry even if it alone is over budget.
+        Iterator<Entry> it = mEntries.values().iterator();
+        while (mRetainedSize > mBudget && mEntries.size() > 1 && it.hasNext()) {
+            Entry entry = it.next();
+            it.remove();
+            mRetainedSize -= entry.retainedSize;
+            mEvictions.incrementAndGet();
+            // Not closed, since a query may still be using it: a mapped file holds no
+            // descriptor, and finalization releases the channel of an unmapped one.
+        }
+    }
+
+    /**
+     * Resolves the dependency closure of {@code file}. The resolver keeps every library it
+     * parses, so it is replaced when one of them changes or it outgrows the budget.
+     */
+    private void resolve(File file, List<String> result) throws IOException {
+        while (true) {
+            final DependencyResolver resolver;
+            synchronized (this) {
+                resolver = mResolver;
+            }
+            final DependencyResolver.Graph graph = resolver.resolve(file);
+            boolean stale = false;
+            synchronized (this) {
+                if (mResolver != resolver) {
+                    continue; // Replaced meanwhile; its answer may be stale.
+                }
+                for (DependencyResolver.Library library : graph.getLoadOrder()) {
+                    final File f = library.getFile();
+                    final long[] stamp = {f.length(), f.lastModified()};
+                    final long[] seen = mResolverStamps.put(f.getPath(), stamp);
+                    if (seen == null) {
+                        mResolverSize += library.getDynamicSymbols().getRetainedSize();
+                    } else if (seen[0] != stamp[0] || seen[1] != stamp[1]) {
+                        stale = true;
+                    }
+                }
+                if (stale || mResolverSize > mBudget) {
+                    mResolver = new DependencyResolver(mSearchPath);
+                    mResolverStamps.clear();
+                    mResolverSize = 0;
+                }
+            }
+            if (stale) {
+                continue;
+            }
+            for (DependencyResolver.Library library : graph.getLoadOrder()) {
+                if (library != graph.getRoot()) {
+                    result.add(library.toString());
+                }
+            }
+            for (String name : graph.getMissing()) {
+                result.add(name + " => not found");
+            }
+            return;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Receives everything {@link ReadElf#accept(ElfVisitor)} decodes, in file order: the header,
+ * then each section header, each program header, each .symtab entry and each .dynsym entry.
+ * Fields are passed exactly as they appear in the file, widened to int or long, so a pass
+ * allocates nothing beyond the section names.
+ *
+ * Every method returns true to continue and false to end the walk immediately. All methods
+ * default to continuing, so a visitor only overrides what it needs.
+ */
+public interface ElfVisitor {
+    /** The ELF header. {@code elfClass} and {@code data} are e_ident[EI_CLASS] and [EI_DATA]. */
+    default boolean visitHeader(int elfClass, int data, int type, int machine, long entry,
+                                long phoff, long shoff, int flags, int phnum, int shnum,
+                                int shstrndx) {
+        return true;
+    }
+
+    /** Section header {@code index}. {@code name} is null if it can't be resolved. */
+    default boolean visitSection(int index, String name, int type, long flags, long addr,
+                                 long offset, long size, int link, int info, long addralign,
+                                 long entsize) {
+        return true;
+    }
+
+    /** Program header {@code index}. */
+    default boolean visitSegment(int index, int type, int flags, long offset, long vaddr,
+                                 long paddr, long filesz, long memsz, long align) {
+        return true;
+    }
+
+    /**
+     * Entry {@code index} of .dynsym if {@code dynamic} is set, and of .symtab otherwise.
+     * Resolve {@code nameOffset} with {@link ReadElf#getSymbolName(boolean, int)} when the name
+     * is actually needed.
+     */
+    default boolean visitSymbol(boolean dynamic, int index, int nameOffset, int info, int other,
+                                int shndx, long value, long size) {
+        return true;
+    }
+}
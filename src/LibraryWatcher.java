@@ -0,0 +1,652 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps symbol and dependency indexes over directory trees of libraries (.so, .o and .a
+ * files) up to date as files change. Every ELF file and archive member is a unit with its
+ * exported symbols, DT_SONAME and DT_NEEDED; the indexes map symbols to the units defining
+ * them, and library names to the units providing and needing them.
+ *
+ * A refresh stats each file and skips it if its size and mtime are unchanged; otherwise a
+ * CRC of its contents (of each member, for archives) decides whether anything needs parsing.
+ * Only changed units are re-read, and their old and new contents are diffed into the
+ * indexes, so a refresh costs in proportion to what changed rather than to the trees.
+ *
+ * {@link #start()} watches the trees with a {@link WatchService} and refreshes the files it
+ * reports; {@link Listener}s receive one {@link Change} per unit added, modified or removed.
+ * Queries may run from any thread.
+ */
+public class LibraryWatcher implements AutoCloseable {
+    /** How long to wait for a burst of file events to settle before refreshing. */
+    private static final long SETTLE_MS = 100;
+
+    /** What happened to one unit, and how its exports and dependencies moved. */
+    public static class Change {
+        public enum Kind { ADDED, MODIFIED, REMOVED }
+
+        public final Kind kind;
+        /** The file, or "archive(member)" for archive members. */
+        public final String path;
+        public final SortedSet<String> addedSymbols;
+        public final SortedSet<String> removedSymbols;
+        public final SortedSet<String> addedNeeded;
+        public final SortedSet<String> removedNeeded;
+
+        Change(Kind kind, String path, SortedSet<String> addedSymbols,
+               SortedSet<String> removedSymbols, SortedSet<String> addedNeeded,
+               SortedSet<String> removedNeeded) {
+            this.kind = kind;
+            this.path = path;
+            this.addedSymbols = addedSymbols;
+            this.removedSymbols = removedSymbols;
+            this.addedNeeded = addedNeeded;
+            this.removedNeeded = removedNeeded;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + path + " +" + addedSymbols.size() + "/-" + removedSymbols.size()
+                    + " symbols, +" + addedNeeded.size() + "/-" + removedNeeded.size()
+                    + " needed";
+        }
+    }
+
+    /** Receives changes on the thread that applied them, after the indexes reflect them. */
+    public interface Listener {
+        void onChange(Change change);
+    }
+
+    /** One ELF file or archive member, as last parsed. Immutable. */
+    private static final class Unit {
+        final String path;
+        final long crc;
+        final String name;
+        final Set<String> symbols;
+        final Set<String> needed;
+
+        Unit(String path, long crc, String name, Set<String> symbols, Set<String> needed) {
+            this.path = path;
+            this.crc = crc;
+            this.name = name;
+            this.symbols = symbols;
+            this.needed = needed;
+        }
+    }
+
+    /** What a refresh saw of one file: its stat, its CRC, and its units by member key. */
+    private static final class FileState {
+        final long length;
+        final long lastModified;
+        final long crc;
+        final Map<String, Unit> units;
+
+        FileState(long length, long lastModified, long crc, Map<String, Unit> units) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.crc = crc;
+            this.units = units;
+        }
+    }
+
+    private final int mParallelism;
+    private final List<File> mRoots = new CopyOnWriteArrayList<>();
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /** Serializes refreshes, so indexes and listeners see changes in one order. */
+    private final Object mRefreshLock = new Object();
+
+    // Guarded by this.
+    private final Map<String, FileState> mFiles = new HashMap<>();
+    private final Map<String, Set<String>> mDefiners = new HashMap<>();
+    private final Map<String, Set<String>> mProviders = new HashMap<>();
+    private final Map<String, Set<String>> mDependents = new HashMap<>();
+
+    private WatchService mWatchService;
+    private Thread mWatchThread;
+    private final Map<WatchKey, Path> mWatchKeys = new HashMap<>();
+
+    public LibraryWatcher() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public LibraryWatcher(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        mParallelism = parallelism;
+    }
+
+    /** Indexes the given trees and then prints every change to them until killed. */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        if (args.length > 1 && "-j".equals(args[0])) {
+            parallelism = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        if (i >= args.length) {
+            System.err.println("usage: LibraryWatcher [-j parallelism] <dir>...");
+            System.exit(1);
+        }
+        final PrintStream out = System.out;
+        LibraryWatcher watcher = new LibraryWatcher(parallelism);
+        for (; i < args.length; ++i) {
+            watcher.addRoot(new File(args[i]));
+        }
+        final long start = System.nanoTime();
+        watcher.refresh();
+        out.println("indexed " + watcher.getUnitCount() + " units, "
+                + watcher.getSymbolCount() + " symbols in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        watcher.addListener(change -> {
+            out.println(change);
+            for (String symbol : change.addedSymbols) {
+                out.println("\t+ " + symbol);
+            }
+            for (String symbol : change.removedSymbols) {
+                out.println("\t- " + symbol);
+            }
+            for (String needed : change.addedNeeded) {
+                out.println("\t+ NEEDED " + needed);
+            }
+            for (String needed : change.removedNeeded) {
+                out.println("\t- NEEDED " + needed);
+            }
+            out.flush();
+        });
+        watcher.start();
+        watcher.mWatchThread.join();
+    }
+
+    /** Adds a tree to index; it is first read by the next refresh. */
+    public void addRoot(File root) {
+        mRoots.add(root);
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /** Units that define {@code symbol}, in path order; empty if none does. */
+    public synchronized SortedSet<String> getDefiners(String symbol) {
+        return copyOf(mDefiners.get(symbol));
+    }
+
+    /** Units whose DT_SONAME (or file name, lacking one) is {@code name}. */
+    public synchronized SortedSet<String> getProviders(String name) {
+        return copyOf(mProviders.get(name));
+    }
+
+    /** Units with a DT_NEEDED entry for {@code name}. */
+    public synchronized SortedSet<String> getDependents(String name) {
+        return copyOf(mDependents.get(name));
+    }
+
+    public synchronized int getUnitCount() {
+        int count = 0;
+        for (FileState state : mFiles.values()) {
+            count += state.units.size();
+        }
+        return count;
+    }
+
+    /** Number of distinct symbols defined by any unit. */
+    public synchronized int getSymbolCount() {
+        return mDefiners.size();
+    }
+
+    /**
+     * Walks every tree and brings the indexes up to date, for the initial scan or when file
+     * events may have been lost. Unchanged files cost one stat each.
+     */
+    public void refresh() throws IOException {
+        synchronized (mRefreshLock) {
+            Set<String> paths = new LinkedHashSet<>();
+            for (File root : mRoots) {
+                collect(root, paths);
+            }
+            synchronized (this) {
+                paths.addAll(mFiles.keySet());
+            }
+            refreshFiles(paths);
+        }
+    }
+
+    /** Brings the indexes up to date for {@code files} only; missing files are removed. */
+    public void refresh(Collection<File> files) throws IOException {
+        synchronized (mRefreshLock) {
+            Set<String> paths = new LinkedHashSet<>();
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    collect(file, paths);
+                } else {
+                    paths.add(file.getPath());
+                }
+            }
+            refreshFiles(paths);
+        }
+    }
+
+    /**
+     * Starts watching the trees on a daemon thread, refreshing whatever they report. Call
+     * {@link #refresh()} first to build the initial indexes.
+     */
+    public synchronized void start() throws IOException {
+        if (mWatchService != null) {
+            throw new IllegalStateException("Already watching");
+        }
+        mWatchService = FileSystems.getDefault().newWatchService();
+        for (File root : mRoots) {
+            register(root);
+        }
+        mWatchThread = new Thread(this::watch, "LibraryWatcher");
+        mWatchThread.setDaemon(true);
+        mWatchThread.start();
+    }
+
+    /** Stops watching; the indexes stay as they are. */
+    @Override
+    public void close() {
+        final WatchService service;
+        synchronized (this) {
+            service = mWatchService;
+        }
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void watch() {
+        final WatchService service;
+        synchronized (this) {
+            service = mWatchService;
+        }
+        try {
+            while (true) {
+                // Wait for one event, then gather the rest of the burst: a copy or a build
+                // step touches a file many times in quick succession.
+                Set<File> changed = new LinkedHashSet<>();
+                boolean overflow = false;
+                WatchKey key = service.take();
+                do {
+                    overflow |= drain(key, changed);
+                    key = service.poll(SETTLE_MS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                try {
+                    if (overflow) {
+                        refresh();
+                    } else {
+                        refresh(changed);
+                    }
+                } catch (IOException e) {
+                    System.err.println("LibraryWatcher: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // close() was called.
+        }
+    }
+
+    /** Adds the files {@code key} reports to {@code changed}; returns true on overflow. */
+    private boolean drain(WatchKey key, Set<File> changed) {
+        final Path dir;
+        synchronized (this) {
+            dir = mWatchKeys.get(key);
+        }
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                overflow = true;
+                continue;
+            }
+            final File file = dir.resolve((Path) event.context()).toFile();
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && file.isDirectory()) {
+                try {
+                    register(file);
+                } catch (IOException e) {
+                    overflow = true;
+                }
+            }
+            changed.add(file);
+        }
+        if (!key.reset()) {
+            synchronized (this) {
+                mWatchKeys.remove(key);
+            }
+            // The directory itself went away: refresh whatever was indexed beneath it.
+            if (dir != null) {
+                changed.add(dir.toFile());
+                synchronized (this) {
+                    final String prefix = dir.toString() + File.separator;
+                    for (String path : mFiles.keySet()) {
+                        if (path.startsWith(prefix)) {
+                            changed.add(new File(path));
+                        }
+                    }
+                }
+            }
+        }
+        return overflow;
+    }
+
+    private void register(File dir) throws IOException {
+        final Path path = dir.toPath();
+        final WatchKey key = path.register(mWatchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        synchronized (this) {
+            mWatchKeys.put(key, path);
+        }
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    register(child);
+                }
+            }
+        }
+    }
+
+    private void refreshFiles(Collection<String> paths) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        final Map<String, FileState> updates = Collections.synchronizedMap(new HashMap<>());
+        for (String path : paths) {
+            final FileState old;
+            synchronized (this) {
+                old = mFiles.get(path);
+            }
+            final File file = new File(path);
+            if (!file.isFile() || !isLibrary(file)) {
+                if (old != null) {
+                    updates.put(path, null);
+                }
+                continue;
+            }
+            if (old != null && old.length == file.length()
+                    && old.lastModified == file.lastModified()) {
+                continue;
+            }
+            tasks.add(() -> {
+                final FileState state;
+                try {
+                    state = read(file, old);
+                } catch (IOException e) {
+                    // Most likely caught mid-write; its stat still differs from what we keep,
+                    // so the next refresh tries again.
+                    return null;
+                }
+                if (state != old) {
+                    updates.put(path, state);
+                }
+                return null;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while refreshing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to refresh", cause);
+        } finally {
+            pool.shutdown();
+        }
+
+        List<Change> changes = new ArrayList<>();
+        synchronized (this) {
+            for (String path : new TreeSet<>(updates.keySet())) {
+                apply(path, updates.get(path), changes);
+            }
+        }
+        for (Change change : changes) {
+            for (Listener listener : mListeners) {
+                listener.onChange(change);
+            }
+        }
+    }
+
+    /**
+     * Reads {@code file}, reusing {@code old}'s units whose contents haven't changed. Returns
+     * {@code old} itself if the file's contents are as they were.
+     */
+    private static FileState read(File file, FileState old) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final long length = raf.length();
+            final long lastModified = file.lastModified();
+            final ByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    length);
+            final long crc = crc(map);
+            if (old != null && old.crc == crc && old.length == length) {
+                // Touched but identical: remember the new stat so it isn't hashed again.
+                return old.lastModified == lastModified
+                        ? old : new FileState(length, lastModified, crc, old.units);
+            }
+            byte[] ident = new byte[(int) Math.min(8, length)];
+            map.get(ident);
+            Map<String, Unit> units = new LinkedHashMap<>();
+            if (ReadAr.isArchive(ident)) {
+                readArchive(file, old, units);
+            } else {
+                Unit unit = readUnit(file.getPath(), crc, () -> ReadElf.read(file));
+                if (unit != null) {
+                    units.put("", unit);
+                }
+            }
+            return new FileState(length, lastModified, crc, units);
+        }
+    }
+
+    private static void readArchive(File file, FileState old, Map<String, Unit> units)
+            throws IOException {
+        try (ReadAr ar = ReadAr.read(file)) {
+            Map<String, Integer> seen = new HashMap<>();
+            for (ReadAr.Member member : ar.getMembers()) {
+                // Members may share a name; number the repeats so each keeps its own key.
+                final int n = seen.merge(member.name, 1, Integer::sum);
+                final String key = n == 1 ? member.name : member.name + "#" + n;
+                final String path = file.getPath() + "(" + key + ")";
+                final long crc = crc(ar.memberBuffer(member));
+                final Unit previous = old != null ? old.units.get(key) : null;
+                Unit unit = previous != null && previous.crc == crc
+                        ? previous : readUnit(path, crc, () -> ar.openMember(member));
+                if (unit != null) {
+                    units.put(key, unit);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Not a well-formed archive after all: index nothing for it.
+        }
+    }
+
+    private interface Opener {
+        ReadElf open() throws IOException;
+    }
+
+    /** Parses one ELF unit, or returns null if it isn't one (e.g. a linker script). */
+    private static Unit readUnit(String path, long crc, Opener opener) throws IOException {
+        ReadElf elf;
+        try {
+            elf = opener.open();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        try {
+            SymbolTable symbols = elf.getDynamicSymbolTable();
+            if (symbols.size() == 0) {
+                symbols = elf.getSymbolTable();
+            }
+            Set<String> exports = new TreeSet<>();
+            for (int i = 1; i < symbols.size(); ++i) {
+                if (symbols.isDefined(i) && symbols.getBind(i) != ReadElf.Symbol.STB_LOCAL
+                        && symbols.getNameOffset(i) != 0) {
+                    String name = symbols.getName(i);
+                    if (name != null) {
+                        exports.add(name);
+                    }
+                }
+            }
+            final String soname = elf.getSoname();
+            final String name = soname != null ? soname : new File(path).getName();
+            return new Unit(path, crc, name, exports, new TreeSet<>(elf.getNeeded()));
+        } finally {
+            elf.close();
+        }
+    }
+
+    /** Replaces {@code path}'s units with {@code state}'s (none if it is null). */
+    private void apply(String path, FileState state, List<Change> changes) {
+        final FileState old = state != null ? mFiles.put(path, state) : mFiles.remove(path);
+        final Map<String, Unit> oldUnits = old != null ? old.units
+                : Collections.<String, Unit>emptyMap();
+        final Map<String, Unit> newUnits = state != null ? state.units
+                : Collections.<String, Unit>emptyMap();
+        for (Map.Entry<String, Unit> entry : oldUnits.entrySet()) {
+            if (!newUnits.containsKey(entry.getKey())) {
+                changes.add(diff(entry.getValue(), null));
+            }
+        }
+        for (Map.Entry<String, Unit> entry : newUnits.entrySet()) {
+            final Unit previous = oldUnits.get(entry.getKey());
+            if (previous != entry.getValue()) {
+                changes.add(diff(previous, entry.getValue()));
+            }
+        }
+    }
+
+    /** Moves the indexes from {@code before} to {@code after}; either may be null. */
+    private Change diff(Unit before, Unit after) {
+        final Unit unit = after != null ? after : before;
+        final Set<String> noStrings = Collections.emptySet();
+        final Set<String> oldSymbols = before != null ? before.symbols : noStrings;
+        final Set<String> newSymbols = after != null ? after.symbols : noStrings;
+        final Set<String> oldNeeded = before != null ? before.needed : noStrings;
+        final Set<String> newNeeded = after != null ? after.needed : noStrings;
+
+        SortedSet<String> addedSymbols = minus(newSymbols, oldSymbols);
+        SortedSet<String> removedSymbols = minus(oldSymbols, newSymbols);
+        SortedSet<String> addedNeeded = minus(newNeeded, oldNeeded);
+        SortedSet<String> removedNeeded = minus(oldNeeded, newNeeded);
+        for (String symbol : removedSymbols) {
+            unindex(mDefiners, symbol, unit.path);
+        }
+        for (String symbol : addedSymbols) {
+            index(mDefiners, symbol, unit.path);
+        }
+        for (String needed : removedNeeded) {
+            unindex(mDependents, needed, unit.path);
+        }
+        for (String needed : addedNeeded) {
+            index(mDependents, needed, unit.path);
+        }
+        if (before != null && (after == null || !before.name.equals(after.name))) {
+            unindex(mProviders, before.name, unit.path);
+        }
+        if (after != null && (before == null || !before.name.equals(after.name))) {
+            index(mProviders, after.name, unit.path);
+        }
+
+        final Change.Kind kind = before == null ? Change.Kind.ADDED
+                : after == null ? Change.Kind.REMOVED : Change.Kind.MODIFIED;
+        return new Change(kind, unit.path, addedSymbols, removedSymbols, addedNeeded,
+                removedNeeded);
+    }
+
+    private static void index(Map<String, Set<String>> index, String key, String path) {
+        index.computeIfAbsent(key, k -> new TreeSet<>()).add(path);
+    }
+
+    private static void unindex(Map<String, Set<String>> index, String key, String path) {
+        Set<String> paths = index.get(key);
+        if (paths != null && paths.remove(path) && paths.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static SortedSet<String> minus(Set<String> a, Set<String> b) {
+        SortedSet<String> result = new TreeSet<>();
+        for (String s : a) {
+            if (!b.contains(s)) {
+                result.add(s);
+            }
+        }
+        return Collections.unmodifiableSortedSet(result);
+    }
+
+    private static SortedSet<String> copyOf(Set<String> paths) {
+        return paths == null ? Collections.<String>emptySortedSet()
+                : Collections.unmodifiableSortedSet(new TreeSet<>(paths));
+    }
+
+    private static void collect(File dir, Set<String> paths) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, paths);
+            } else if (isLibrary(child)) {
+                paths.add(child.getPath());
+            }
+        }
+    }
+
+    private static boolean isLibrary(File file) {
+        final String name = file.getName();
+        return name.endsWith(".so") || name.contains(".so.") || name.endsWith(".a")
+                || name.endsWith(".o");
+    }
+
+    private static long crc(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,889 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps addresses in one library to source lines through its DWARF .debug_line section. Each
+ * compilation unit's line program is run only when a lookup first lands in it, and its rows
+ * are kept as parallel primitive arrays sorted by address, so later lookups in that unit are
+ * a binary search.
+ *
+ * Units are found through .debug_aranges and the DW_AT_stmt_list of each unit's root DIE in
+ * .debug_info, read in one forward pass. Without .debug_aranges (clang doesn't emit it by
+ * default), line programs are run in order until one covers the address. Compressed sections
+ * are inflated as they are read; see {@link DebugSection}.
+ *
+ * DWARF versions 2 to 5 are supported. Lookups may run from several threads at a time.
+ */
+public class LineTable {
+    private static final int SHT_NOBITS = 8;
+    private static final int ET_REL = 1;
+
+    private static final int DW_TAG_compile_unit = 0x11;
+    private static final int DW_AT_stmt_list = 0x10;
+    private static final int DW_AT_comp_dir = 0x1b;
+
+    private static final int DW_LNS_copy = 1;
+    private static final int DW_LNS_advance_pc = 2;
+    private static final int DW_LNS_advance_line = 3;
+    private static final int DW_LNS_set_file = 4;
+    private static final int DW_LNS_set_column = 5;
+    private static final int DW_LNS_const_add_pc = 8;
+    private static final int DW_LNS_fixed_advance_pc = 9;
+
+    private static final int DW_LNE_end_sequence = 1;
+    private static final int DW_LNE_set_address = 2;
+    private static final int DW_LNE_define_file = 3;
+
+    private static final int DW_LNCT_path = 1;
+    private static final int DW_LNCT_directory_index = 2;
+
+    // Attribute forms, for skipping attributes and reading v5 line table entries.
+    private static final int DW_FORM_addr = 0x01;
+    private static final int DW_FORM_block2 = 0x03;
+    private static final int DW_FORM_block4 = 0x04;
+    private static final int DW_FORM_data2 = 0x05;
+    private static final int DW_FORM_data4 = 0x06;
+    private static final int DW_FORM_data8 = 0x07;
+    private static final int DW_FORM_string = 0x08;
+    private static final int DW_FORM_block = 0x09;
+    private static final int DW_FORM_block1 = 0x0a;
+    private static final int DW_FORM_data1 = 0x0b;
+    private static final int DW_FORM_flag = 0x0c;
+    private static final int DW_FORM_sdata = 0x0d;
+    private static final int DW_FORM_strp = 0x0e;
+    private static final int DW_FORM_udata = 0x0f;
+    private static final int DW_FORM_ref_addr = 0x10;
+    private static final int DW_FORM_ref1 = 0x11;
+    private static final int DW_FORM_ref2 = 0x12;
+    private static final int DW_FORM_ref4 = 0x13;
+    private static final int DW_FORM_ref8 = 0x14;
+    private static final int DW_FORM_ref_udata = 0x15;
+    private static final int DW_FORM_indirect = 0x16;
+    private static final int DW_FORM_sec_offset = 0x17;
+    private static final int DW_FORM_exprloc = 0x18;
+    private static final int DW_FORM_flag_present = 0x19;
+    private static final int DW_FORM_strx = 0x1a;
+    private static final int DW_FORM_addrx = 0x1b;
+    private static final int DW_FORM_ref_sup4 = 0x1c;
+    private static final int DW_FORM_strp_sup = 0x1d;
+    private static final int DW_FORM_data16 = 0x1e;
+    private static final int DW_FORM_line_strp = 0x1f;
+    private static final int DW_FORM_ref_sig8 = 0x20;
+    private static final int DW_FORM_implicit_const = 0x21;
+    private static final int DW_FORM_loclistx = 0x22;
+    private static final int DW_FORM_rnglistx = 0x23;
+    private static final int DW_FORM_ref_sup8 = 0x24;
+    private static final int DW_FORM_strx1 = 0x25;
+    private static final int DW_FORM_strx4 = 0x28;
+    private static final int DW_FORM_addrx1 = 0x29;
+    private static final int DW_FORM_addrx4 = 0x2c;
+    private static final int DW_FORM_GNU_addr_index = 0x1f01;
+    private static final int DW_FORM_GNU_str_index = 0x1f02;
+    private static final int DW_FORM_GNU_ref_alt = 0x1f20;
+    private static final int DW_FORM_GNU_strp_alt = 0x1f21;
+
+    /** A source position. */
+    public static class Location {
+        public final String file;
+        public final int line;
+        /** 0 when the compiler didn't record one. */
+        public final int column;
+
+        Location(String file, int line, int column) {
+            this.file = file;
+            this.line = line;
+            this.column = column;
+        }
+
+        @Override
+        public String toString() {
+            return column != 0 ? file + ":" + line + ":" + column : file + ":" + line;
+        }
+    }
+
+    /** One unit's rows, sorted by address; an end_sequence row has file -1. */
+    private static final class Rows {
+        final long[] addresses;
+        final int[] lines;
+        final int[] columns;
+        final int[] files;
+        final String[] fileNames;
+
+        Rows(long[] addresses, int[] lines, int[] columns, int[] files, String[] fileNames) {
+            this.addresses = addresses;
+            this.lines = lines;
+            this.columns = columns;
+            this.files = files;
+            this.fileNames = fileNames;
+        }
+
+        /** Position of the row covering {@code address}, or -1. */
+        int find(long address) {
+            int low = 0;
+            int high = addresses.length - 1;
+            int found = -1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (Long.compareUnsigned(addresses[mid], address) <= 0) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found >= 0 && files[found] >= 0 ? found : -1;
+        }
+    }
+
+    private final DebugSection mLine;
+    private final DebugSection mLineStr;
+    private final DebugSection mStr;
+
+    // Sorted, disjoint address ranges from .debug_aranges and the line program of each; null
+    // when the file has no usable .debug_aranges.
+    private final long[] mRangeStarts;
+    private final long[] mRangeEnds;
+    private final long[] mRangeUnits;
+    /** DW_AT_comp_dir by line program offset, which names directory 0 before DWARF 5. */
+    private final Map<Long, String> mCompDirs = new HashMap<>();
+
+    /** Decoded units by line program offset. Guarded by this. */
+    private final Map<Long, Rows> mUnits = new HashMap<>();
+
+    // Without ranges: where the next line program to run starts, and what has been run.
+    private long mNextUnit;
+    private final List<Rows> mScanned = new ArrayList<>();
+
+    private LineTable(DebugSection line, DebugSection lineStr, DebugSection str,
+                      DebugSection aranges, DebugSection info, DebugSection abbrev) {
+        mLine = line;
+        mLineStr = lineStr;
+        mStr = str;
+        long[][] ranges = null;
+        if (aranges != null && info != null && abbrev != null) {
+            try {
+                ranges = readRanges(aranges, info, abbrev);
+            } catch (IOException e) {
+                // Malformed .debug_aranges or .debug_info: fall back to running line programs.
+                mCompDirs.clear();
+            }
+        }
+        mRangeStarts = ranges != null ? ranges[0] : null;
+        mRangeEnds = ranges != null ? ranges[1] : null;
+        mRangeUnits = ranges != null ? ranges[2] : null;
+    }
+
+    /** Prints the source line of each hex address given after the file. */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: LineTable <file> <hex address>...");
+            System.exit(1);
+        }
+        final PrintStream out = System.out;
+        try (ReadElf elf = ReadElf.read(new File(args[0]))) {
+            LineTable table = read(elf);
+            if (table == null) {
+                System.err.println(args[0] + ": no .debug_line");
+                System.exit(1);
+            }
+            for (int i = 1; i < args.length; ++i) {
+                String hex = args[i].startsWith("0x") ? args[i].substring(2) : args[i];
+                Location location = table.lookup(Long.parseUnsignedLong(hex, 16));
+                out.println(args[i] + "\t" + (location != null ? location : "??:?"));
+            }
+        }
+    }
+
+    /**
+     * Indexes {@code elf}'s line tables, or returns null if it has none. Only the unit ranges
+     * are read here; line programs are run by {@link #lookup}. The table keeps using the
+     * file's mapping after {@code elf} is closed. Relocatable objects aren't indexed, since
+     * their line tables mean nothing until relocations are applied.
+     */
+    public static LineTable read(ReadElf elf) throws IOException {
+        final Map<String, long[]> sections = new HashMap<>();
+        final int[] header = new int[3];
+        elf.accept(new ElfVisitor() {
+            @Override
+            public boolean visitHeader(int elfClass, int data, int type, int machine,
+                                       long entry, long phoff, long shoff, int flags,
+                                       int phnum, int shnum, int shstrndx) {
+                header[0] = elfClass;
+                header[1] = type;
+                return true;
+            }
+
+            @Override
+            public boolean visitSection(int index, String name, int type, long flags,
+                                        long addr, long offset, long size, int link,
+                                        int info, long addralign, long entsize) {
+                if (name != null && type != SHT_NOBITS && size > 0
+                        && (name.startsWith(".debug_") || name.startsWith(".zdebug_"))) {
+                    sections.putIfAbsent(name, new long[] {offset, size, flags});
+                }
+                return true;
+            }
+
+            @Override
+            public boolean visitSegment(int index, int type, int flags, long offset,
+                                        long vaddr, long paddr, long filesz, long memsz,
+                                        long align) {
+                return false; // Only the section headers are needed.
+            }
+        });
+        final boolean is64 = header[0] == 2;
+        final DebugSection line = section(elf, sections, ".debug_line", is64);
+        if (line == null || header[1] == ET_REL) {
+            return null;
+        }
+        return new LineTable(line, section(elf, sections, ".debug_line_str", is64),
+                section(elf, sections, ".debug_str", is64),
+                section(elf, sections, ".debug_aranges", is64),
+                section(elf, sections, ".debug_info", is64),
+                section(elf, sections, ".debug_abbrev", is64));
+    }
+
+    /** Returns the source position of {@code address}, or null if no line program covers it. */
+    public Location lookup(long address) throws IOException {
+        final Rows rows = findRows(address);
+        if (rows == null) {
+            return null;
+        }
+        final int row = rows.find(address);
+        return row < 0 ? null : new Location(rows.fileNames[rows.files[row]], rows.lines[row],
+                rows.columns[row]);
+    }
+
+    /** Number of units whose line programs have been run so far. */
+    public synchronized int getDecodedUnitCount() {
+        return mRangeStarts != null ? mUnits.size() : mScanned.size();
+    }
+
+    private synchronized Rows findRows(long address) throws IOException {
+        if (mRangeStarts != null) {
+            int low = 0;
+            int high = mRangeStarts.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (Long.compareUnsigned(address, mRangeStarts[mid]) < 0) {
+                    high = mid - 1;
+                } else if (Long.compareUnsigned(address, mRangeEnds[mid]) >= 0) {
+                    low = mid + 1;
+                } else {
+                    final long offset = mRangeUnits[mid];
+                    Rows rows = mUnits.get(offset);
+                    if (rows == null) {
+                        try (DebugSection.Cursor in = mLine.open(offset)) {
+                            rows = runProgram(in, mCompDirs.get(offset));
+                        }
+                        mUnits.put(offset, rows);
+                    }
+                    return rows;
+                }
+            }
+            return null;
+        }
+
+        for (Rows rows : mScanned) {
+            if (rows.find(address) >= 0) {
+                return rows;
+            }
+        }
+        if (mNextUnit >= mLine.size()) {
+            return null;
+        }
+        // Run the remaining programs in order, on one cursor so that a compressed section is
+        // inflated once, until one covers the address.
+        try (DebugSection.Cursor in = mLine.open(mNextUnit)) {
+            while (in.hasRemaining()) {
+                final Rows rows = runProgram(in, null);
+                mNextUnit = in.position();
+                mScanned.add(rows);
+                if (rows.find(address) >= 0) {
+                    return rows;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the line program at the cursor, leaving the cursor at the end of its unit, and
+     * returns its rows. Before DWARF 5, file names in directory 0 are relative to
+     * {@code compDir} if it is known.
+     */
+    private Rows runProgram(DebugSection.Cursor in, String compDir) throws IOException {
+        final long start = in.position();
+        long unitLength = in.u32();
+        final boolean dwarf64 = unitLength == 0xffffffffL;
+        if (dwarf64) {
+            unitLength = in.u64();
+        }
+        final long end = in.position() + unitLength;
+        if (unitLength < 0 || end > mLine.size()) {
+            throw new IOException("Bad unit length at " + start + " in " + mLine.getName());
+        }
+        final int offsetSize = dwarf64 ? 8 : 4;
+        final int version = in.u16();
+        if (version < 2 || version > 5) {
+            // Skip units we can't read rather than failing the whole table.
+            in.seek(end);
+            return new Rows(new long[0], new int[0], new int[0], new int[0], new String[0]);
+        }
+        int addressSize = 0;
+        if (version >= 5) {
+            addressSize = in.u8();
+            in.u8(); // segment_selector_size
+        }
+        final long headerLength = in.unsigned(offsetSize);
+        final long programStart = in.position() + headerLength;
+        final int minInstructionLength = in.u8();
+        if (version >= 4) {
+            in.u8(); // maximum_operations_per_instruction; only VLIW targets use op_index.
+        }
+        in.u8(); // default_is_stmt; every row is kept, as addr2line does.
+        final int lineBase = (byte) in.u8();
+        final int lineRange = in.u8();
+        final int opcodeBase = in.u8();
+        final int[] standardLengths = new int[Math.max(opcodeBase, 1)];
+        for (int i = 1; i < opcodeBase; ++i) {
+            standardLengths[i] = in.u8();
+        }
+        if (lineRange == 0) {
+            throw new IOException("Bad line_range at " + start + " in " + mLine.getName());
+        }
+
+        final List<String> fileNames = new ArrayList<>();
+        if (version >= 5) {
+            final List<String> directories = readEntries(in, offsetSize, null);
+            fileNames.addAll(readEntries(in, offsetSize, directories));
+        } else {
+            final List<String> directories = new ArrayList<>();
+            directories.add(compDir != null ? compDir : "");
+            for (String dir = in.cstring(); !dir.isEmpty(); dir = in.cstring()) {
+                directories.add(dir);
+            }
+            fileNames.add(null); // File numbers start at 1 before DWARF 5.
+            for (String name = in.cstring(); !name.isEmpty(); name = in.cstring()) {
+                fileNames.add(join(directories, (int) in.uleb128(), name));
+                in.uleb128(); // mtime
+                in.uleb128(); // length
+            }
+        }
+        in.seek(programStart);
+
+        long[] addresses = new long[64];
+        int[] lines = new int[64];
+        int[] columns = new int[64];
+        int[] files = new int[64];
+        int count = 0;
+        // Sequences of a linked file that start at 0 are functions the linker dropped.
+        boolean dropSequence = false;
+        boolean sequenceStarted = false;
+
+        long address = 0;
+        int file = 1;
+        int line = 1;
+        int column = 0;
+        while (in.position() < end) {
+            final int opcode = in.u8();
+            boolean emit = false;
+            boolean endSequence = false;
+            if (opcode >= opcodeBase) {
+                final int adjusted = opcode - opcodeBase;
+                address += (long) (adjusted / lineRange) * minInstructionLength;
+                line += lineBase + adjusted % lineRange;
+                emit = true;
+            } else if (opcode == 0) {
+                final long length = in.uleb128();
+                final long next = in.position() + length;
+                if (length == 0) {
+                    continue;
+                }
+                final int sub = in.u8();
+                if (sub == DW_LNE_end_sequence) {
+                    emit = true;
+                    endSequence = true;
+                } else if (sub == DW_LNE_set_address) {
+                    final int size = (int) (length - 1);
+                    address = in.unsigned(addressSize != 0 && size != addressSize
+                            ? addressSize : size);
+                } else if (sub == DW_LNE_define_file) {
+                    // Vanishingly rare, and only before DWARF 5: name it without a directory.
+                    fileNames.add(in.cstring());
+                }
+                in.seek(next);
+            } else if (opcode == DW_LNS_copy) {
+                emit = true;
+            } else if (opcode == DW_LNS_advance_pc) {
+                address += in.uleb128() * minInstructionLength;
+            } else if (opcode == DW_LNS_advance_line) {
+                line += (int) in.sleb128();
+            } else if (opcode == DW_LNS_set_file) {
+                file = (int) in.uleb128();
+            } else if (opcode == DW_LNS_set_column) {
+                column = (int) in.uleb128();
+            } else if (opcode == DW_LNS_const_add_pc) {
+                address += (long) ((255 - opcodeBase) / lineRange) * minInstructionLength;
+            } else if (opcode == DW_LNS_fixed_advance_pc) {
+                address += in.u16();
+            } else {
+                // negate_stmt, set_basic_block, prologue_end, epilogue_begin, set_isa, and any
+                // opcode newer than this reader: skip their ULEB128 operands.
+                for (int i = 0; i < standardLengths[opcode]; ++i) {
+                    in.uleb128();
+                }
+            }
+
+            if (emit) {
+                if (!sequenceStarted) {
+                    sequenceStarted = true;
+                    dropSequence = address == 0;
+                }
+                if (!dropSequence) {
+                    if (count == addresses.length) {
+                        addresses = Arrays.copyOf(addresses, count * 2);
+                        lines = Arrays.copyOf(lines, count * 2);
+                        columns = Arrays.copyOf(columns, count * 2);
+                        files = Arrays.copyOf(files, count * 2);
+                    }
+                    addresses[count] = address;
+                    lines[count] = line;
+                    columns[count] = column;
+                    files[count] = endSequence || file < 0 || file >= fileNames.size()
+                            || fileNames.get(file) == null ? -1 : file;
+                    ++count;
+                }
+            }
+            if (endSequence) {
+                address = 0;
+                file = 1;
+                line = 1;
+                column = 0;
+                sequenceStarted = false;
+            }
+        }
+        in.seek(end);
+        return sort(addresses, lines, columns, files, count,
+                fileNames.toArray(new String[fileNames.size()]));
+    }
+
+    /**
+     * Reads a DWARF 5 directory or file name table. With {@code directories}, entries are
+     * files and are joined to their directory.
+     */
+    private List<String> readEntries(DebugSection.Cursor in, int offsetSize,
+                                     List<String> directories) throws IOException {
+        final int formatCount = in.u8();
+        final int[] contentTypes = new int[formatCount];
+        final int[] forms = new int[formatCount];
+        for (int i = 0; i < formatCount; ++i) {
+            contentTypes[i] = (int) in.uleb128();
+            forms[i] = (int) in.uleb128();
+        }
+        final long count = in.uleb128();
+        final List<String> result = new ArrayList<>();
+        for (long i = 0; i < count; ++i) {
+            String path = null;
+            int directory = 0;
+            for (int j = 0; j < formatCount; ++j) {
+                if (contentTypes[j] == DW_LNCT_path) {
+                    path = readString(in, forms[j], offsetSize);
+                } else if (contentTypes[j] == DW_LNCT_directory_index) {
+                    directory = (int) readUnsigned(in, forms[j]);
+                } else {
+                    skipForm(in, forms[j], 0, offsetSize, 5);
+                }
+            }
+            if (path == null) {
+                path = "";
+            }
+            result.add(directories != null ? join(directories, directory, path) : path);
+        }
+        return result;
+    }
+
+    private String readString(DebugSection.Cursor in, int form, int offsetSize)
+            throws IOException {
+        if (form == DW_FORM_string) {
+            return in.cstring();
+        }
+        if (form == DW_FORM_line_strp || form == DW_FORM_strp) {
+            final long offset = in.unsigned(offsetSize);
+            final DebugSection strings = form == DW_FORM_line_strp ? mLineStr : mStr;
+            if (strings == null || offset >= strings.size()) {
+                return null;
+            }
+            try (DebugSection.Cursor str = strings.open(offset)) {
+                return str.cstring();
+            }
+        }
+        skipForm(in, form, 0, offsetSize, 5);
+        return null;
+    }
+
+    private static long readUnsigned(DebugSection.Cursor in, int form) throws IOException {
+        switch (form) {
+            case DW_FORM_data1:
+                return in.u8();
+            case DW_FORM_data2:
+                return in.u16();
+            case DW_FORM_data4:
+                return in.u32();
+            case DW_FORM_data8:
+                return in.u64();
+            case DW_FORM_udata:
+                return in.uleb128();
+            default:
+                throw new IOException("Unexpected form 0x" + Integer.toHexString(form));
+        }
+    }
+
+    private static String join(List<String> directories, int index, String name) {
+        if (name.startsWith("/") || index < 0 || index >= directories.size()) {
+            return name;
+        }
+        final String dir = directories.get(index);
+        return dir.isEmpty() ? name : dir.endsWith("/") ? dir + name : dir + "/" + name;
+    }
+
+    /**
+     * Sorts rows by address. Sequences needn't be in address order, and where one ends at the
+     * address the next starts, the end row must sort first so that lookups find the start.
+     */
+    private static Rows sort(long[] addresses, int[] lines, int[] columns, int[] files,
+                             int count, String[] fileNames) {
+        final int[] order = new int[count];
+        boolean sorted = true;
+        for (int i = 0; i < count; ++i) {
+            order[i] = i;
+            sorted &= i == 0 || compareRows(addresses, files, i - 1, i) <= 0;
+        }
+        if (!sorted) {
+            NameIndex.sort(order, (a, b) -> compareRows(addresses, files, a, b));
+        }
+        final long[] sortedAddresses = new long[count];
+        final int[] sortedLines = new int[count];
+        final int[] sortedColumns = new int[count];
+        final int[] sortedFiles = new int[count];
+        for (int i = 0; i < count; ++i) {
+            sortedAddresses[i] = addresses[order[i]];
+            sortedLines[i] = lines[order[i]];
+            sortedColumns[i] = columns[order[i]];
+            sortedFiles[i] = files[order[i]];
+        }
+        return new Rows(sortedAddresses, sortedLines, sortedColumns, sortedFiles, fileNames);
+    }
+
+    private static int compareRows(long[] addresses, int[] files, int a, int b) {
+        final int c = Long.compareUnsigned(addresses[a], addresses[b]);
+        if (c != 0) {
+            return c;
+        }
+        return Boolean.compare(files[a] >= 0, files[b] >= 0);
+    }
+
+    /**
+     * Reads .debug_aranges into sorted ranges, and maps each unit to its line program with one
+     * forward pass over the root DIEs of .debug_info.
+     */
+    private long[][] readRanges(DebugSection aranges, DebugSection info,
+                                       DebugSection abbrev) throws IOException {
+        long[] starts = new long[64];
+        long[] ends = new long[64];
+        long[] units = new long[64];
+        int count = 0;
+        try (DebugSection.Cursor in = aranges.open(0)) {
+            while (in.hasRemaining()) {
+                final long setStart = in.position();
+                long length = in.u32();
+                final boolean dwarf64 = length == 0xffffffffL;
+                if (dwarf64) {
+                    length = in.u64();
+                }
+                final long setEnd = in.position() + length;
+                in.u16(); // version
+                final long unit = in.unsigned(dwarf64 ? 8 : 4);
+                final int addressSize = in.u8();
+                final int segmentSize = in.u8();
+                if (addressSize != 4 && addressSize != 8 || segmentSize != 0) {
+                    in.seek(setEnd);
+                    continue;
+                }
+                // Tuples are aligned to twice the address size from the start of the set.
+                final int tupleSize = 2 * addressSize;
+                final long headerEnd = in.position() - setStart;
+                in.seek(setStart + (headerEnd + tupleSize - 1) / tupleSize * tupleSize);
+                while (in.position() + tupleSize <= setEnd) {
+                    final long address = in.unsigned(addressSize);
+                    final long size = in.unsigned(addressSize);
+                    if (address == 0 && size == 0) {
+                        break;
+                    }
+                    if (size == 0) {
+                        continue;
+                    }
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                        ends = Arrays.copyOf(ends, count * 2);
+                        units = Arrays.copyOf(units, count * 2);
+                    }
+                    starts[count] = address;
+                    ends[count] = address + size;
+                    units[count] = unit;
+                    ++count;
+                }
+                in.seek(setEnd);
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        // Resolve unit offsets to line program offsets in ascending order.
+        final TreeMap<Long, Long> stmtLists = new TreeMap<>();
+        for (int i = 0; i < count; ++i) {
+            stmtLists.put(units[i], -1L);
+        }
+        try (DebugSection.Cursor in = info.open(0)) {
+            for (Map.Entry<Long, Long> entry : stmtLists.entrySet()) {
+                in.seek(entry.getKey());
+                entry.setValue(readStmtList(in, abbrev));
+            }
+        }
+
+        final int[] order = new int[count];
+        for (int i = 0; i < count; ++i) {
+            order[i] = i;
+        }
+        final long[] s = starts;
+        NameIndex.sort(order, (a, b) -> Long.compareUnsigned(s[a], s[b]));
+        final long[][] result = new long[3][count];
+        int n = 0;
+        for (int i : order) {
+            final long stmtList = stmtLists.get(units[i]);
+            if (stmtList < 0) {
+                continue;
+            }
+            // Keep ranges disjoint: trim any overlap with the previous range.
+            long start = starts[i];
+            if (n > 0 && Long.compareUnsigned(start, result[1][n - 1]) < 0) {
+                start = result[1][n - 1];
+                if (Long.compareUnsigned(start, ends[i]) >= 0) {
+                    continue;
+                }
+            }
+            result[0][n] = start;
+            result[1][n] = ends[i];
+            result[2][n] = stmtList;
+            ++n;
+        }
+        return n == 0 ? null : new long[][] {
+                Arrays.copyOf(result[0], n), Arrays.copyOf(result[1], n),
+                Arrays.copyOf(result[2], n)};
+    }
+
+    /**
+     * Reads the DW_AT_stmt_list of the unit at the cursor's root DIE, or returns -1, and
+     * records its DW_AT_comp_dir.
+     */
+    private long readStmtList(DebugSection.Cursor in, DebugSection abbrev) throws IOException {
+        long length = in.u32();
+        final boolean dwarf64 = length == 0xffffffffL;
+        if (dwarf64) {
+            length = in.u64();
+        }
+        final int offsetSize = dwarf64 ? 8 : 4;
+        final int version = in.u16();
+        final long abbrevOffset;
+        final int addressSize;
+        if (version >= 5) {
+            final int unitType = in.u8();
+            addressSize = in.u8();
+            abbrevOffset = in.unsigned(offsetSize);
+            if (unitType == 4 || unitType == 5) { // DW_UT_skeleton, DW_UT_split_compile
+                in.u64(); // dwo_id
+            } else if (unitType == 2 || unitType == 6) { // DW_UT_type, DW_UT_split_type
+                return -1;
+            }
+        } else if (version >= 2) {
+            abbrevOffset = in.unsigned(offsetSize);
+            addressSize = in.u8();
+        } else {
+            return -1;
+        }
+        final long code = in.uleb128();
+        try (DebugSection.Cursor a = abbrev.open(abbrevOffset)) {
+            // Find the root DIE's abbreviation; it is nearly always the first.
+            while (true) {
+                final long entryCode = a.uleb128();
+                if (entryCode == 0) {
+                    return -1;
+                }
+                final long tag = a.uleb128();
+                a.u8(); // DW_CHILDREN
+                if (entryCode == code) {
+                    if (tag != DW_TAG_compile_unit && tag != 0x41 /* partial_unit */
+                            && tag != 0x4a /* skeleton_unit */) {
+                        return -1;
+                    }
+                    break;
+                }
+                // Skip its attribute specifications, up to the terminating (0, 0).
+                long attribute;
+                long form;
+                do {
+                    attribute = a.uleb128();
+                    form = skipAttributeSpec(a);
+                } while (attribute != 0 || form != 0);
+            }
+            long stmtList = -1;
+            String compDir = null;
+            while (true) {
+                final int attribute = (int) a.uleb128();
+                final int form = (int) a.uleb128();
+                if (attribute == 0 && form == 0) {
+                    break;
+                }
+                final long implicitConst = form == DW_FORM_implicit_const ? a.sleb128() : 0;
+                if (attribute == DW_AT_stmt_list && form == DW_FORM_implicit_const) {
+                    stmtList = implicitConst;
+                } else if (attribute == DW_AT_stmt_list && (form == DW_FORM_sec_offset
+                        || form == DW_FORM_data4 || form == DW_FORM_data8)) {
+                    stmtList = form == DW_FORM_sec_offset ? in.unsigned(offsetSize)
+                            : in.unsigned(form == DW_FORM_data4 ? 4 : 8);
+                } else if (attribute == DW_AT_comp_dir) {
+                    compDir = readString(in, form, offsetSize);
+                } else {
+                    skipForm(in, form, addressSize, offsetSize, version);
+                }
+            }
+            if (stmtList >= 0 && compDir != null) {
+                mCompDirs.put(stmtList, compDir);
+            }
+            return stmtList;
+        }
+    }
+
+    /** Reads an attribute specification's form (and implicit constant); returns the form. */
+    private static long skipAttributeSpec(DebugSection.Cursor a) throws IOException {
+        final long form = a.uleb128();
+        if (form == DW_FORM_implicit_const) {
+            a.sleb128();
+        }
+        return form;
+    }
+
+    private static void skipForm(DebugSection.Cursor in, int form, int addressSize,
+                                 int offsetSize, int version) throws IOException {
+        switch (form) {
+            case DW_FORM_flag_present:
+            case DW_FORM_implicit_const:
+                return;
+            case DW_FORM_data1:
+            case DW_FORM_ref1:
+            case DW_FORM_flag:
+            case DW_FORM_strx1:
+            case DW_FORM_addrx1:
+                in.skip(1);
+                return;
+            case DW_FORM_data2:
+            case DW_FORM_ref2:
+            case DW_FORM_strx1 + 1:
+            case DW_FORM_addrx1 + 1:
+                in.skip(2);
+                return;
+            case DW_FORM_strx1 + 2:
+            case DW_FORM_addrx1 + 2:
+                in.skip(3);
+                return;
+            case DW_FORM_data4:
+            case DW_FORM_ref4:
+            case DW_FORM_ref_sup4:
+            case DW_FORM_strx4:
+            case DW_FORM_addrx4:
+                in.skip(4);
+                return;
+            case DW_FORM_data8:
+            case DW_FORM_ref8:
+            case DW_FORM_ref_sig8:
+            case DW_FORM_ref_sup8:
+                in.skip(8);
+                return;
+            case DW_FORM_data16:
+                in.skip(16);
+                return;
+            case DW_FORM_addr:
+                in.skip(addressSize);
+                return;
+            case DW_FORM_ref_addr:
+                in.skip(version <= 2 ? addressSize : offsetSize);
+                return;
+            case DW_FORM_strp:
+            case DW_FORM_sec_offset:
+            case DW_FORM_line_strp:
+            case DW_FORM_strp_sup:
+            case DW_FORM_GNU_ref_alt:
+            case DW_FORM_GNU_strp_alt:
+                in.skip(offsetSize);
+                return;
+            case DW_FORM_sdata:
+                in.sleb128();
+                return;
+            case DW_FORM_udata:
+            case DW_FORM_ref_udata:
+            case DW_FORM_strx:
+            case DW_FORM_addrx:
+            case DW_FORM_loclistx:
+            case DW_FORM_rnglistx:
+            case DW_FORM_GNU_addr_index:
+            case DW_FORM_GNU_str_index:
+                in.uleb128();
+                return;
+            case DW_FORM_string:
+                while (in.u8() != 0) {
+                    // Skip to the terminating NUL.
+                }
+                return;
+            case DW_FORM_block1:
+                in.skip(in.u8());
+                return;
+            case DW_FORM_block2:
+                in.skip(in.u16());
+                return;
+            case DW_FORM_block4:
+                in.skip(in.u32());
+                return;
+            case DW_FORM_block:
+            case DW_FORM_exprloc:
+                in.skip(in.uleb128());
+                return;
+            case DW_FORM_indirect:
+                skipForm(in, (int) in.uleb128(), addressSize, offsetSize, version);
+                return;
+            default:
+                throw new IOException("Unknown form 0x" + Integer.toHexString(form));
+        }
+    }
+
+    /** Returns section {@code name}, or its GNU-compressed .zdebug_* form, or null. */
+    private static DebugSection section(ReadElf elf, Map<String, long[]> sections, String name,
+                                        boolean is64) throws IOException {
+        long[] section = sections.get(name);
+        if (section == null) {
+            name = ".z" + name.substring(1);
+            section = sections.get(name);
+        }
+        if (section == null) {
+            return null;
+        }
+        return DebugSection.of(name, elf.readTable(section[0], section[1]), section[2], is64);
+    }
+}
@@ -0,0 +1,369 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Works out the lowest API level an app library can run at: the first level of a sysroot laid
+ * out as {@code <root>/<abi>/<api>/*.so} whose platform libraries export every symbol the
+ * library imports from the platform.
+ *
+ * The exports of each ABI are read once, on first use, into a name-to-id map and one
+ * {@link BitSet} of ids per API level, so checking a library costs a hash lookup per import
+ * and a bit test per import and level, whatever the size of the sysroot.
+ *
+ * Weak imports are left out, since the library must already cope with them resolving to null,
+ * and so are imports that no platform library exports at any level: those are expected to
+ * come from libraries the app ships, such as libc++_shared.so. A checker may be used from
+ * several threads at a time.
+ */
+public class MinApiLevel {
+    private static final int EM_386 = 3;
+    private static final int EM_ARM = 40;
+    private static final int EM_X86_64 = 62;
+    private static final int EM_AARCH64 = 183;
+
+    /** The verdict for one library. */
+    public static class Result {
+        public final String path;
+        public final String abi;
+        /**
+         * The lowest API level from which every level provides every platform import, or -1
+         * if the newest level doesn't.
+         */
+        public final int minApi;
+        /** The imports lacking at each level below {@link #minApi} that lacks any. */
+        public final SortedMap<Integer, List<String>> missing;
+        /** Strong imports that no platform library exports at any level. */
+        public final List<String> nonPlatform;
+
+        Result(String path, String abi, int minApi, SortedMap<Integer, List<String>> missing,
+               List<String> nonPlatform) {
+            this.path = path;
+            this.abi = abi;
+            this.minApi = minApi;
+            this.missing = missing;
+            this.nonPlatform = nonPlatform;
+        }
+
+        /** Prints the minimum level and path, then the imports missing at each lower level. */
+        public void writeTo(PrintStream out) {
+            out.println(minApi + "\t" + path);
+            for (Map.Entry<Integer, List<String>> entry : missing.entrySet()) {
+                out.println("\t" + entry.getKey() + "\t" + String.join(" ", entry.getValue()));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return minApi + "\t" + path;
+        }
+    }
+
+    /** The exports of one ABI's platform libraries at each API level. Immutable. */
+    static class Exports {
+        /** API levels, ascending. */
+        final int[] levels;
+        /** Ids of the symbols exported at each level, parallel to {@link #levels}. */
+        final BitSet[] sets;
+        /** Every name exported at some level. */
+        final Map<String, Integer> ids;
+
+        Exports(int[] levels, BitSet[] sets, Map<String, Integer> ids) {
+            this.levels = levels;
+            this.sets = sets;
+            this.ids = ids;
+        }
+    }
+
+    private final File mRoot;
+    private final int mParallelism;
+    /** Exports by ABI directory name. Guarded by this. */
+    private final Map<String, Exports> mExports = new HashMap<>();
+
+    public MinApiLevel(File root) {
+        this(root, Runtime.getRuntime().availableProcessors());
+    }
+
+    public MinApiLevel(File root, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        mRoot = root;
+        mParallelism = parallelism;
+    }
+
+    /**
+     * Prints the minimum API level of every library given or found under the directories
+     * given, with the imports missing at each lower level. With {@code -m}, exits with status
+     * 1 if any library needs a higher level than {@code minSdk}.
+     */
+    public static void main(String[] args) throws IOException {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int minSdk = -1;
+        int i = 0;
+        for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+            if ("-j".equals(args[i])) {
+                parallelism = Integer.parseInt(args[i + 1]);
+            } else if ("-m".equals(args[i])) {
+                minSdk = Integer.parseInt(args[i + 1]);
+            } else {
+                break;
+            }
+        }
+        if (i + 1 >= args.length) {
+            System.err.println("usage: MinApiLevel [-j parallelism] [-m minSdk] <sysroot> "
+                    + "<lib|dir>...");
+            System.exit(1);
+        }
+        final MinApiLevel checker = new MinApiLevel(new File(args[i++]), parallelism);
+        List<File> files = new ArrayList<>();
+        for (; i < args.length; ++i) {
+            collect(new File(args[i]), files);
+        }
+        boolean ok = true;
+        for (Result result : checker.checkAll(files)) {
+            result.writeTo(System.out);
+            if (minSdk >= 0 && (result.minApi < 0 || result.minApi > minSdk)) {
+                ok = false;
+            }
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Checks {@code file} against the sysroot of its ABI. Throws IllegalArgumentException if
+     * it isn't ELF or its ABI has no directory in the sysroot.
+     */
+    public Result check(File file) throws IOException {
+        try (ReadElf elf = ReadElf.read(file)) {
+            final String abi = abi(elf);
+            final Exports exports = getExports(abi);
+            if (exports.levels.length == 0) {
+                throw new IllegalArgumentException("No API levels for " + abi + " in " + mRoot);
+            }
+
+            final List<String> names = new ArrayList<>();
+            final List<String> nonPlatform = new ArrayList<>();
+            final BitSet imports = new BitSet();
+            final SymbolTable symbols = elf.getDynamicSymbolTable();
+            for (int i = 1; i < symbols.size(); ++i) {
+                if (symbols.isDefined(i) || symbols.getNameOffset(i) == 0
+                        || symbols.getBind(i) == ReadElf.Symbol.STB_WEAK) {
+                    continue;
+                }
+                final String name = symbols.getName(i);
+                final Integer id = name != null ? exports.ids.get(name) : null;
+                if (id == null) {
+                    if (name != null) {
+                        nonPlatform.add(name);
+                    }
+                } else if (!imports.get(id)) {
+                    imports.set(id);
+                    names.add(name);
+                }
+            }
+
+            // Walk down from the newest level: the minimum is the lowest level from which every
+            // newer level provides every import.
+            final SortedMap<Integer, List<String>> missing = new TreeMap<>();
+            int minApi = -1;
+            for (int level = exports.levels.length - 1; level >= 0; --level) {
+                final BitSet absent = (BitSet) imports.clone();
+                absent.andNot(exports.sets[level]);
+                if (absent.isEmpty()) {
+                    if (missing.isEmpty()) {
+                        minApi = exports.levels[level];
+                    }
+                    continue;
+                }
+                final List<String> lacking = new ArrayList<>(absent.cardinality());
+                for (String name : names) {
+                    if (absent.get(exports.ids.get(name))) {
+                        lacking.add(name);
+                    }
+                }
+                Collections.sort(lacking);
+                missing.put(exports.levels[level], Collections.unmodifiableList(lacking));
+            }
+            Collections.sort(nonPlatform);
+            return new Result(file.getPath(), abi, minApi,
+                    Collections.unmodifiableSortedMap(missing),
+                    Collections.unmodifiableList(nonPlatform));
+        }
+    }
+
+    /**
+     * Checks every file in {@code files} on this checker's threads, returning results in the
+     * same order. Files that aren't ELF or whose ABI the sysroot lacks are left out.
+     */
+    public List<Result> checkAll(List<File> files) throws IOException {
+        List<Callable<Result>> tasks = new ArrayList<>(files.size());
+        for (File file : files) {
+            tasks.add(() -> {
+                try {
+                    return check(file);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            });
+        }
+        List<Result> result = new ArrayList<>(files.size());
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            for (Future<Result> f : pool.invokeAll(tasks)) {
+                if (f.get() != null) {
+                    result.add(f.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while checking", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to check", cause);
+        } finally {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    /** Returns the exports of ABI directory {@code abi}, reading them on first use. */
+    synchronized Exports getExports(String abi) throws IOException {
+        Exports exports = mExports.get(abi);
+        if (exports == null) {
+            exports = readExports(new File(mRoot, abi));
+            mExports.put(abi, exports);
+        }
+        return exports;
+    }
+
+    private Exports readExports(File abiDir) throws IOException {
+        final List<File> dirs = new ArrayList<>();
+        for (File dir : ApiDiff.listSorted(abiDir)) {
+            if (ApiDiff.parseApiLevel(dir) >= 0) {
+                dirs.add(dir);
+            }
+        }
+        dirs.sort((a, b) -> Integer.compare(ApiDiff.parseApiLevel(a),
+                ApiDiff.parseApiLevel(b)));
+
+        // Read every library of every level in parallel, then number the names in order.
+        final List<Callable<List<String>>> tasks = new ArrayList<>();
+        final List<Integer> owners = new ArrayList<>();
+        for (int level = 0; level < dirs.size(); ++level) {
+            for (File file : ApiDiff.listSorted(dirs.get(level))) {
+                if (file.isFile() && file.getName().endsWith(".so")) {
+                    tasks.add(() -> readExportedNames(file));
+                    owners.add(level);
+                }
+            }
+        }
+        final int[] levels = new int[dirs.size()];
+        final BitSet[] sets = new BitSet[dirs.size()];
+        for (int level = 0; level < dirs.size(); ++level) {
+            levels[level] = ApiDiff.parseApiLevel(dirs.get(level));
+            sets[level] = new BitSet();
+        }
+        final Map<String, Integer> ids = new HashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            final List<Future<List<String>>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); ++i) {
+                final BitSet set = sets[owners.get(i)];
+                for (String name : futures.get(i).get()) {
+                    Integer id = ids.get(name);
+                    if (id == null) {
+                        id = ids.size();
+                        ids.put(name, id);
+                    }
+                    set.set(id);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + abiDir, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to read " + abiDir, cause);
+        } finally {
+            pool.shutdown();
+        }
+        return new Exports(levels, sets, Collections.unmodifiableMap(ids));
+    }
+
+    /** The names {@code file} exports; none if it isn't ELF, such as a linker script. */
+    private static List<String> readExportedNames(File file) throws IOException {
+        try (ReadElf elf = ReadElf.read(file)) {
+            final SymbolTable symbols = elf.getDynamicSymbolTable();
+            final List<String> names = new ArrayList<>(symbols.size());
+            for (int i = 1; i < symbols.size(); ++i) {
+                if (symbols.isDefined(i) && symbols.getNameOffset(i) != 0
+                        && symbols.getBind(i) != ReadElf.Symbol.STB_LOCAL) {
+                    final String name = symbols.getName(i);
+                    if (name != null) {
+                        names.add(name);
+                    }
+                }
+            }
+            return names;
+        } catch (IllegalArgumentException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /** The sysroot directory of {@code elf}'s ABI, from e_machine. */
+    private static String abi(ReadElf elf) throws IOException {
+        final int[] machine = new int[1];
+        elf.accept(new ElfVisitor() {
+            @Override
+            public boolean visitHeader(int elfClass, int data, int type, int m, long entry,
+                                       long phoff, long shoff, int flags, int phnum,
+                                       int shnum, int shstrndx) {
+                machine[0] = m;
+                return false;
+            }
+        });
+        switch (machine[0]) {
+            case EM_AARCH64:
+                return "aarch64-linux-android";
+            case EM_ARM:
+                return "arm-linux-androideabi";
+            case EM_386:
+                return "i686-linux-android";
+            case EM_X86_64:
+                return "x86_64-linux-android";
+            default:
+                throw new IllegalArgumentException("No Android ABI for e_machine " + machine[0]);
+        }
+    }
+
+    private static void collect(File file, List<File> files) {
+        if (file.isFile()) {
+            files.add(file);
+            return;
+        }
+        for (File child : ApiDiff.listSorted(file)) {
+            collect(child, files);
+        }
+    }
+}
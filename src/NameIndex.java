@@ -0,0 +1,340 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * A searchable index over the names of a {@link SymbolTable}: symbol indices sorted by name,
+ * with the names left in the string table. Prefix queries are a binary search over the raw
+ * bytes; globs narrow to the range of their literal prefix before matching, so both come back
+ * in microseconds even for 100k+ symbols.
+ *
+ * With a {@link Demangler}, the same queries also run over demangled names. Those are decoded
+ * and sorted on the first such query, and cached by the index. Queries return symbol indices
+ * in name order and may run from several threads at a time.
+ */
+public class NameIndex {
+    /** Demangled names, sorted, with the symbol index of each. */
+    private static final class Demangled {
+        final int[] order;
+        final String[] names;
+
+        Demangled(int[] order, String[] names) {
+            this.order = order;
+            this.names = names;
+        }
+    }
+
+    private final SymbolTable mTable;
+    private final int[] mOrder;
+    private final Demangler mDemangler;
+    private volatile Demangled mDemangled;
+
+    public NameIndex(SymbolTable table) {
+        this(table, null);
+    }
+
+    /** Creates an index over every named entry; {@code demangler} may be null. */
+    public NameIndex(SymbolTable table, Demangler demangler) {
+        mTable = table;
+        mDemangler = demangler;
+        int count = 0;
+        int[] indices = new int[table.size()];
+        for (int i = 1; i < table.size(); ++i) {
+            if (table.getNameOffset(i) != 0) {
+                indices[count++] = i;
+            }
+        }
+        mOrder = Arrays.copyOf(indices, count);
+        sort(mOrder, (a, b) -> table.compareNames(a, table, b));
+    }
+
+    /**
+     * Prints the names in each file that match a glob (the default), a prefix ({@code -p}) or
+     * a regular expression ({@code -r}); {@code -d} matches and prints demangled names.
+     */
+    public static void main(String[] args) throws IOException {
+        boolean demangle = false;
+        char mode = 'g';
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); ++i) {
+            if ("-d".equals(args[i])) {
+                demangle = true;
+            } else if ("-p".equals(args[i]) || "-r".equals(args[i])) {
+                mode = args[i].charAt(1);
+            } else {
+                break;
+            }
+        }
+        if (i + 2 > args.length) {
+            System.err.println("usage: NameIndex [-d] [-p|-r] <pattern> <file>...");
+            System.exit(1);
+        }
+        final String pattern = args[i++];
+        final Pattern regex = mode == 'r' ? Pattern.compile(pattern) : null;
+        final Demangler demangler = demangle ? new Demangler() : null;
+        final PrintStream out = System.out;
+        for (; i < args.length; ++i) {
+            try (ReadElf elf = ReadElf.read(new File(args[i]))) {
+                for (SymbolTable table : new SymbolTable[] {
+                        elf.getDynamicSymbolTable(), elf.getSymbolTable()}) {
+                    NameIndex index = new NameIndex(table, demangler);
+                    int[] matches;
+                    if (mode == 'p') {
+                        matches = demangle ? index.demangledPrefix(pattern) : index.prefix(pattern);
+                    } else if (mode == 'r') {
+                        matches = demangle ? index.demangledRegex(regex) : index.regex(regex);
+                    } else {
+                        matches = demangle ? index.demangledGlob(pattern) : index.glob(pattern);
+                    }
+                    for (int match : matches) {
+                        out.println(args[i] + "\t" + (demangle
+                                ? index.getDemangledName(match) : table.getName(match)));
+                    }
+                }
+            }
+        }
+    }
+
+    public SymbolTable getTable() {
+        return mTable;
+    }
+
+    /** Number of named entries in the index. */
+    public int size() {
+        return mOrder.length;
+    }
+
+    /**
+     * Bytes of heap held by this index, including the demangled names if they have been
+     * built, but not the table it indexes.
+     */
+    public long getRetainedSize() {
+        long size = 64 + mOrder.length * 4L;
+        Demangled demangled = mDemangled;
+        if (demangled != null) {
+            size += demangled.order.length * (4L + 8);
+            for (String name : demangled.names) {
+                size += 40 + name.length();
+            }
+        }
+        return size;
+    }
+
+    /** Returns the indices of the entries whose names start with {@code prefix}. */
+    public int[] prefix(String prefix) {
+        final byte[] bytes = prefix.getBytes();
+        final int from = lowerBound(bytes, false);
+        return Arrays.copyOfRange(mOrder, from, lowerBound(bytes, true));
+    }
+
+    /**
+     * Returns the indices of the entries whose names match the shell glob {@code glob}:
+     * {@code *}, {@code ?} and {@code [...]} classes, with {@code \} quoting.
+     */
+    public int[] glob(String glob) {
+        final String literal = literalPrefix(glob);
+        final byte[] bytes = literal.getBytes();
+        final int from = lowerBound(bytes, false);
+        final int to = lowerBound(bytes, true);
+        if (literal.length() == glob.length()) {
+            // No wildcards: only the exact name matches, and it sorts before its extensions.
+            int end = from;
+            while (end < to && mTable.nameEquals(mOrder[end], bytes)) {
+                ++end;
+            }
+            return Arrays.copyOfRange(mOrder, from, end);
+        }
+        return filter(from, to, globToRegex(glob), false);
+    }
+
+    /** Returns the indices of the entries whose whole names match {@code regex}. */
+    public int[] regex(Pattern regex) {
+        return filter(0, mOrder.length, regex, false);
+    }
+
+    /** Like {@link #prefix}, over demangled names; names that aren't mangled match as is. */
+    public int[] demangledPrefix(String prefix) {
+        final Demangled demangled = getDemangled();
+        final int from = lowerBound(demangled.names, prefix, false);
+        return Arrays.copyOfRange(demangled.order, from,
+                lowerBound(demangled.names, prefix, true));
+    }
+
+    /** Like {@link #glob}, over demangled names. */
+    public int[] demangledGlob(String glob) {
+        final Demangled demangled = getDemangled();
+        final String literal = literalPrefix(glob);
+        final int from = lowerBound(demangled.names, literal, false);
+        final int to = lowerBound(demangled.names, literal, true);
+        if (literal.length() == glob.length()) {
+            int end = from;
+            while (end < to && demangled.names[end].equals(literal)) {
+                ++end;
+            }
+            return Arrays.copyOfRange(demangled.order, from, end);
+        }
+        return filter(from, to, globToRegex(glob), true);
+    }
+
+    /** Like {@link #regex}, over demangled names. */
+    public int[] demangledRegex(Pattern regex) {
+        return filter(0, getDemangled().order.length, regex, true);
+    }
+
+    /** Returns the demangled name of entry {@code index}, or its name if it isn't mangled. */
+    public String getDemangledName(int index) {
+        final String name = mTable.getName(index);
+        if (name == null || mDemangler == null) {
+            return name;
+        }
+        return mDemangler.demangleOrSelf(name);
+    }
+
+    /**
+     * Sorts symbol indices with {@code comparator}: a stable merge sort, so entries that
+     * compare equal keep their table order.
+     */
+    static void sort(int[] indices, IntBinaryOperator comparator) {
+        sort(indices, new int[indices.length], 0, indices.length, comparator);
+    }
+
+    private static void sort(int[] a, int[] tmp, int from, int to, IntBinaryOperator comparator) {
+        if (to - from < 2) {
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        sort(a, tmp, from, mid, comparator);
+        sort(a, tmp, mid, to, comparator);
+        if (comparator.applyAsInt(a[mid - 1], a[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(a, from, tmp, from, to - from);
+        for (int i = from, j = mid, k = from; k < to; ++k) {
+            if (j >= to || (i < mid && comparator.applyAsInt(tmp[i], tmp[j]) <= 0)) {
+                a[k] = tmp[i++];
+            } else {
+                a[k] = tmp[j++];
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the first name not below {@code prefix}, or with {@code past},
+     * the first one past every name that starts with it.
+     */
+    private int lowerBound(byte[] prefix, boolean past) {
+        int low = 0;
+        int high = mOrder.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final int c = mTable.comparePrefix(mOrder[mid], prefix);
+            if (c < 0 || (past && c == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(String[] names, String prefix, boolean past) {
+        int low = 0;
+        int high = names.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final String name = names[mid];
+            final int c = name.startsWith(prefix) ? 0 : name.compareTo(prefix);
+            if (c < 0 || (past && c == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int[] filter(int from, int to, Pattern regex, boolean demangled) {
+        final Demangled d = demangled ? getDemangled() : null;
+        int[] result = new int[to - from];
+        int count = 0;
+        for (int i = from; i < to; ++i) {
+            final String name = d != null ? d.names[i] : mTable.getName(mOrder[i]);
+            if (name != null && regex.matcher(name).matches()) {
+                result[count++] = d != null ? d.order[i] : mOrder[i];
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private Demangled getDemangled() {
+        if (mDemangler == null) {
+            throw new IllegalStateException("Index was built without a demangler");
+        }
+        // Benign race: concurrent first queries may both build it, with the same result.
+        Demangled demangled = mDemangled;
+        if (demangled == null) {
+            final String[] byIndex = new String[mTable.size()];
+            for (int index : mOrder) {
+                final String name = mTable.getName(index);
+                byIndex[index] = name != null ? mDemangler.demangleOrSelf(name) : "";
+            }
+            final int[] order = mOrder.clone();
+            sort(order, (a, b) -> byIndex[a].compareTo(byIndex[b]));
+            final String[] names = new String[order.length];
+            for (int i = 0; i < order.length; ++i) {
+                names[i] = byIndex[order[i]];
+            }
+            demangled = new Demangled(order, names);
+            mDemangled = demangled;
+        }
+        return demangled;
+    }
+
+    /** The part of {@code glob} before its first wildcard. */
+    private static String literalPrefix(String glob) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < glob.length(); ++i) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?' || c == '[') {
+                break;
+            }
+            if (c == '\\') {
+                if (++i == glob.length()) {
+                    break;
+                }
+                c = glob.charAt(i);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static Pattern globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < glob.length(); ++i) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                sb.append(".*");
+            } else if (c == '?') {
+                sb.append('.');
+            } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+                final int end = glob.indexOf(']', i + 2);
+                String body = glob.substring(i + 1, end);
+                if (body.startsWith("!")) {
+                    body = "^" + body.substring(1);
+                }
+                sb.append('[').append(body.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                i = end;
+            } else {
+                if (c == '\\' && i + 1 < glob.length()) {
+                    c = glob.charAt(++i);
+                }
+                sb.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(sb.toString(), Pattern.DOTALL);
+    }
+}
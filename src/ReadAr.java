@@ -0,0 +1,450 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads {@code !<arch>} static libraries. Member headers are walked once when the archive is
+ * opened; member contents are only touched when a member is opened, and each one is handed
+ * out as a {@link ReadElf} over its byte range of the mapped archive rather than a copy.
+ *
+ * Both the GNU ("/" symbol index, "/SYM64/", "//" long name table) and the BSD ("#1/len")
+ * dialects are understood. Thin archives are not supported.
+ */
+public class ReadAr implements AutoCloseable {
+    private static final byte[] ARMAG = "!<arch>\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ARMAG_THIN = "!<thin>\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int SARMAG = 8;
+
+    /** Size of struct ar_hdr. */
+    private static final int AR_HDR_SIZE = 60;
+
+    // Field offsets within struct ar_hdr.
+    private static final int AR_NAME = 0;
+    private static final int AR_NAME_SIZE = 16;
+    private static final int AR_SIZE = 48;
+    private static final int AR_SIZE_SIZE = 10;
+    private static final int AR_FMAG = 58;
+
+    /** Bytes of the long name table read at a time; most names fit in one chunk. */
+    private static final int LONG_NAME_CHUNK = 64;
+
+    public static class Member {
+        public final String name;
+        /** Offset of this member's ar_hdr; the symbol index refers to members by it. */
+        public final long headerOffset;
+        /** Offset of the member's contents within the archive. */
+        public final long offset;
+        public final long size;
+
+        Member(String name, long headerOffset, long offset, long size) {
+            this.name = name;
+            this.headerOffset = headerOffset;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public String toString() {
+            return "Member[" + name + "," + offset + "," + size + "]";
+        }
+    }
+
+    /** Work done on one member by {@link #parseMembers(int, MemberParser)}. */
+    public interface MemberParser<T> {
+        T parse(Member member, ReadElf elf) throws IOException;
+    }
+
+    private final String mPath;
+
+    /** Read-only mapping of the whole archive, or null when it is too large to map at once. */
+    private final ByteBuffer mMap;
+
+    /** Used to read headers and map single members when {@link #mMap} is null. */
+    private final RandomAccessFile mFile;
+
+    private final long mLength;
+
+    private final List<Member> mMembers = new ArrayList<>();
+
+    /** Symbol index ("/" or "/SYM64/") offset */
+    private long mSymIndexOffset = -1;
+
+    /** Symbol index size */
+    private long mSymIndexSize;
+
+    /** Width of the symbol index count and offsets: 4 for "/", 8 for "/SYM64/". */
+    private int mSymIndexWordSize;
+
+    /** GNU long name table ("//") offset */
+    private long mLongNamesOffset = -1;
+
+    /** GNU long name table size */
+    private long mLongNamesSize;
+
+    /** Symbol name to defining member, built from the symbol index on first use. */
+    private Map<String, Member> mSymbolIndex;
+
+    public static ReadAr read(File file) throws IOException {
+        return new ReadAr(file);
+    }
+
+    public static void main(String[] args) throws IOException {
+        for (String arg : args) {
+            try (ReadAr ar = new ReadAr(new File(arg))) {
+                for (Member member : ar.getMembers()) {
+                    System.out.println(arg + "(" + member.name + ") " + member.size);
+                }
+            }
+        }
+    }
+
+    /** Returns true if {@code ident} starts with the ar magic. */
+    static boolean isArchive(byte[] ident) {
+        return startsWith(ident, ARMAG) || startsWith(ident, ARMAG_THIN);
+    }
+
+    public ReadAr(File file) throws IOException {
+        mPath = file.getPath();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer map = null;
+        try {
+            mLength = raf.length();
+            if (mLength <= Integer.MAX_VALUE) {
+                map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mLength);
+            }
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+        mMap = map;
+        if (mMap != null) {
+            raf.close();
+            mFile = null;
+        } else {
+            mFile = raf;
+        }
+
+        try {
+            readMemberHeaders();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (mFile == null) {
+            return;
+        }
+        try {
+            mFile.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void readMemberHeaders() throws IOException {
+        if (mLength < SARMAG) {
+            throw new IllegalArgumentException("Too small to be an ar archive: " + mPath);
+        }
+        byte[] magic = readBytes(0, SARMAG);
+        if (startsWith(magic, ARMAG_THIN)) {
+            throw new IOException("Thin archives are not supported: " + mPath);
+        }
+        if (!startsWith(magic, ARMAG)) {
+            throw new IllegalArgumentException("Invalid ar archive: " + mPath);
+        }
+
+        long offset = SARMAG;
+        while (offset + AR_HDR_SIZE <= mLength) {
+            byte[] header = readBytes(offset, AR_HDR_SIZE);
+            if (header[AR_FMAG] != '`' || header[AR_FMAG + 1] != '\n') {
+                throw new IOException("Bad ar member header at " + offset + ": " + mPath);
+            }
+            String rawName = ascii(header, AR_NAME, AR_NAME_SIZE).trim();
+            long size = parseDecimal(header, AR_SIZE, AR_SIZE_SIZE, offset);
+            long dataOffset = offset + AR_HDR_SIZE;
+            if (size < 0) {
+                throw new IOException("Bad ar member size " + size + " at " + offset + ": "
+                        + mPath);
+            }
+            if (size > mLength - dataOffset) {
+                throw new IOException("ar member at " + offset + " runs past the end: " + mPath);
+            }
+
+            if (rawName.equals("/")) {
+                mSymIndexOffset = dataOffset;
+                mSymIndexSize = size;
+                mSymIndexWordSize = 4;
+            } else if (rawName.equals("/SYM64/")) {
+                mSymIndexOffset = dataOffset;
+                mSymIndexSize = size;
+                mSymIndexWordSize = 8;
+            } else if (rawName.equals("//")) {
+                mLongNamesOffset = dataOffset;
+                mLongNamesSize = size;
+            } else if (rawName.startsWith("#1/")) {
+                // BSD: the name is stored in front of the contents and counted in the size.
+                long nameLength = parseDecimal(rawName, 3, offset);
+                if (nameLength < 0 || nameLength > size) {
+                    throw new IOException("Bad BSD name length " + nameLength + " at " + offset
+                            + ": " + mPath);
+                }
+                String name = ascii(readBytes(dataOffset, (int) nameLength), 0,
+                        (int) nameLength);
+                int nul = name.indexOf('\0');
+                if (nul >= 0) {
+                    name = name.substring(0, nul);
+                }
+                mMembers.add(new Member(name, offset, dataOffset + nameLength,
+                        size - nameLength));
+            } else if (rawName.startsWith("/") && rawName.length() > 1) {
+                String name = readLongName(parseDecimal(rawName, 1, offset));
+                mMembers.add(new Member(name, offset, dataOffset, size));
+            } else {
+                // GNU terminates short names with '/'; BSD pads them with spaces.
+                String name = rawName.endsWith("/")
+                        ? rawName.substring(0, rawName.length() - 1) : rawName;
+                mMembers.add(new Member(name, offset, dataOffset, size));
+            }
+
+            // Members are 2-byte aligned.
+            offset = dataOffset + size;
+            offset += offset & 1;
+        }
+    }
+
+    private String readLongName(long nameOffset) throws IOException {
+        if (mLongNamesOffset < 0 || nameOffset < 0 || nameOffset >= mLongNamesSize) {
+            throw new IOException("Bad long name offset " + nameOffset + ": " + mPath);
+        }
+        // Read a chunk at a time up to the terminator: copying the rest of the table for every
+        // member would make reading an archive quadratic in its member count.
+        final ByteArrayOutputStream name = new ByteArrayOutputStream(LONG_NAME_CHUNK);
+        for (long position = nameOffset; position < mLongNamesSize; ) {
+            final int count = (int) Math.min(LONG_NAME_CHUNK, mLongNamesSize - position);
+            final byte[] chunk = readBytes(mLongNamesOffset + position, count);
+            int end = 0;
+            while (end < count && chunk[end] != '\n' && chunk[end] != 0) {
+                end++;
+            }
+            name.write(chunk, 0, end);
+            if (end < count) {
+                break;
+            }
+            position += count;
+        }
+        final byte[] bytes = name.toByteArray();
+        int end = bytes.length;
+        if (end > 0 && bytes[end - 1] == '/') {
+            end--;
+        }
+        return ascii(bytes, 0, end);
+    }
+
+    public List<Member> getMembers() {
+        return Collections.unmodifiableList(mMembers);
+    }
+
+    /**
+     * Returns a {@link ReadElf} over {@code member}'s bytes. The view shares the archive's
+     * mapping, so it can be used after the archive has been closed.
+     */
+    public ReadElf openMember(Member member) throws IOException {
+        return new ReadElf(mPath + "(" + member.name + ")", memberBuffer(member));
+    }
+
+    /** Returns {@code member}'s bytes: a slice of the mapping when there is one. */
+    ByteBuffer memberBuffer(Member member) throws IOException {
+        if (mMap == null) {
+            return mFile.getChannel().map(FileChannel.MapMode.READ_ONLY, member.offset,
+                    member.size);
+        }
+        // duplicate() doesn't touch the shared buffer's position, so this is thread safe.
+        ByteBuffer buffer = mMap.duplicate();
+        buffer.limit((int) (member.offset + member.size));
+        buffer.position((int) member.offset);
+        return buffer.slice();
+    }
+
+    /**
+     * Opens every member on a pool of {@code parallelism} threads and returns the parser's
+     * results in member order. Members that are not ELF objects yield null.
+     */
+    public <T> List<T> parseMembers(int parallelism, final MemberParser<T> parser)
+            throws IOException {
+        List<Callable<T>> tasks = new ArrayList<>(mMembers.size());
+        for (final Member member : mMembers) {
+            tasks.add(() -> {
+                ReadElf elf;
+                try {
+                    elf = openMember(member);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+                try {
+                    return parser.parse(member, elf);
+                } finally {
+                    elf.close();
+                }
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Future<T> f : pool.invokeAll(tasks)) {
+                results.add(f.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing " + mPath, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to parse " + mPath, cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the member that defines {@code symbol} according to the archive's symbol index,
+     * or null. No member is opened. If several members define the name, the first one wins,
+     * as it would for the linker.
+     */
+    public Member getDefiningMember(String symbol) {
+        return getSymbolIndex().get(symbol);
+    }
+
+    /** Returns the archive symbol index: every indexed name and the member defining it. */
+    public synchronized Map<String, Member> getSymbolIndex() {
+        if (mSymbolIndex == null) {
+            try {
+                mSymbolIndex = readSymbolIndex();
+            } catch (IOException e) {
+                return Collections.emptyMap();
+            }
+        }
+        return Collections.unmodifiableMap(mSymbolIndex);
+    }
+
+    private Map<String, Member> readSymbolIndex() throws IOException {
+        Map<String, Member> result = new HashMap<>();
+        if (mSymIndexOffset < 0 || mSymIndexSize < mSymIndexWordSize) {
+            return result;
+        }
+        // The index is always big-endian, whatever the members' byte order.
+        byte[] index = readBytes(mSymIndexOffset, (int) mSymIndexSize);
+        final int w = mSymIndexWordSize;
+        long count = readBigEndian(index, 0, w);
+        int stringOffset = (int) Math.min(index.length, w + count * w);
+        for (int i = 0; i < count && stringOffset < index.length; ++i) {
+            long headerOffset = readBigEndian(index, w + i * w, w);
+            int end = stringOffset;
+            while (end < index.length && index[end] != 0) {
+                end++;
+            }
+            String name = ascii(index, stringOffset, end - stringOffset);
+            stringOffset = end + 1;
+
+            Member member = findMemberByHeaderOffset(headerOffset);
+            if (member != null && !result.containsKey(name)) {
+                result.put(name, member);
+            }
+        }
+        return result;
+    }
+
+    private Member findMemberByHeaderOffset(long headerOffset) {
+        // Members are recorded in file order.
+        int lo = 0;
+        int hi = mMembers.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midOffset = mMembers.get(mid).headerOffset;
+            if (midOffset < headerOffset) {
+                lo = mid + 1;
+            } else if (midOffset > headerOffset) {
+                hi = mid - 1;
+            } else {
+                return mMembers.get(mid);
+            }
+        }
+        return null;
+    }
+
+    private byte[] readBytes(long offset, int byteCount) throws IOException {
+        byte[] result = new byte[byteCount];
+        if (mMap != null) {
+            for (int i = 0; i < byteCount; ++i) {
+                result[i] = mMap.get((int) offset + i);
+            }
+            return result;
+        }
+        // Positional reads, so that concurrent callers don't fight over a file pointer.
+        ByteBuffer buffer = ByteBuffer.wrap(result);
+        while (buffer.hasRemaining()) {
+            if (mFile.getChannel().read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + mPath);
+            }
+        }
+        return result;
+    }
+
+    private static long readBigEndian(byte[] bytes, int offset, int byteCount) {
+        long answer = 0;
+        for (int i = 0; i < byteCount; ++i) {
+            answer = (answer << 8) | (bytes[offset + i] & 0xff);
+        }
+        return answer;
+    }
+
+    private long parseDecimal(byte[] bytes, int offset, int length, long headerOffset)
+            throws IOException {
+        return parseDecimal(ascii(bytes, offset, length).trim(), 0, headerOffset);
+    }
+
+    private long parseDecimal(String s, int start, long headerOffset) throws IOException {
+        try {
+            return Long.parseLong(s.substring(start).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad number '" + s + "' in ar member header at "
+                    + headerOffset + ": " + mPath);
+        }
+    }
+
+    private static String ascii(byte[] bytes, int offset, int length) {
+        return new String(bytes, offset, length, StandardCharsets.US_ASCII);
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -14,15 +14,29 @@
  * limitations under the License.
  */
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A poor man's implementation of the readelf command. This program is designed
  * to parse ELF (Executable and Linkable Format) files.
+ *
+ * Once constructed, an instance may be shared by any number of threads: every read is
+ * positional (a mapped buffer, or positional FileChannel reads) and the lazily decoded symbol
+ * tables are published once.
  */
 public class ReadElf implements AutoCloseable {
     /** The magic values for the ELF identification. */
@@ -54,8 +68,25 @@ public class ReadElf implements AutoCloseable {
 
     private static final int SHT_SYMTAB = 2;
     private static final int SHT_STRTAB = 3;
+    private static final int SHT_HASH = 5;
     private static final int SHT_DYNAMIC = 6;
     private static final int SHT_DYNSYM = 11;
+    private static final int SHT_GNU_HASH = 0x6ffffff6;
+    private static final int SHT_GNU_VERDEF = 0x6ffffffd;
+    private static final int SHT_GNU_VERNEED = 0x6ffffffe;
+    private static final int SHT_GNU_VERSYM = 0x6fffffff;
+
+    /** Version indices are 15 bits wide; the top bit of a .gnu.version entry means hidden. */
+    private static final int MAX_VERSION_INDEX = 0x7fff;
+    private static final int VERSYM_HIDDEN = 0x8000;
+    /** The first version index that has a name; 0 and 1 are local and global. */
+    private static final int VER_NDX_FIRST = 2;
+
+    private static final int DT_NULL = 0;
+    private static final int DT_NEEDED = 1;
+    private static final int DT_SONAME = 14;
+    private static final int DT_RPATH = 15;
+    private static final int DT_RUNPATH = 29;
 
     public static class Symbol {
         public static final int STB_LOCAL = 0;
@@ -72,14 +103,31 @@ public class ReadElf implements AutoCloseable {
         public static final int STT_COMMON = 5;
         public static final int STT_TLS = 6;
 
+        public static final int SHN_UNDEF = 0;
+
         public final String name;
         public final int bind;
         public final int type;
-
-        Symbol(String name, int st_info) {
+        /** st_other: the symbol's visibility. */
+        public final int other;
+        /** Index of the section the symbol is defined in, or SHN_UNDEF for imports. */
+        public final int shndx;
+        public final long value;
+        public final long size;
+
+        Symbol(String name, int st_info, int st_other, int st_shndx, long st_value,
+               long st_size) {
             this.name = name;
             this.bind = (st_info >> 4) & 0x0F;
             this.type = st_info & 0x0F;
+            this.other = st_other;
+            this.shndx = st_shndx;
+            this.value = st_value;
+            this.size = st_size;
+        }
+
+        public boolean isDefined() {
+            return shndx != SHN_UNDEF;
         }
 
         @Override
@@ -87,7 +135,7 @@ public class ReadElf implements AutoCloseable {
             return "Symbol[" + name + "," + toBind() + "," + toType() + "]";
         }
 
-        private String toBind() {
+        String toBind() {
             switch (bind) {
                 case STB_LOCAL:
                     return "LOCAL";
@@ -99,7 +147,7 @@ public class ReadElf implements AutoCloseable {
             return "STB_??? (" + bind + ")";
         }
 
-        private String toType() {
+        String toType() {
             switch (type) {
                 case STT_NOTYPE:
                     return "NOTYPE";
@@ -120,15 +168,45 @@ public class ReadElf implements AutoCloseable {
         }
     }
 
+    /** The string-valued entries of .dynamic. */
+    private static final class DynamicEntries {
+        final List<String> needed;
+        final String soname;
+        final String rpath;
+        final String runpath;
+
+        DynamicEntries(List<String> needed, String soname, String rpath, String runpath) {
+            this.needed = needed;
+            this.soname = soname;
+            this.rpath = rpath;
+            this.runpath = runpath;
+        }
+    }
+
+    /** Listener picked up by instances created from now on; null when diagnostics are off. */
+    private static volatile ElfListener sListener;
+
     private final String mPath;
-    private final RandomAccessFile mFile;
-    private final byte[] mBuffer = new byte[512];
+
+    /** {@link #sListener} as of construction, so hot paths test a final field. */
+    private final ElfListener mListener = sListener;
+
+    /** Read-only mapping of the whole file, or null when the file could not be mapped. */
+    private final ByteBuffer mMap;
+
+    /** Positional-read fallback used only when {@link #mMap} is null. */
+    private final FileChannel mChannel;
+
+    private final long mLength;
     private int mEndian;
     private boolean mIsDynamic;
     private boolean mIsPIE;
     private int mType;
     private int mAddrSize;
 
+    /** Field layout for this file's class and byte order, chosen once from e_ident. */
+    private ElfLayout mLayout;
+
     /** Symbol Table offset */
     private long mSymTabOffset;
 
@@ -159,16 +237,81 @@ public class ReadElf implements AutoCloseable {
     /** Dynamic String Table size */
     private long mDynStrSize;
 
-    /** Symbol Table symbol names */
-    private Map<String, Symbol> mSymbols;
+    /** SysV Symbol Hash Table (.hash) offset */
+    private long mHashOffset;
+
+    /** SysV Symbol Hash Table (.hash) size */
+    private long mHashSize;
+
+    /** GNU Symbol Hash Table (.gnu.hash) offset */
+    private long mGnuHashOffset;
+
+    /** GNU Symbol Hash Table (.gnu.hash) size */
+    private long mGnuHashSize;
+
+    /** Dynamic Section (.dynamic) offset */
+    private long mDynamicOffset;
+
+    /** Dynamic Section (.dynamic) size */
+    private long mDynamicSize;
+
+    /** GNU Symbol Version Table (.gnu.version) offset */
+    private long mVerSymOffset;
 
-    /** Dynamic Symbol Table symbol names */
-    private Map<String, Symbol> mDynamicSymbols;
+    /** GNU Symbol Version Table (.gnu.version) size */
+    private long mVerSymSize;
 
+    /** GNU Version Definitions (.gnu.version_d) offset */
+    private long mVerDefOffset;
+
+    /** GNU Version Definitions (.gnu.version_d) size */
+    private long mVerDefSize;
+
+    /** GNU Version Requirements (.gnu.version_r) offset */
+    private long mVerNeedOffset;
+
+    /** GNU Version Requirements (.gnu.version_r) size */
+    private long mVerNeedSize;
+
+    /** The string entries of .dynamic, decoded on first use */
+    private volatile DynamicEntries mDynamicEntries;
+
+    /** Relocation sections, decoded on first use */
+    private volatile List<RelocationTable> mRelocationTables;
+
+    /** Symbol Table symbols, decoded on first use */
+    private volatile SymbolTable mSymbols;
+
+    /** Dynamic Symbol Table symbols, decoded on first use */
+    private volatile SymbolTable mDynamicSymbols;
+
+    /** Versions of the Dynamic Symbol Table symbols, decoded on first use */
+    private volatile SymbolVersions mSymbolVersions;
+
+    /**
+     * Opens {@code file}, serving the parsed header and symbol tables from the
+     * {@link SymbolCache} when one is configured and holds a valid entry for the file.
+     */
     public static ReadElf read(File file) throws IOException {
+        SymbolCache cache = SymbolCache.getDefault();
+        if (cache != null) {
+            return cache.open(file);
+        }
         return new ReadElf(file);
     }
 
+    /**
+     * Installs {@code listener} (e.g. an {@link ElfMetrics}) for every ReadElf created after
+     * this call, or turns diagnostics off again when it is null.
+     */
+    public static void setListener(ElfListener listener) {
+        sListener = listener;
+    }
+
+    public static ElfListener getListener() {
+        return sListener;
+    }
+
     public static void main(String[] args) throws IOException {
         for (String arg : args) {
             ReadElf re = new ReadElf(new File(arg));
@@ -191,20 +334,83 @@ public class ReadElf implements AutoCloseable {
     }
 
     public ReadElf(File file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Opens {@code file}. When {@code cached} is non-null, the header facts and symbol tables
+     * are restored from it (see {@link #writeCacheEntry}) instead of being parsed.
+     */
+    ReadElf(File file, DataInputStream cached) throws IOException {
         mPath = file.getPath();
-        mFile = new RandomAccessFile(file, "r");
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            mLength = raf.length();
+            if (mLength < EI_NIDENT) {
+                throw new IllegalArgumentException("Too small to be an ELF file: " + file);
+            }
+            mMap = map(raf, mLength);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+        if (mMap != null) {
+            // The mapping stays valid after the channel is closed, so don't hold on to the fd.
+            raf.close();
+            mChannel = null;
+        } else {
+            mChannel = raf.getChannel();
+        }
 
-        if (mFile.length() < EI_NIDENT) {
-            throw new IllegalArgumentException("Too small to be an ELF file: " + file);
+        try {
+            if (cached != null) {
+                readCacheEntry(cached);
+            } else {
+                readHeader();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
         }
+    }
 
+    /**
+     * Parses an ELF image that is already mapped, such as a member of an ar archive. The
+     * buffer's contents are used in place rather than copied.
+     */
+    ReadElf(String path, ByteBuffer buffer) throws IOException {
+        mPath = path;
+        mMap = buffer.slice();
+        mChannel = null;
+        mLength = mMap.limit();
+        if (mLength < EI_NIDENT) {
+            throw new IllegalArgumentException("Too small to be an ELF file: " + path);
+        }
         readHeader();
     }
 
+    /**
+     * Maps the whole file read-only. Returns null for inputs that can't be mapped (special
+     * files, or files too large for a single mapping) so that callers fall back to stream reads.
+     */
+    private static ByteBuffer map(RandomAccessFile file, long length) {
+        if (length > Integer.MAX_VALUE) {
+            return null;
+        }
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
     @Override
     public void close() {
+        if (mChannel == null) {
+            return;
+        }
         try {
-            mFile.close();
+            mChannel.close();
         } catch (IOException ignored) {
         }
     }
@@ -219,9 +425,10 @@ public class ReadElf implements AutoCloseable {
     }
 
     private void readHeader() throws IOException {
-        mFile.seek(0);
+        long start = phaseStart();
         // 0~EI_NIDENT 为有效数据，其余数据皆为0；
-        mFile.readFully(mBuffer, 0, EI_NIDENT);
+        final byte[] ident = new byte[EI_NIDENT];
+        readBytes(0, ident, EI_NIDENT);
         /*关于标识符e_ident 16个字节的值含义：
         名称 位置 说明
         EI_MAG0 0 文件标识(0x7f)
@@ -232,31 +439,28 @@ public class ReadElf implements AutoCloseable {
         EI_DATA 5 数据编码，取值：0-非法，1-小端，2-大端
         EI_VERSION 6 ELF头部版本
         EI_PAD 7~15 补齐字节，一般为0*/
-        System.err.println("ReadElf" + " Buffer EI_NIDENT = " + bytes2hex(mBuffer));
-        if (mBuffer[0] != ELFMAG[0] || mBuffer[1] != ELFMAG[1] ||
-                mBuffer[2] != ELFMAG[2] || mBuffer[3] != ELFMAG[3]) {
+        if (ident[0] != ELFMAG[0] || ident[1] != ELFMAG[1] ||
+                ident[2] != ELFMAG[2] || ident[3] != ELFMAG[3]) {
+            if (ReadAr.isArchive(ident)) {
+                throw new IllegalArgumentException("ar archive, use ReadAr: " + mPath);
+            }
             throw new IllegalArgumentException("Invalid ELF file: " + mPath);
         }
 
-        int elfClass = mBuffer[EI_CLASS]; // EI_CLASS == 4
-        System.err.println("ReadElf" + " EI_CLASS = " + bytes2hex(new byte[]{(byte) elfClass}));
-        if (elfClass == ELFCLASS32) {
-            mAddrSize = 4;
-        } else if (elfClass == ELFCLASS64) {
-            mAddrSize = 8;
-        } else {
+        int elfClass = ident[EI_CLASS]; // EI_CLASS == 4
+        if (elfClass != ELFCLASS32 && elfClass != ELFCLASS64) {
             throw new IOException("Invalid ELF EI_CLASS: " + elfClass + ": " + mPath);
         }
 
-        mEndian = mBuffer[EI_DATA]; // EI_CLASS == 5
-        System.err.println("ReadElf" + " EI_DATA = " + bytes2hex(new byte[]{(byte) mEndian}));
-        if (mEndian == ELFDATA2LSB) {
-            System.err.println("ReadElf" + " EI_DATA = " + bytes2hex(new byte[]{(byte) mEndian}));
-        } else if (mEndian == ELFDATA2MSB) {
-            throw new IOException("Unsupported ELFDATA2MSB file: " + mPath);
-        } else {
+        mEndian = ident[EI_DATA]; // EI_CLASS == 5
+        mLayout = ElfLayout.get(elfClass, mEndian);
+        if (mLayout == null) {
             throw new IOException("Invalid ELF EI_DATA: " + mEndian + ": " + mPath);
         }
+        mAddrSize = mLayout.addrSize();
+        if (mMap != null) {
+            mMap.order(mLayout.order);
+        }
 
         /*关于文件类型e_type取值：
         0 NONE (未知目标文件格式)
@@ -266,8 +470,9 @@ public class ReadElf implements AutoCloseable {
         4 CORE (转储格式)*/
         // Elf64_Half 2    2         Unsigned medium integer
         // Elf64_Half e_type; /* Object file type */
-        mType = readHalf();
-        System.err.println("ReadElf" + " mType = " + mType);
+        long offset = EI_NIDENT;
+        mType = readHalf(offset);
+        offset += 2;
         /*关于体系架构e_machine取值：
         0 No machine
         2 SPARC
@@ -280,8 +485,8 @@ public class ReadElf implements AutoCloseable {
         // Elf64_Half 2    2         Unsigned medium integer
         // Elf64_Half e_machine; /* Machine type */
         // e_machine 标识目标架构
-        int e_machine = readHalf();
-        System.err.println("ReadElf" + " e_machine = " + e_machine);
+        int e_machine = readHalf(offset);
+        offset += 2;
         if (e_machine != EM_386 && e_machine != EM_X86_64 &&
                 e_machine != EM_AARCH64 && e_machine != EM_ARM &&
                 e_machine != EM_RISCV && e_machine != EM_QDSP6) {
@@ -303,7 +508,8 @@ public class ReadElf implements AutoCloseable {
         // Elf64_Word 4    4           Unsigned integer
         // Elf64_Word e_version; /* Object file version */
         // e_version 文件格式的版本
-        long e_version = readWord();
+        long e_version = readWord(offset);
+        offset += 4;
         if (e_version != EV_CURRENT) {
             throw new IOException("Invalid e_version: " + e_version + ": " + mPath);
         }
@@ -311,189 +517,351 @@ public class ReadElf implements AutoCloseable {
         // Elf64_Addr 8 8 Unsigned program address
         // Elf64_Addr e_entry; /* Entry point address */
         // e_entry 程序入口的虚拟地址
-        long e_entry = readAddr();
-        System.err.println("ReadElf" + " e_entry = " + e_entry);
+        long e_entry = readAddr(offset);
+        offset += mAddrSize;
         // Elf64_Off 8 8 Unsigned file offset
         // Elf64_Off e_phoff; /* Program header offset */
         // e_phoff 程序段头表在该文件内的偏移，单位是字节
-        long ph_off = readOff();
-        System.err.println("ReadElf" + " ph_off = " + ph_off);
+        long ph_off = readOff(offset);
+        offset += mAddrSize;
         // Elf64_Off 8 8 Unsigned file offset
         // Elf64_Off e_shoff; /* Section header offset */
         // e_shoff 节头表在该文件内的偏移，单位是字节
-        long sh_off = readOff();
+        long sh_off = readOff(offset);
+        offset += mAddrSize;
 
         // Elf64_Word 4 4 Unsigned integer
         // Elf64_Word e_flags; /* Processor-specific flags *
         // e_flags 包含处理器特定的标记
-        long e_flags = readWord();
+        long e_flags = readWord(offset);
+        offset += 4;
 
         // Elf64_Half 2 2 Unsigned medium integer
         // Elf64_Half e_ehsize; /* ELF header size */
         // e_ehsize ELF头的大小，单位是字节
-        int e_ehsize = readHalf();
+        int e_ehsize = readHalf(offset);
+        offset += 2;
 
         // Elf64_Half 2 2 Unsigned medium integer
         // Elf64_Half e_phentsize; /* Size of program header entry */
         // e_phentsize 程序段头表项的大小，单位是字节
-        int e_phentsize = readHalf();
+        int e_phentsize = readHalf(offset);
+        offset += 2;
 
         // Elf64_Half 2 2 Unsigned medium integer
         // Elf64_Half e_phnum; /* Number of program header entries */
         // e_phnum 程序段头表项的数量
-        int e_phnum = readHalf();
+        int e_phnum = readHalf(offset);
+        offset += 2;
 
         // Elf64_Half 2 2 Unsigned medium integer
         // Elf64_Half e_shentsize; /* Size of section header entry */
         // e_shentsize 节头表项的大小，单位是字节
-        int e_shentsize = readHalf();
+        int e_shentsize = readHalf(offset);
+        offset += 2;
 
 
         // Elf64_Half 2 2 Unsigned medium integer
         // Elf64_Half e_shnum; /* Number of section header entries */
         // e_shnum 节头表项的数量
-        int e_shnum = readHalf();
+        int e_shnum = readHalf(offset);
+        offset += 2;
 
 
         // Elf64_Half 2 2 Unsigned medium integer
         // Elf64_Half e_shstrndx; /* Section name string table index */
         // e_shstrndx 节头表中包含节名字的字符串表索引。
-        int e_shstrndx = readHalf();
-        System.err.println("ReadElf" + " e_shstrndx = " + e_shstrndx);
+        int e_shstrndx = readHalf(offset);
+        phaseEnd(ElfListener.Phase.HEADER, start);
+
+        start = phaseStart();
         readSectionHeaders(sh_off, e_shnum, e_shentsize, e_shstrndx);
+        phaseEnd(ElfListener.Phase.SECTION_HEADERS, start);
+
+        start = phaseStart();
         readProgramHeaders(ph_off, e_phnum, e_phentsize);
+        phaseEnd(ElfListener.Phase.PROGRAM_HEADERS, start);
+    }
+
+    private long phaseStart() {
+        return mListener != null ? System.nanoTime() : 0;
+    }
+
+    private void phaseEnd(ElfListener.Phase phase, long start) {
+        if (mListener != null) {
+            mListener.onPhase(mPath, phase, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Writes everything {@link #readHeader} and {@link #readSymbolTable} work out, so that
+     * {@link #readCacheEntry} can restore it without touching the file. Both symbol tables are
+     * materialized if they haven't been already.
+     */
+    void writeCacheEntry(DataOutputStream out) throws IOException {
+        SymbolTable symbols = loadSymbolTable();
+        SymbolTable dynamicSymbols = loadDynamicSymbolTable();
+
+        out.writeInt(mType);
+        out.writeBoolean(mIsDynamic);
+        out.writeBoolean(mIsPIE);
+        out.writeByte(mAddrSize);
+        out.writeByte(mEndian);
+
+        out.writeLong(mSymTabOffset);
+        out.writeLong(mSymTabSize);
+        out.writeLong(mDynSymOffset);
+        out.writeLong(mDynSymSize);
+        out.writeLong(mShStrTabOffset);
+        out.writeLong(mShStrTabSize);
+        out.writeLong(mStrTabOffset);
+        out.writeLong(mStrTabSize);
+        out.writeLong(mDynStrOffset);
+        out.writeLong(mDynStrSize);
+        out.writeLong(mHashOffset);
+        out.writeLong(mHashSize);
+        out.writeLong(mGnuHashOffset);
+        out.writeLong(mGnuHashSize);
+        out.writeLong(mDynamicOffset);
+        out.writeLong(mDynamicSize);
+        out.writeLong(mVerSymOffset);
+        out.writeLong(mVerSymSize);
+        out.writeLong(mVerDefOffset);
+        out.writeLong(mVerDefSize);
+        out.writeLong(mVerNeedOffset);
+        out.writeLong(mVerNeedSize);
+
+        symbols.writeTo(out);
+        dynamicSymbols.writeTo(out);
+    }
+
+    private void readCacheEntry(DataInputStream in) throws IOException {
+        mType = in.readInt();
+        mIsDynamic = in.readBoolean();
+        mIsPIE = in.readBoolean();
+        mAddrSize = in.readByte();
+        mEndian = in.readByte();
+        mLayout = mAddrSize == 4 || mAddrSize == 8
+                ? ElfLayout.get(mAddrSize == 8 ? ELFCLASS64 : ELFCLASS32, mEndian) : null;
+        if (mLayout == null) {
+            throw new IOException("Bad cached address size " + mAddrSize + " or endianness "
+                    + mEndian + " for " + mPath);
+        }
+        if (mMap != null) {
+            mMap.order(mLayout.order);
+        }
+
+        mSymTabOffset = in.readLong();
+        mSymTabSize = in.readLong();
+        mDynSymOffset = in.readLong();
+        mDynSymSize = in.readLong();
+        mShStrTabOffset = in.readLong();
+        mShStrTabSize = in.readLong();
+        mStrTabOffset = in.readLong();
+        mStrTabSize = in.readLong();
+        mDynStrOffset = in.readLong();
+        mDynStrSize = in.readLong();
+        mHashOffset = in.readLong();
+        mHashSize = in.readLong();
+        mGnuHashOffset = in.readLong();
+        mGnuHashSize = in.readLong();
+        mDynamicOffset = in.readLong();
+        mDynamicSize = in.readLong();
+        mVerSymOffset = in.readLong();
+        mVerSymSize = in.readLong();
+        mVerDefOffset = in.readLong();
+        mVerDefSize = in.readLong();
+        mVerNeedOffset = in.readLong();
+        mVerNeedSize = in.readLong();
+
+        // A corrupt entry must fail here, as an IOException the cache recovers from, rather
+        // than later as a read outside the file.
+        checkCachedRange(mSymTabOffset, mSymTabSize);
+        checkCachedRange(mDynSymOffset, mDynSymSize);
+        checkCachedRange(mShStrTabOffset, mShStrTabSize);
+        checkCachedRange(mStrTabOffset, mStrTabSize);
+        checkCachedRange(mDynStrOffset, mDynStrSize);
+        checkCachedRange(mHashOffset, mHashSize);
+        checkCachedRange(mGnuHashOffset, mGnuHashSize);
+        checkCachedRange(mDynamicOffset, mDynamicSize);
+        checkCachedRange(mVerSymOffset, mVerSymSize);
+        checkCachedRange(mVerDefOffset, mVerDefSize);
+        checkCachedRange(mVerNeedOffset, mVerNeedSize);
+
+        // Only the primitive columns are cached; names are still read from the file's own
+        // string tables, which the size/mtime check guarantees are unchanged.
+        final int entrySize = symbolEntrySize();
+        mSymbols = SymbolTable.readFrom(in, readStringTable(mStrTabOffset, mStrTabSize),
+                mSymTabOffset == 0 ? 0 : (int) (mSymTabSize / entrySize));
+        mDynamicSymbols = SymbolTable.readFrom(in, readStringTable(mDynStrOffset, mDynStrSize),
+                mDynSymOffset == 0 ? 0 : (int) (mDynSymSize / entrySize));
+    }
+
+    private void checkCachedRange(long offset, long size) throws IOException {
+        if (offset < 0 || size < 0 || size > mLength - offset) {
+            throw new IOException("Bad cached section at " + offset + " of " + size
+                    + " bytes for " + mPath);
+        }
     }
 
     private void readSectionHeaders(long sh_off, int e_shnum, int e_shentsize, int e_shstrndx)
             throws IOException {
+        if (e_shnum == 0) {
+            return;
+        }
+        if (e_shentsize < mLayout.shdrSize()) {
+            throw new IOException("Invalid e_shentsize: " + e_shentsize + ": " + mPath);
+        }
+        final ElfLayout layout = mLayout;
+        final ByteBuffer table = readTable(sh_off, (long) e_shnum * e_shentsize);
+
         // Read the Section Header String Table offset first.
-        {
-            mFile.seek(sh_off + e_shstrndx * e_shentsize);
-            // Elf64_Word sh_name; /* Section name *
-            // sh_name 节头名字在字符串表中的偏移，单位是字节。
-            long sh_name = readWord();
-            System.err.println("ReadElf" + " all sh_name = " + readShStrTabEntry(sh_name));
-            // Elf64_Word sh_type; /* Section type */
-            // sh_type 节的类型
-            long sh_type = readWord();
-            // Elf64_Xword sh_flags; /* Section attributes */
-            // sh_flags 当前节的属性
-            long sh_flags = readX(mAddrSize);
-            // Elf64_Addr sh_addr; /* Virtual address in memory */
-            // sh_addr 该节在内存中的虚拟地址，如果不加载到内存中，地址是0
-            long sh_addr = readAddr();
-            // Elf64_Off sh_offset; /* Offset in file */
-            // sh_offset 该节在文件中的偏移，单位是字节
-            long sh_offset = readOff();
-            // Elf64_Xword sh_size; /* Size of section */
-            // sh_size 当前节在文件中占用的空间，唯一的例外是SHT_NOBITS，不占用文件空间
-            long sh_size = readX(mAddrSize);
-            // ...
-            // Elf64_Word sh_link; /* Link to other section */
-            // Elf64_Word sh_info; /* Miscellaneous information */
-            // Elf64_Xword sh_addralign; /* Address alignment boundary */
-            // Elf64_Xword sh_entsize; /* Size of entries, if section has table *
-            if (sh_type == SHT_STRTAB) {
-                mShStrTabOffset = sh_offset;
-                mShStrTabSize = sh_size;
-            }
-        }
-
-        for (int i = 0; i < e_shnum; ++i) {
-            // Don't bother to re-read the Section Header StrTab.
-            if (i == e_shstrndx) {
-                continue;
+        if (e_shstrndx < e_shnum) {
+            final int entry = e_shstrndx * e_shentsize;
+            if (layout.shType(table, entry) == SHT_STRTAB) {
+                mShStrTabOffset = layout.shOffset(table, entry);
+                mShStrTabSize = layout.shSize(table, entry);
             }
+        }
 
-            mFile.seek(sh_off + i * e_shentsize);
-
-            long sh_name = readWord();
-            System.err.println("ReadElf" + " sh_name = " + readShStrTabEntry(sh_name));
-            long sh_type = readWord();
-            long sh_flags = readX(mAddrSize);
-            long sh_addr = readAddr();
-            long sh_offset = readOff();
-            long sh_size = readX(mAddrSize);
-
+        // The Section Header StrTab is visited again here: linkers such as lld emit a single
+        // table that is both .shstrtab and .strtab.
+        for (int i = 0, entry = 0; i < e_shnum; ++i, entry += e_shentsize) {
+            final int sh_type = layout.shType(table, entry);
             if (sh_type == SHT_SYMTAB || sh_type == SHT_DYNSYM) {
-                final String symTabName = readShStrTabEntry(sh_name);
+                final String symTabName = readShStrTabEntry(layout.shName(table, entry));
                 if (".symtab".equals(symTabName)) {
-                    mSymTabOffset = sh_offset;
-                    mSymTabSize = sh_size;
+                    mSymTabOffset = layout.shOffset(table, entry);
+                    mSymTabSize = layout.shSize(table, entry);
                 } else if (".dynsym".equals(symTabName)) {
-                    mDynSymOffset = sh_offset;
-                    mDynSymSize = sh_size;
+                    mDynSymOffset = layout.shOffset(table, entry);
+                    mDynSymSize = layout.shSize(table, entry);
                 }
             } else if (sh_type == SHT_STRTAB) {
-                final String strTabName = readShStrTabEntry(sh_name);
+                final String strTabName = readShStrTabEntry(layout.shName(table, entry));
                 if (".strtab".equals(strTabName)) {
-                    mStrTabOffset = sh_offset;
-                    mStrTabSize = sh_size;
+                    mStrTabOffset = layout.shOffset(table, entry);
+                    mStrTabSize = layout.shSize(table, entry);
                 } else if (".dynstr".equals(strTabName)) {
-                    mDynStrOffset = sh_offset;
-                    mDynStrSize = sh_size;
+                    mDynStrOffset = layout.shOffset(table, entry);
+                    mDynStrSize = layout.shSize(table, entry);
                 }
             } else if (sh_type == SHT_DYNAMIC) {
                 mIsDynamic = true;
+                mDynamicOffset = layout.shOffset(table, entry);
+                mDynamicSize = layout.shSize(table, entry);
+            } else if (sh_type == SHT_HASH) {
+                mHashOffset = layout.shOffset(table, entry);
+                mHashSize = layout.shSize(table, entry);
+            } else if (sh_type == SHT_GNU_HASH) {
+                mGnuHashOffset = layout.shOffset(table, entry);
+                mGnuHashSize = layout.shSize(table, entry);
+            } else if (sh_type == SHT_GNU_VERSYM) {
+                mVerSymOffset = layout.shOffset(table, entry);
+                mVerSymSize = layout.shSize(table, entry);
+            } else if (sh_type == SHT_GNU_VERDEF) {
+                mVerDefOffset = layout.shOffset(table, entry);
+                mVerDefSize = layout.shSize(table, entry);
+            } else if (sh_type == SHT_GNU_VERNEED) {
+                mVerNeedOffset = layout.shOffset(table, entry);
+                mVerNeedSize = layout.shSize(table, entry);
             }
         }
     }
 
     private void readProgramHeaders(long ph_off, int e_phnum, int e_phentsize) throws IOException {
-        for (int i = 0; i < e_phnum; ++i) {
-            mFile.seek(ph_off + i * e_phentsize);
-
-            long p_type = readWord();
-            if (p_type == PT_LOAD) {
-                if (mAddrSize == 8) {
-                    // Only in Elf64_phdr; in Elf32_phdr p_flags is at the end.
-                    long p_flags = readWord();
-                }
-                long p_offset = readOff();
-                long p_vaddr = readAddr();
-                // ...
-
-                if (p_vaddr == 0) {
-                    mIsPIE = true;
-                }
+        if (e_phnum == 0) {
+            return;
+        }
+        if (e_phentsize < mLayout.phdrSize()) {
+            throw new IOException("Invalid e_phentsize: " + e_phentsize + ": " + mPath);
+        }
+        final ElfLayout layout = mLayout;
+        final ByteBuffer table = readTable(ph_off, (long) e_phnum * e_phentsize);
+        for (int i = 0, entry = 0; i < e_phnum; ++i, entry += e_phentsize) {
+            if (layout.pType(table, entry) == PT_LOAD && layout.pVaddr(table, entry) == 0) {
+                mIsPIE = true;
             }
         }
     }
 
-    private HashMap<String, Symbol> readSymbolTable(long symStrOffset, long symStrSize,
-                                                    long tableOffset, long tableSize) throws IOException {
-        HashMap<String, Symbol> result = new HashMap<String, Symbol>();
-        mFile.seek(tableOffset);
-        while (mFile.getFilePointer() < tableOffset + tableSize) {
-            long st_name = readWord();
-            int st_info;
-            if (mAddrSize == 8) {
-                st_info = readByte();
-                int st_other = readByte();
-                int st_shndx = readHalf();
-                long st_value = readAddr();
-                long st_size = readX(mAddrSize);
-            } else {
-                long st_value = readAddr();
-                long st_size = readWord();
-                st_info = readByte();
-                int st_other = readByte();
-                int st_shndx = readHalf();
-            }
-            if (st_name == 0) {
-                continue;
+    /**
+     * Returns {@code size} bytes of the file at {@code offset} in the file's byte order: a slice
+     * of the mapping when there is one, and otherwise a heap copy read in one go, so a table is
+     * decoded with absolute gets rather than a read per field.
+     */
+    ByteBuffer readTable(long offset, long size) throws IOException {
+        checkTableRange(offset, size);
+        if (mMap != null) {
+            ByteBuffer buffer = mMap.duplicate();
+            buffer.limit((int) (offset + size));
+            buffer.position((int) offset);
+            if (mListener != null) {
+                mListener.onRead((int) size, 0);
             }
+            return buffer.slice().order(mLayout.order);
+        }
+        byte[] bytes = new byte[(int) size];
+        readFully(offset, bytes, bytes.length);
+        return ByteBuffer.wrap(bytes).order(mLayout.order);
+    }
 
-            final String symName = readStrTabEntry(symStrOffset, symStrSize, st_name);
-            if (symName != null) {
-                System.err.println("ReadElf readSymbolTable " + " symName = " + symName);
-                Symbol s = new Symbol(symName, st_info);
-                result.put(symName, s);
-            }
+    private SymbolTable readSymbolTable(long symStrOffset, long symStrSize,
+                                        long tableOffset, long tableSize) throws IOException {
+        final long start = phaseStart();
+        final int entrySize = symbolEntrySize();
+        // Validate sh_size against the file before sizing any array from it.
+        final ByteBuffer table = tableOffset == 0 ? null : readTable(tableOffset, tableSize);
+        final int count = table == null ? 0 : table.limit() / entrySize;
+        int[] nameOffsets = new int[count];
+        long[] values = new long[count];
+        long[] sizes = new long[count];
+        byte[] infos = new byte[count];
+        byte[] others = new byte[count];
+        short[] shndxs = new short[count];
+        if (count > 0) {
+            mLayout.readSymbols(table, count, nameOffsets, values, sizes, infos, others,
+                    shndxs);
+        }
+        SymbolTable result = new SymbolTable(readStringTable(symStrOffset, symStrSize),
+                nameOffsets, values, sizes, infos, others, shndxs);
+        if (mListener != null) {
+            mListener.onSymbolsDecoded(mPath, count);
         }
+        phaseEnd(ElfListener.Phase.SYMBOL_TABLE, start);
         return result;
     }
 
+    /**
+     * Returns a string table's bytes: a slice of the mapping when there is one, and otherwise a
+     * heap copy read in one go.
+     */
+    private ByteBuffer readStringTable(long tableOffset, long tableSize) throws IOException {
+        if (tableOffset == 0 || tableSize <= 0) {
+            return ByteBuffer.allocate(0);
+        }
+        checkRange(tableOffset, (int) Math.min(tableSize, Integer.MAX_VALUE));
+        if (mMap != null) {
+            ByteBuffer buffer = mMap.duplicate();
+            buffer.limit((int) (tableOffset + tableSize));
+            buffer.position((int) tableOffset);
+            return buffer.slice();
+        }
+        byte[] bytes = new byte[(int) tableSize];
+        readBytes(tableOffset, bytes, bytes.length);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Returns .dynstr if {@code dynamic} is set and .strtab otherwise, so that st_name offsets
+     * from {@link ElfVisitor#visitSymbol} can be resolved without decoding a String. The table
+     * is a slice of the mapping when there is one.
+     */
+    ByteBuffer getStringTable(boolean dynamic) throws IOException {
+        return dynamic ? readStringTable(mDynStrOffset, mDynStrSize)
+                : readStringTable(mStrTabOffset, mStrTabSize);
+    }
+
     private String readShStrTabEntry(long strOffset) throws IOException {
         if (mShStrTabOffset == 0 || strOffset < 0 || strOffset >= mShStrTabSize) {
             return null;
@@ -501,42 +869,55 @@ public class ReadElf implements AutoCloseable {
         return readString(mShStrTabOffset + strOffset);
     }
 
-    private String readStrTabEntry(long tableOffset, long tableSize, long strOffset)
-            throws IOException {
-        if (tableOffset == 0 || strOffset < 0 || strOffset >= tableSize) {
-            return null;
-        }
-        return readString(tableOffset + strOffset);
+    private int readHalf(long offset) throws IOException {
+        return (int) readX(offset, 2);
     }
 
-    private int readHalf() throws IOException {
-        return (int) readX(2);
+    private long readWord(long offset) throws IOException {
+        return readX(offset, 4);
     }
 
-    private long readWord() throws IOException {
-        return readX(4);
+    private long readOff(long offset) throws IOException {
+        return readX(offset, mAddrSize);
     }
 
-    private long readOff() throws IOException {
-        return readX(mAddrSize);
+    private long readAddr(long offset) throws IOException {
+        return readX(offset, mAddrSize);
     }
 
-    private long readAddr() throws IOException {
-        return readX(mAddrSize);
-    }
+    private long readX(long offset, int byteCount) throws IOException {
+        checkRange(offset, byteCount);
+        if (mMap != null) {
+            if (mListener != null) {
+                mListener.onRead(byteCount, 0);
+            }
+            final int index = (int) offset;
+            switch (byteCount) {
+                case 1:
+                    return mMap.get(index) & 0xffL;
+                case 2:
+                    return mMap.getShort(index) & 0xffffL;
+                case 4:
+                    return mMap.getInt(index) & 0xffffffffL;
+                case 8:
+                    return mMap.getLong(index);
+                default:
+                    throw new IllegalArgumentException("Bad field width: " + byteCount);
+            }
+        }
 
-    private long readX(int byteCount) throws IOException {
-        mFile.readFully(mBuffer, 0, byteCount);
-        // System.err.println("ReadElf" + " readX = " + bytes2hex(mBuffer));
-        int answer = 0;
+        final byte[] buffer = new byte[byteCount];
+        readFully(offset, buffer, byteCount);
+        // System.err.println("ReadElf" + " readX = " + bytes2hex(buffer));
+        long answer = 0;
         if (mEndian == ELFDATA2LSB) {
             for (int i = byteCount - 1; i >= 0; i--) {
-                answer = (answer << 8) | (mBuffer[i] & 0xff);
+                answer = (answer << 8) | (buffer[i] & 0xff);
             }
         } else {
             final int N = byteCount - 1;
             for (int i = 0; i <= N; ++i) {
-                answer = (answer << 8) | (mBuffer[i] & 0xff);
+                answer = (answer << 8) | (buffer[i] & 0xff);
             }
         }
 
@@ -544,45 +925,804 @@ public class ReadElf implements AutoCloseable {
     }
 
     private String readString(long offset) throws IOException {
-        long originalOffset = mFile.getFilePointer();
-        mFile.seek(offset);
-        mFile.readFully(mBuffer, 0, (int) Math.min(mBuffer.length, mFile.length() - offset));
-        mFile.seek(originalOffset);
+        if (offset < 0 || offset >= mLength) {
+            return null;
+        }
+        if (mMap != null) {
+            final int start = (int) offset;
+            final int limit = mMap.limit();
+            final StringPool pool = StringPool.getDefault();
+            int h = 5381;
+            for (int i = start; i < limit; ++i) {
+                final byte b = mMap.get(i);
+                if (b != 0) {
+                    h = h * 33 + (b & 0xff);
+                } else {
+                    if (mListener != null) {
+                        mListener.onRead(i - start + 1, 0);
+                    }
+                    if (pool != null) {
+                        return pool.get(mMap, start, i - start, h);
+                    }
+                    byte[] bytes = new byte[i - start];
+                    for (int j = 0; j < bytes.length; ++j) {
+                        bytes[j] = mMap.get(start + j);
+                    }
+                    return new String(bytes);
+                }
+            }
+            return null;
+        }
+
+        final byte[] buffer = new byte[(int) Math.min(512, mLength - offset)];
+        readFully(offset, buffer, buffer.length);
 
-        for (int i = 0; i < mBuffer.length; ++i) {
-            if (mBuffer[i] == 0) {
-                return new String(mBuffer, 0, i);
+        for (int i = 0; i < buffer.length; ++i) {
+            if (buffer[i] == 0) {
+                final StringPool pool = StringPool.getDefault();
+                return pool != null ? pool.get(buffer, 0, i, StringPool.hash(buffer, 0, i))
+                        : new String(buffer, 0, i);
             }
         }
 
         return null;
     }
 
-    private int readByte() throws IOException {
-        return mFile.read() & 0xff;
+    private int readByte(long offset) throws IOException {
+        return (int) readX(offset, 1);
+    }
+
+    private void readBytes(long offset, byte[] dst, int byteCount) throws IOException {
+        checkRange(offset, byteCount);
+        if (mMap != null) {
+            if (mListener != null) {
+                mListener.onRead(byteCount, 0);
+            }
+            for (int i = 0; i < byteCount; ++i) {
+                dst[i] = mMap.get((int) offset + i);
+            }
+            return;
+        }
+        readFully(offset, dst, byteCount);
+    }
+
+    /** Fills {@code dst} with a positional channel read, leaving no shared state behind. */
+    private void readFully(long offset, byte[] dst, int byteCount) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(dst, 0, byteCount);
+        int syscalls = 0;
+        while (buffer.hasRemaining()) {
+            syscalls++;
+            if (mChannel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + mPath);
+            }
+        }
+        if (mListener != null) {
+            mListener.onRead(byteCount, syscalls);
+        }
+    }
+
+    /** Checks that a table's bytes, with a size taken from the file, lie within the file. */
+    private void checkTableRange(long offset, long size) throws IOException {
+        if (size < 0) {
+            throw new IOException("Table at " + offset + " has a negative size: " + mPath);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Table of " + size + " bytes at " + offset + " is too large: "
+                    + mPath);
+        }
+        checkRange(offset, (int) size);
+    }
+
+    private void checkRange(long offset, int byteCount) throws EOFException {
+        if (offset < 0 || offset + byteCount > mLength) {
+            throw new EOFException("Read of " + byteCount + " bytes at " + offset
+                    + " is outside " + mPath);
+        }
+    }
+
+    /** Returns the decoded .symtab, reading it on first use. */
+    public SymbolTable getSymbolTable() {
+        try {
+            return loadSymbolTable();
+        } catch (IOException e) {
+            return SymbolTable.empty();
+        }
+    }
+
+    private SymbolTable loadSymbolTable() throws IOException {
+        SymbolTable result = mSymbols;
+        if (result == null) {
+            synchronized (this) {
+                result = mSymbols;
+                if (result == null) {
+                    result = readSymbolTable(
+                            mStrTabOffset, mStrTabSize, mSymTabOffset, mSymTabSize);
+                    mSymbols = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns every .symtab entry keyed by name. This creates a Symbol per entry; prefer
+     * {@link #getSymbolTable()} for anything but one-off enumeration.
+     */
+    public Map<String, Symbol> getSymbols() {
+        return getSymbolTable().toMap();
     }
 
     public Symbol getSymbol(String name) {
-        if (mSymbols == null) {
+        return getSymbolTable().getSymbol(name);
+    }
+
+    /**
+     * Looks a .dynsym entry up by name. A name such as {@code foo@LIBC_N} only matches foo in
+     * version LIBC_N, and {@code foo@@LIBC_N} only matches it if that is foo's default version.
+     * Of several matching entries, the first definition in its default version is returned,
+     * as the dynamic linker would bind it, whether or not .dynsym has been decoded yet.
+     */
+    public Symbol getDynamicSymbol(String name) {
+        final int at = name.indexOf('@');
+        if (at > 0) {
+            final boolean defaultOnly = name.startsWith("@@", at);
+            return getDynamicSymbol(name.substring(0, at),
+                    name.substring(at + (defaultOnly ? 2 : 1)), defaultOnly);
+        }
+        SymbolTable dynamicSymbols = mDynamicSymbols;
+        if (dynamicSymbols == null) {
             try {
-                mSymbols = readSymbolTable(mStrTabOffset, mStrTabSize, mSymTabOffset, mSymTabSize);
+                // Answer single lookups from the hash tables the dynamic linker uses rather
+                // than decoding every .dynsym entry.
+                if (mGnuHashOffset != 0) {
+                    return lookupGnuHash(name.getBytes(), null, 0, false);
+                }
+                if (mHashOffset != 0) {
+                    return lookupSysvHash(name.getBytes(), null, 0, false);
+                }
             } catch (IOException e) {
                 return null;
             }
+            dynamicSymbols = getDynamicSymbolTable();
         }
-        return mSymbols.get(name);
+        return lookupDecoded(dynamicSymbols, name.getBytes(), null, 0, false);
     }
 
-    public Symbol getDynamicSymbol(String name) {
-        if (mDynamicSymbols == null) {
+    private Symbol getDynamicSymbol(String name, String version, boolean defaultOnly) {
+        final SymbolVersions versions = getSymbolVersions();
+        final int index = versions.indexOf(version);
+        if (index < 0) {
+            return null;
+        }
+        final byte[] bytes = name.getBytes();
+        SymbolTable dynamicSymbols = mDynamicSymbols;
+        if (dynamicSymbols == null) {
             try {
-                mDynamicSymbols = readSymbolTable(
-                        mDynStrOffset, mDynStrSize, mDynSymOffset, mDynSymSize);
+                if (mGnuHashOffset != 0) {
+                    return lookupGnuHash(bytes, versions, index, defaultOnly);
+                }
+                if (mHashOffset != 0) {
+                    return lookupSysvHash(bytes, versions, index, defaultOnly);
+                }
             } catch (IOException e) {
                 return null;
             }
+            dynamicSymbols = getDynamicSymbolTable();
+        }
+        return lookupDecoded(dynamicSymbols, bytes, versions, index, defaultOnly);
+    }
+
+    /**
+     * Looks {@code name} up in the decoded .dynsym, choosing among entries that share the name
+     * exactly as {@link #lookupGnuHash} and {@link #lookupSysvHash} do.
+     */
+    private Symbol lookupDecoded(SymbolTable dynamicSymbols, byte[] name,
+                                 SymbolVersions versions, int version, boolean defaultOnly) {
+        final int last = dynamicSymbols.indexOf(name);
+        if (last <= 0) {
+            return null;
+        }
+        final SymbolVersions hidden =
+                dynamicSymbols.previousIndexOf(last) < 0 ? null : getSymbolVersions();
+        int first = -1;
+        int preferred = -1;
+        for (int i = last; i > 0; i = dynamicSymbols.previousIndexOf(i)) {
+            if (versions != null && !versions.matches(i, version, defaultOnly)) {
+                continue;
+            }
+            first = i;
+            if (hidden != null && dynamicSymbols.isDefined(i) && !hidden.isHidden(i)) {
+                preferred = i;
+            }
+        }
+        if (preferred > 0) {
+            return dynamicSymbols.getSymbol(preferred);
+        }
+        return first > 0 ? dynamicSymbols.getSymbol(first) : null;
+    }
+
+    /**
+     * Returns the GNU versions of the .dynsym entries, reading .gnu.version and the version
+     * names on first use. Empty if the library is unversioned or they can't be read.
+     */
+    public SymbolVersions getSymbolVersions() {
+        SymbolVersions result = mSymbolVersions;
+        if (result == null) {
+            try {
+                result = readSymbolVersions();
+            } catch (IOException e) {
+                result = SymbolVersions.empty();
+            }
+            // Decoding is idempotent, so racing threads may each do it; any result will do.
+            mSymbolVersions = result;
+        }
+        return result;
+    }
+
+    /** Returns the decoded .dynsym, reading it on first use. */
+    public SymbolTable getDynamicSymbolTable() {
+        try {
+            return loadDynamicSymbolTable();
+        } catch (IOException e) {
+            return SymbolTable.empty();
+        }
+    }
+
+    private SymbolTable loadDynamicSymbolTable() throws IOException {
+        SymbolTable result = mDynamicSymbols;
+        if (result == null) {
+            synchronized (this) {
+                result = mDynamicSymbols;
+                if (result == null) {
+                    result = readSymbolTable(
+                            mDynStrOffset, mDynStrSize, mDynSymOffset, mDynSymSize);
+                    mDynamicSymbols = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns every .dynsym entry keyed by name. Unlike {@link #getDynamicSymbol(String)},
+     * this always decodes the whole table, and it creates a Symbol per entry.
+     */
+    public Map<String, Symbol> getDynamicSymbols() {
+        return getDynamicSymbolTable().toMap();
+    }
+
+    /**
+     * Estimates the bytes of heap held by this instance: the tables decoded so far, which
+     * grows as they are used. A mapped file's contents aren't counted.
+     */
+    public long getRetainedSize() {
+        long size = 256 + 2L * mPath.length();
+        SymbolTable symbols = mSymbols;
+        if (symbols != null) {
+            size += symbols.getRetainedSize();
+        }
+        SymbolTable dynamicSymbols = mDynamicSymbols;
+        if (dynamicSymbols != null) {
+            size += dynamicSymbols.getRetainedSize();
+        }
+        List<RelocationTable> relocationTables = mRelocationTables;
+        if (relocationTables != null) {
+            for (RelocationTable table : relocationTables) {
+                size += table.getRetainedSize();
+            }
+        }
+        SymbolVersions symbolVersions = mSymbolVersions;
+        if (symbolVersions != null) {
+            size += symbolVersions.getRetainedSize();
+        }
+        DynamicEntries dynamicEntries = mDynamicEntries;
+        if (dynamicEntries != null) {
+            size += 64;
+            for (String needed : dynamicEntries.needed) {
+                size += 48 + needed.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Streams the header, section headers, program headers and both symbol tables to
+     * {@code visitor} in a single pass, without building any tables. The walk ends early as
+     * soon as a callback returns false.
+     */
+    public void accept(ElfVisitor visitor) throws IOException {
+        long offset = EI_NIDENT;
+        final int type = readHalf(offset);
+        final int machine = readHalf(offset + 2);
+        offset += 8; // e_type, e_machine, e_version
+        final long entry = readAddr(offset);
+        offset += mAddrSize;
+        final long phoff = readOff(offset);
+        offset += mAddrSize;
+        final long shoff = readOff(offset);
+        offset += mAddrSize;
+        final int flags = (int) readWord(offset);
+        offset += 6; // e_flags, e_ehsize
+        final int phentsize = readHalf(offset);
+        final int phnum = readHalf(offset + 2);
+        final int shentsize = readHalf(offset + 4);
+        final int shnum = readHalf(offset + 6);
+        final int shstrndx = readHalf(offset + 8);
+        if (!visitor.visitHeader(readByte(EI_CLASS), readByte(EI_DATA), type, machine, entry,
+                phoff, shoff, flags, phnum, shnum, shstrndx)) {
+            return;
+        }
+
+        for (int i = 0; i < shnum; ++i) {
+            offset = shoff + (long) i * shentsize;
+            final long name = readWord(offset);
+            final int shType = (int) readWord(offset + 4);
+            offset += 8;
+            final long shFlags = readX(offset, mAddrSize);
+            final long addr = readAddr(offset + mAddrSize);
+            final long shOffset = readOff(offset + 2 * mAddrSize);
+            final long size = readX(offset + 3 * mAddrSize, mAddrSize);
+            offset += 4 * mAddrSize;
+            final int link = (int) readWord(offset);
+            final int info = (int) readWord(offset + 4);
+            final long addralign = readX(offset + 8, mAddrSize);
+            final long entsize = readX(offset + 8 + mAddrSize, mAddrSize);
+            if (!visitor.visitSection(i, readShStrTabEntry(name), shType, shFlags, addr,
+                    shOffset, size, link, info, addralign, entsize)) {
+                return;
+            }
+        }
+
+        for (int i = 0; i < phnum; ++i) {
+            offset = phoff + (long) i * phentsize;
+            final int pType = (int) readWord(offset);
+            final int pFlags;
+            if (mAddrSize == 8) {
+                pFlags = (int) readWord(offset + 4);
+                offset += 8;
+            } else {
+                // In Elf32_Phdr p_flags comes after p_memsz.
+                pFlags = (int) readWord(offset + 24);
+                offset += 4;
+            }
+            if (!visitor.visitSegment(i, pType, pFlags, readOff(offset),
+                    readAddr(offset + mAddrSize), readAddr(offset + 2 * mAddrSize),
+                    readX(offset + 3 * mAddrSize, mAddrSize),
+                    readX(offset + 4 * mAddrSize, mAddrSize),
+                    readX(offset + (mAddrSize == 8 ? 40 : 24), mAddrSize))) {
+                return;
+            }
+        }
+
+        if (visitSymbols(visitor, false, mSymTabOffset, mSymTabSize)) {
+            visitSymbols(visitor, true, mDynSymOffset, mDynSymSize);
+        }
+    }
+
+    private boolean visitSymbols(ElfVisitor visitor, boolean dynamic, long tableOffset,
+                                 long tableSize) throws IOException {
+        if (tableOffset == 0) {
+            return true;
+        }
+        checkTableRange(tableOffset, tableSize);
+        final int entrySize = symbolEntrySize();
+        final int count = (int) (tableSize / entrySize);
+        for (int i = 0; i < count; ++i) {
+            long offset = tableOffset + (long) i * entrySize;
+            final int name = (int) readWord(offset);
+            offset += 4;
+            final boolean more;
+            if (mAddrSize == 8) {
+                more = visitor.visitSymbol(dynamic, i, name, readByte(offset),
+                        readByte(offset + 1), readHalf(offset + 2), readAddr(offset + 4),
+                        readX(offset + 12, mAddrSize));
+            } else {
+                more = visitor.visitSymbol(dynamic, i, name, readByte(offset + 8),
+                        readByte(offset + 9), readHalf(offset + 10), readAddr(offset),
+                        readWord(offset + 4));
+            }
+            if (!more) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolves an st_name reported by {@link ElfVisitor#visitSymbol} against .dynstr if
+     * {@code dynamic} is set, and .strtab otherwise. Returns null for unnamed entries.
+     */
+    public String getSymbolName(boolean dynamic, int nameOffset) throws IOException {
+        if (dynamic) {
+            return readDynStrEntry(nameOffset);
+        }
+        if (mStrTabOffset == 0 || nameOffset <= 0 || nameOffset >= mStrTabSize) {
+            return null;
+        }
+        return readString(mStrTabOffset + nameOffset);
+    }
+
+    /** Returns the DT_NEEDED entries, in the order the dynamic linker loads them. */
+    public List<String> getNeeded() {
+        return getDynamicEntries().needed;
+    }
+
+    /** Returns DT_SONAME, or null. */
+    public String getSoname() {
+        return getDynamicEntries().soname;
+    }
+
+    /** Returns DT_RPATH, or null. The dynamic linker ignores it when DT_RUNPATH is present. */
+    public String getRpath() {
+        return getDynamicEntries().rpath;
+    }
+
+    /** Returns DT_RUNPATH, or null. */
+    public String getRunpath() {
+        return getDynamicEntries().runpath;
+    }
+
+    private DynamicEntries getDynamicEntries() {
+        DynamicEntries result = mDynamicEntries;
+        if (result == null) {
+            try {
+                result = readDynamicEntries();
+            } catch (IOException e) {
+                result = new DynamicEntries(Collections.<String>emptyList(), null, null, null);
+            }
+            // Decoding is idempotent, so racing threads may each do it; any result will do.
+            mDynamicEntries = result;
+        }
+        return result;
+    }
+
+    private DynamicEntries readDynamicEntries() throws IOException {
+        List<String> needed = new ArrayList<>();
+        String soname = null;
+        String rpath = null;
+        String runpath = null;
+        final int entrySize = 2 * mAddrSize;
+        final long count = mDynamicOffset == 0 ? 0 : mDynamicSize / entrySize;
+        for (long i = 0; i < count; ++i) {
+            final long offset = mDynamicOffset + i * entrySize;
+            // Elf64_Sxword d_tag; union { Elf64_Xword d_val; Elf64_Addr d_ptr; } d_un;
+            final long d_tag = readX(offset, mAddrSize);
+            if (d_tag == DT_NULL) {
+                break;
+            }
+            if (d_tag == DT_NEEDED || d_tag == DT_SONAME || d_tag == DT_RPATH
+                    || d_tag == DT_RUNPATH) {
+                final String value = readDynStrEntry(readX(offset + mAddrSize, mAddrSize));
+                if (d_tag == DT_NEEDED) {
+                    if (value != null) {
+                        needed.add(value);
+                    }
+                } else if (d_tag == DT_SONAME) {
+                    soname = value;
+                } else if (d_tag == DT_RPATH) {
+                    rpath = value;
+                } else {
+                    runpath = value;
+                }
+            }
+        }
+        return new DynamicEntries(Collections.unmodifiableList(needed), soname, rpath, runpath);
+    }
+
+    private SymbolVersions readSymbolVersions() throws IOException {
+        if (mVerSymOffset == 0) {
+            return SymbolVersions.empty();
+        }
+        final short[] versyms = new short[(int) Math.min(mVerSymSize / 2, Integer.MAX_VALUE)];
+        readTable(mVerSymOffset, versyms.length * 2L).asShortBuffer().get(versyms);
+        String[] names = new String[VER_NDX_FIRST];
+        String[] files = new String[VER_NDX_FIRST];
+
+        // Elf_Verdef {vd_version, vd_flags, vd_ndx, vd_cnt; vd_hash, vd_aux, vd_next}, and the
+        // first Elf_Verdaux {vda_name, vda_next} names the version.
+        if (mVerDefOffset != 0) {
+            final ByteBuffer table = readTable(mVerDefOffset, mVerDefSize);
+            long entry = 0;
+            for (int i = 0; i <= MAX_VERSION_INDEX && entry + 20 <= table.limit(); ++i) {
+                final int e = (int) entry;
+                final int index = table.getShort(e + 4) & MAX_VERSION_INDEX;
+                final long aux = entry + (table.getInt(e + 12) & 0xffffffffL);
+                if (table.getShort(e + 6) != 0 && aux + 8 <= table.limit()) {
+                    names = grow(names, index);
+                    files = grow(files, index);
+                    names[index] = readDynStrEntry(table.getInt((int) aux) & 0xffffffffL);
+                }
+                final long next = table.getInt(e + 16) & 0xffffffffL;
+                if (next == 0) {
+                    break;
+                }
+                entry += next;
+            }
+        }
+
+        // Elf_Verneed {vn_version, vn_cnt; vn_file, vn_aux, vn_next}, each with vn_cnt
+        // Elf_Vernaux {vna_hash; vna_flags, vna_other; vna_name, vna_next}, where vna_other is
+        // the version index.
+        if (mVerNeedOffset != 0) {
+            final ByteBuffer table = readTable(mVerNeedOffset, mVerNeedSize);
+            long entry = 0;
+            for (int i = 0; i <= MAX_VERSION_INDEX && entry + 16 <= table.limit(); ++i) {
+                final int e = (int) entry;
+                final int count = table.getShort(e + 2) & 0xffff;
+                final String file = readDynStrEntry(table.getInt(e + 4) & 0xffffffffL);
+                long aux = entry + (table.getInt(e + 8) & 0xffffffffL);
+                for (int j = 0; j < count && aux + 16 <= table.limit(); ++j) {
+                    final int a = (int) aux;
+                    final int index = table.getShort(a + 6) & MAX_VERSION_INDEX;
+                    names = grow(names, index);
+                    files = grow(files, index);
+                    names[index] = readDynStrEntry(table.getInt(a + 8) & 0xffffffffL);
+                    files[index] = file;
+                    final long next = table.getInt(a + 12) & 0xffffffffL;
+                    if (next == 0) {
+                        break;
+                    }
+                    aux += next;
+                }
+                final long next = table.getInt(e + 12) & 0xffffffffL;
+                if (next == 0) {
+                    break;
+                }
+                entry += next;
+            }
+        }
+        return new SymbolVersions(versyms, names, files);
+    }
+
+    /** Returns {@code array}, or a longer copy of it, with room for {@code index}. */
+    private static String[] grow(String[] array, int index) {
+        return index < array.length ? array : Arrays.copyOf(array, index + 1);
+    }
+
+    /**
+     * Returns every SHT_REL, SHT_RELA, Android packed and RELR section, in section order,
+     * decoded on first use. Empty if the relocations can't be read.
+     */
+    public List<RelocationTable> getRelocationTables() {
+        List<RelocationTable> result = mRelocationTables;
+        if (result == null) {
+            try {
+                result = readRelocationTables();
+            } catch (IOException | IllegalArgumentException e) {
+                result = Collections.emptyList();
+            }
+            // Decoding is idempotent, so racing threads may each do it; any result will do.
+            mRelocationTables = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the symbols bound through the PLT, that is the targets of JUMP_SLOT
+     * relocations, without duplicates and in relocation order.
+     */
+    public List<String> getPltImports() {
+        Set<String> result = new LinkedHashSet<>();
+        for (RelocationTable table : getRelocationTables()) {
+            for (int i = 0; i < table.size(); ++i) {
+                if (table.isJumpSlot(i) && table.getSymbolIndex(i) != 0) {
+                    String name = table.getSymbolName(i);
+                    if (name != null) {
+                        result.add(name);
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(result));
+    }
+
+    private List<RelocationTable> readRelocationTables() throws IOException {
+        final int machine = readHalf(EI_NIDENT + 2);
+        final long shoff = readOff(EI_NIDENT + 8 + 2 * mAddrSize);
+        final int shentsize = readHalf(EI_NIDENT + 3 * mAddrSize + 18);
+        final int shnum = readHalf(EI_NIDENT + 3 * mAddrSize + 20);
+        List<RelocationTable> result = new ArrayList<>();
+        for (int i = 0; i < shnum; ++i) {
+            long offset = shoff + (long) i * shentsize;
+            final long name = readWord(offset);
+            final int type = (int) readWord(offset + 4);
+            if (type != RelocationTable.SHT_REL && type != RelocationTable.SHT_RELA
+                    && type != RelocationTable.SHT_ANDROID_REL
+                    && type != RelocationTable.SHT_ANDROID_RELA
+                    && type != RelocationTable.SHT_RELR
+                    && type != RelocationTable.SHT_ANDROID_RELR) {
+                continue;
+            }
+            offset += 8 + 2 * mAddrSize;
+            final long sectionOffset = readOff(offset);
+            final long size = readX(offset + mAddrSize, mAddrSize);
+            // sh_link names the symbol table: .dynsym, unless it is the .symtab of an object.
+            final long link = readWord(offset + 2 * mAddrSize);
+            final boolean dynamic = link >= shnum
+                    || readWord(shoff + link * shentsize + 4) != SHT_SYMTAB;
+            ByteBuffer data = readTable(sectionOffset, size);
+            result.add(RelocationTable.decode(this, readShStrTabEntry(name), type, data,
+                    mAddrSize == 8, machine, dynamic));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private String readDynStrEntry(long strOffset) throws IOException {
+        if (mDynStrOffset == 0 || strOffset <= 0 || strOffset >= mDynStrSize) {
+            return null;
+        }
+        return readString(mDynStrOffset + strOffset);
+    }
+
+    private int symbolEntrySize() {
+        return mLayout.symSize();
+    }
+
+    /**
+     * Looks {@code name} up in .gnu.hash: the bloom filter rejects most misses, and on a hit
+     * only the entries of one hash chain are decoded.
+     */
+    private Symbol lookupGnuHash(byte[] name, SymbolVersions versions, int version,
+                                 boolean defaultOnly) throws IOException {
+        long offset = mGnuHashOffset;
+        final long nbuckets = readWord(offset);
+        final long symoffset = readWord(offset + 4);
+        final long bloomSize = readWord(offset + 8);
+        final long bloomShift = readWord(offset + 12);
+        if (nbuckets == 0 || bloomSize == 0) {
+            return null;
+        }
+        final long bloomOffset = offset + 16;
+        final long bucketsOffset = bloomOffset + bloomSize * mAddrSize;
+        final long chainOffset = bucketsOffset + nbuckets * 4;
+
+        long h = 5381;
+        for (byte b : name) {
+            h = (h * 33 + (b & 0xff)) & 0xffffffffL;
+        }
+
+        // A chain is in .dynsym order, so its first preferred match is the one to return.
+        long first = -1;
+        final int bits = mAddrSize * 8;
+        long word = readX(bloomOffset + ((h / bits) % bloomSize) * mAddrSize, mAddrSize);
+        long mask = (1L << (h % bits)) | (1L << ((h >>> bloomShift) % bits));
+        if ((word & mask) == mask) {
+            long index = readWord(bucketsOffset + (h % nbuckets) * 4);
+            if (index >= symoffset) {
+                while (true) {
+                    long chainHash = readWord(chainOffset + (index - symoffset) * 4);
+                    if ((h | 1) == (chainHash | 1)
+                            && isDynamicSymbolNamed(index, name, versions, version,
+                                    defaultOnly)) {
+                        if (isPreferredDynamicSymbol(index)) {
+                            return readDynamicSymbol(index, name);
+                        }
+                        if (first < 0) {
+                            first = index;
+                        }
+                    }
+                    if ((chainHash & 1) != 0) {
+                        break;
+                    }
+                    index++;
+                }
+            }
+        }
+
+        // .gnu.hash only covers defined symbols; the undefined ones sit in front of symoffset,
+        // so none of them is preferred but the first of them comes before any chain entry.
+        for (long index = 1; index < symoffset; ++index) {
+            if (isDynamicSymbolNamed(index, name, versions, version, defaultOnly)) {
+                return readDynamicSymbol(index, name);
+            }
+        }
+        return first < 0 ? null : readDynamicSymbol(first, name);
+    }
+
+    /** Looks {@code name} up by walking one SysV .hash bucket chain. */
+    private Symbol lookupSysvHash(byte[] name, SymbolVersions versions, int version,
+                                  boolean defaultOnly) throws IOException {
+        final long nbucket = readWord(mHashOffset);
+        final long nchain = readWord(mHashOffset + 4);
+        if (nbucket == 0) {
+            return null;
+        }
+        final long bucketOffset = mHashOffset + 8;
+        final long chainOffset = bucketOffset + nbucket * 4;
+
+        long h = 0;
+        for (byte b : name) {
+            h = (h << 4) + (b & 0xff);
+            long g = h & 0xf0000000L;
+            if (g != 0) {
+                h ^= g >>> 24;
+            }
+            h &= ~g;
+        }
+
+        // A chain isn't in .dynsym order, so walk all of it for the lowest indices. Bound the
+        // walk by nchain so a corrupt chain can't loop forever.
+        long first = -1;
+        long preferred = -1;
+        long index = readWord(bucketOffset + (h % nbucket) * 4);
+        for (long steps = 0; index != 0 && index < nchain && steps < nchain; ++steps) {
+            if (isDynamicSymbolNamed(index, name, versions, version, defaultOnly)) {
+                if (first < 0 || index < first) {
+                    first = index;
+                }
+                if ((preferred < 0 || index < preferred) && isPreferredDynamicSymbol(index)) {
+                    preferred = index;
+                }
+            }
+            index = readWord(chainOffset + index * 4);
+        }
+        if (preferred >= 0) {
+            return readDynamicSymbol(preferred, name);
+        }
+        return first < 0 ? null : readDynamicSymbol(first, name);
+    }
+
+    /**
+     * True if .dynsym entry {@code index} is named {@code name} and, given {@code versions}, is
+     * in {@code version}.
+     */
+    private boolean isDynamicSymbolNamed(long index, byte[] name, SymbolVersions versions,
+                                         int version, boolean defaultOnly) throws IOException {
+        final long relativeOffset = index * symbolEntrySize();
+        if (relativeOffset >= mDynSymSize) {
+            return false;
+        }
+        if (versions != null && !versions.matches((int) index, version, defaultOnly)) {
+            return false;
+        }
+        long st_name = readWord(mDynSymOffset + relativeOffset);
+        return st_name != 0 && strTabEntryEquals(mDynStrOffset, mDynStrSize, st_name, name);
+    }
+
+    /**
+     * True if .dynsym entry {@code index} is what the dynamic linker binds an unversioned
+     * reference to: a definition in its default version. Of several entries with one name, the
+     * first preferred one wins, and failing that the first; every lookup path agrees on this.
+     */
+    private boolean isPreferredDynamicSymbol(long index) throws IOException {
+        final long entryOffset = mDynSymOffset + index * symbolEntrySize();
+        final int shndx = readHalf(entryOffset + (mAddrSize == 8 ? 6 : 14));
+        if (shndx == Symbol.SHN_UNDEF) {
+            return false;
+        }
+        return mVerSymOffset == 0 || index * 2 + 2 > mVerSymSize
+                || (readHalf(mVerSymOffset + index * 2) & VERSYM_HIDDEN) == 0;
+    }
+
+    /** Decodes .dynsym entry {@code index}, whose name is already known to be {@code name}. */
+    private Symbol readDynamicSymbol(long index, byte[] name) throws IOException {
+        final long entryOffset = mDynSymOffset + index * symbolEntrySize();
+        if (mListener != null) {
+            mListener.onSymbolsDecoded(mPath, 1);
+        }
+        if (mAddrSize == 8) {
+            return new Symbol(new String(name), readByte(entryOffset + 4),
+                    readByte(entryOffset + 5), readHalf(entryOffset + 6),
+                    readAddr(entryOffset + 8), readX(entryOffset + 16, mAddrSize));
+        }
+        return new Symbol(new String(name), readByte(entryOffset + 12),
+                readByte(entryOffset + 13), readHalf(entryOffset + 14),
+                readAddr(entryOffset + 4), readWord(entryOffset + 8));
+    }
+
+    /** Compares a NUL-terminated string table entry with {@code name} without decoding it. */
+    private boolean strTabEntryEquals(long tableOffset, long tableSize, long strOffset,
+                                      byte[] name) throws IOException {
+        if (tableOffset == 0 || strOffset < 0 || strOffset + name.length >= tableSize) {
+            return false;
+        }
+        final long offset = tableOffset + strOffset;
+        for (int i = 0; i < name.length; ++i) {
+            if (readByte(offset + i) != (name[i] & 0xff)) {
+                return false;
+            }
         }
-        return mDynamicSymbols.get(name);
+        return readByte(offset + name.length) == 0;
     }
 
     public static String bytes2hex(byte[] bytes) {
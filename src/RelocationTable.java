@@ -0,0 +1,394 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The decoded relocations of one SHT_REL, SHT_RELA, Android packed (APS2) or RELR section,
+ * stored as parallel primitive arrays indexed by relocation. Symbols are kept as indices into
+ * the linked symbol table, normally .dynsym, which is only decoded when a name is asked for.
+ *
+ * Iterating with {@link #size()} and the indexed getters allocates nothing.
+ */
+public class RelocationTable {
+    public enum Format {
+        REL, RELA, ANDROID_REL, ANDROID_RELA, RELR
+    }
+
+    static final int SHT_RELA = 4;
+    static final int SHT_REL = 9;
+    static final int SHT_RELR = 19;
+    static final int SHT_ANDROID_REL = 0x60000001;
+    static final int SHT_ANDROID_RELA = 0x60000002;
+    static final int SHT_ANDROID_RELR = 0x6fffff00;
+
+    // Group flags of the APS2 encoding, from bionic's linker_reloc_iterators.h.
+    private static final int RELOCATION_GROUPED_BY_INFO_FLAG = 1;
+    private static final int RELOCATION_GROUPED_BY_OFFSET_DELTA_FLAG = 2;
+    private static final int RELOCATION_GROUPED_BY_ADDEND_FLAG = 4;
+    private static final int RELOCATION_GROUP_HAS_ADDEND_FLAG = 8;
+
+    private final ReadElf mElf;
+    private final String mName;
+    private final Format mFormat;
+    private final boolean mDynamic;
+    private final int mJumpSlotType;
+
+    private final long[] mOffsets;
+    private final int[] mTypes;
+    private final int[] mSymbols;
+    /** r_addend of each entry; null for formats without addends. */
+    private final long[] mAddends;
+
+    private RelocationTable(ReadElf elf, String name, Format format, boolean dynamic,
+                            int jumpSlotType, long[] offsets, int[] types, int[] symbols,
+                            long[] addends) {
+        mElf = elf;
+        mName = name;
+        mFormat = format;
+        mDynamic = dynamic;
+        mJumpSlotType = jumpSlotType;
+        mOffsets = offsets;
+        mTypes = types;
+        mSymbols = symbols;
+        mAddends = addends;
+    }
+
+    /**
+     * Prints every relocation of each file, or with {@code -p}, only the symbols each binds
+     * through the PLT.
+     */
+    public static void main(String[] args) throws IOException {
+        final boolean plt = args.length > 0 && "-p".equals(args[0]);
+        if (args.length < (plt ? 2 : 1)) {
+            System.err.println("usage: RelocationTable [-p] <file>...");
+            System.exit(1);
+        }
+        final PrintStream out = System.out;
+        for (int i = plt ? 1 : 0; i < args.length; ++i) {
+            try (ReadElf elf = ReadElf.read(new File(args[i]))) {
+                if (plt) {
+                    for (String name : elf.getPltImports()) {
+                        out.println(args[i] + "\t" + name);
+                    }
+                    continue;
+                }
+                for (RelocationTable table : elf.getRelocationTables()) {
+                    out.println(args[i] + ": " + table.getName() + " (" + table.getFormat()
+                            + ") contains " + table.size() + " entries:");
+                    for (int j = 0; j < table.size(); ++j) {
+                        String symbol = table.getSymbolName(j);
+                        out.println(String.format("  %016x %6d  %s%s", table.getOffset(j),
+                                table.getType(j), symbol != null ? symbol : "",
+                                table.hasAddends() ? String.format(" %+d", table.getAddend(j))
+                                        : ""));
+                    }
+                }
+            }
+        }
+    }
+
+    /** The section's name, such as ".rela.dyn" or ".rel.plt". */
+    public String getName() {
+        return mName;
+    }
+
+    public Format getFormat() {
+        return mFormat;
+    }
+
+    public int size() {
+        return mOffsets.length;
+    }
+
+    /** r_offset: the address the relocation patches. */
+    public long getOffset(int index) {
+        return mOffsets[index];
+    }
+
+    /** The machine-specific relocation type from r_info. */
+    public int getType(int index) {
+        return mTypes[index];
+    }
+
+    /** The symbol index from r_info; 0 for relocations without a symbol. */
+    public int getSymbolIndex(int index) {
+        return mSymbols[index];
+    }
+
+    public boolean hasAddends() {
+        return mAddends != null;
+    }
+
+    /** r_addend, or 0 for formats that keep the addend at the patched address. */
+    public long getAddend(int index) {
+        return mAddends != null ? mAddends[index] : 0;
+    }
+
+    /** Returns true for entries the dynamic linker resolves for a PLT slot. */
+    public boolean isJumpSlot(int index) {
+        return mTypes[index] == mJumpSlotType;
+    }
+
+    /** The symbol table the symbol indices refer to, decoded on first use. */
+    public SymbolTable getSymbolTable() {
+        return mDynamic ? mElf.getDynamicSymbolTable() : mElf.getSymbolTable();
+    }
+
+    /** Returns the name of the entry's symbol, or null if it has none. */
+    public String getSymbolName(int index) {
+        final int symbol = mSymbols[index];
+        if (symbol == 0) {
+            return null;
+        }
+        SymbolTable table = getSymbolTable();
+        return symbol < table.size() ? table.getName(symbol) : null;
+    }
+
+    /** Bytes of heap held by this table. */
+    public long getRetainedSize() {
+        return 64 + mOffsets.length * (8L + 4 + 4 + (mAddends != null ? 8 : 0));
+    }
+
+    /**
+     * Decodes the contents of a relocation section of type {@code shType}. Symbol names are
+     * resolved against {@code elf}'s .dynsym when {@code dynamic} is set, and .symtab
+     * otherwise.
+     *
+     * @throws IllegalArgumentException if the contents are malformed
+     */
+    static RelocationTable decode(ReadElf elf, String name, int shType, ByteBuffer data,
+                                  boolean is64, int machine, boolean dynamic) {
+        try {
+            switch (shType) {
+                case SHT_REL:
+                    return decodeRel(elf, name, Format.REL, data, is64, machine, dynamic);
+                case SHT_RELA:
+                    return decodeRel(elf, name, Format.RELA, data, is64, machine, dynamic);
+                case SHT_ANDROID_REL:
+                    return decodePacked(elf, name, Format.ANDROID_REL, data, is64, machine,
+                            dynamic);
+                case SHT_ANDROID_RELA:
+                    return decodePacked(elf, name, Format.ANDROID_RELA, data, is64, machine,
+                            dynamic);
+                case SHT_RELR:
+                case SHT_ANDROID_RELR:
+                    return decodeRelr(elf, name, data, is64, machine, dynamic);
+                default:
+                    throw new IllegalArgumentException("Not a relocation section: " + shType);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated relocations in " + name, e);
+        }
+    }
+
+    private static RelocationTable decodeRel(ReadElf elf, String name, Format format,
+                                             ByteBuffer data, boolean is64, int machine,
+                                             boolean dynamic) {
+        final boolean rela = format == Format.RELA;
+        final int wordSize = is64 ? 8 : 4;
+        final int entrySize = (rela ? 3 : 2) * wordSize;
+        final int count = data.limit() / entrySize;
+        long[] offsets = new long[count];
+        int[] types = new int[count];
+        int[] symbols = new int[count];
+        long[] addends = rela ? new long[count] : null;
+        for (int i = 0; i < count; ++i) {
+            final int position = i * entrySize;
+            if (is64) {
+                offsets[i] = data.getLong(position);
+                final long info = data.getLong(position + 8);
+                types[i] = (int) info;
+                symbols[i] = (int) (info >>> 32);
+                if (rela) {
+                    addends[i] = data.getLong(position + 16);
+                }
+            } else {
+                offsets[i] = data.getInt(position) & 0xffffffffL;
+                final int info = data.getInt(position + 4);
+                types[i] = info & 0xff;
+                symbols[i] = info >>> 8;
+                if (rela) {
+                    addends[i] = data.getInt(position + 8);
+                }
+            }
+        }
+        return new RelocationTable(elf, name, format, dynamic, jumpSlotType(machine), offsets,
+                types, symbols, addends);
+    }
+
+    /**
+     * Decodes Android's packed format: "APS2" followed by SLEB128 values, the relocation
+     * count and initial offset and then groups of relocations that can share their info,
+     * offset delta or addend.
+     */
+    private static RelocationTable decodePacked(ReadElf elf, String name, Format format,
+                                                ByteBuffer data, boolean is64, int machine,
+                                                boolean dynamic) {
+        if (data.limit() < 4 || data.get(0) != 'A' || data.get(1) != 'P' || data.get(2) != 'S'
+                || data.get(3) != '2') {
+            throw new IllegalArgumentException("Bad packed relocation magic in " + name);
+        }
+        final long[] position = {4};
+        final long count = readSleb128(data, position);
+        if (count < 0 || count > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Bad packed relocation count " + count + " in "
+                    + name);
+        }
+        final boolean rela = format == Format.ANDROID_RELA;
+        final long mask = is64 ? -1L : 0xffffffffL;
+        long[] offsets = new long[(int) count];
+        int[] types = new int[(int) count];
+        int[] symbols = new int[(int) count];
+        long[] addends = rela ? new long[(int) count] : null;
+
+        long offset = readSleb128(data, position);
+        long info = 0;
+        long addend = 0;
+        int i = 0;
+        while (i < count) {
+            final long groupSize = readSleb128(data, position);
+            final long flags = readSleb128(data, position);
+            if (groupSize <= 0 || groupSize > count - i) {
+                throw new IllegalArgumentException("Bad packed relocation group size "
+                        + groupSize + " in " + name);
+            }
+            final boolean groupedByInfo = (flags & RELOCATION_GROUPED_BY_INFO_FLAG) != 0;
+            final boolean groupedByOffset =
+                    (flags & RELOCATION_GROUPED_BY_OFFSET_DELTA_FLAG) != 0;
+            final boolean groupedByAddend = (flags & RELOCATION_GROUPED_BY_ADDEND_FLAG) != 0;
+            final boolean hasAddend = (flags & RELOCATION_GROUP_HAS_ADDEND_FLAG) != 0;
+            if (hasAddend && !rela) {
+                throw new IllegalArgumentException("Addend in packed REL relocations in "
+                        + name);
+            }
+            final long groupOffsetDelta = groupedByOffset ? readSleb128(data, position) : 0;
+            if (groupedByInfo) {
+                info = readSleb128(data, position);
+            }
+            if (hasAddend && groupedByAddend) {
+                addend += readSleb128(data, position);
+            } else if (!hasAddend) {
+                addend = 0;
+            }
+            for (long end = i + groupSize; i < end; ++i) {
+                offset = (offset + (groupedByOffset ? groupOffsetDelta
+                        : readSleb128(data, position))) & mask;
+                if (!groupedByInfo) {
+                    info = readSleb128(data, position);
+                }
+                if (hasAddend && !groupedByAddend) {
+                    addend += readSleb128(data, position);
+                }
+                offsets[i] = offset;
+                if (is64) {
+                    types[i] = (int) info;
+                    symbols[i] = (int) (info >>> 32);
+                } else {
+                    types[i] = (int) (info & 0xff);
+                    symbols[i] = (int) ((info & 0xffffffffL) >>> 8);
+                }
+                if (rela) {
+                    addends[i] = is64 ? addend : (int) addend;
+                }
+            }
+        }
+        return new RelocationTable(elf, name, format, dynamic, jumpSlotType(machine), offsets,
+                types, symbols, addends);
+    }
+
+    /**
+     * Decodes SHT_RELR: an address word starts a run, and each following bitmap word marks
+     * which of the next 63 (or 31) words are relative relocations too.
+     */
+    private static RelocationTable decodeRelr(ReadElf elf, String name, ByteBuffer data,
+                                              boolean is64, int machine, boolean dynamic) {
+        final int wordSize = is64 ? 8 : 4;
+        final int words = data.limit() / wordSize;
+        // Count first so the arrays are allocated once at their final size.
+        int count = 0;
+        for (int i = 0; i < words; ++i) {
+            final long entry = is64 ? data.getLong(i * 8) : data.getInt(i * 4) & 0xffffffffL;
+            count += (entry & 1) == 0 ? 1 : Long.bitCount(entry) - 1;
+        }
+        long[] offsets = new long[count];
+        int n = 0;
+        long base = 0;
+        for (int i = 0; i < words; ++i) {
+            final long entry = is64 ? data.getLong(i * 8) : data.getInt(i * 4) & 0xffffffffL;
+            if ((entry & 1) == 0) {
+                offsets[n++] = entry;
+                base = entry + wordSize;
+                continue;
+            }
+            for (long bits = entry >>> 1, where = base; bits != 0; bits >>>= 1,
+                    where += wordSize) {
+                if ((bits & 1) != 0) {
+                    offsets[n++] = where;
+                }
+            }
+            base += (long) (8 * wordSize - 1) * wordSize;
+        }
+        int[] types = new int[count];
+        Arrays.fill(types, relativeType(machine));
+        return new RelocationTable(elf, name, Format.RELR, dynamic, jumpSlotType(machine),
+                offsets, types, new int[count], null);
+    }
+
+    private static long readSleb128(ByteBuffer data, long[] position) {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift >= 64) {
+                throw new IllegalArgumentException("SLEB128 value too long");
+            }
+            b = data.get((int) position[0]++);
+            result |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (shift < 64 && (b & 0x40) != 0) {
+            result |= -1L << shift;
+        }
+        return result;
+    }
+
+    /** R_*_JUMP_SLOT for {@code machine}. */
+    private static int jumpSlotType(int machine) {
+        switch (machine) {
+            case 3: // EM_386: R_386_JMP_SLOT
+            case 62: // EM_X86_64: R_X86_64_JUMP_SLOT
+                return 7;
+            case 40: // EM_ARM: R_ARM_JUMP_SLOT
+                return 22;
+            case 164: // EM_QDSP6: R_HEX_JMP_SLOT
+                return 34;
+            case 183: // EM_AARCH64: R_AARCH64_JUMP_SLOT
+                return 1026;
+            case 243: // EM_RISCV: R_RISCV_JUMP_SLOT
+                return 5;
+            default:
+                return -1;
+        }
+    }
+
+    /** R_*_RELATIVE for {@code machine}, the type of every RELR entry. */
+    private static int relativeType(int machine) {
+        switch (machine) {
+            case 3: // EM_386: R_386_RELATIVE
+            case 62: // EM_X86_64: R_X86_64_RELATIVE
+                return 8;
+            case 40: // EM_ARM: R_ARM_RELATIVE
+                return 23;
+            case 164: // EM_QDSP6: R_HEX_RELATIVE
+                return 35;
+            case 183: // EM_AARCH64: R_AARCH64_RELATIVE
+                return 1027;
+            case 243: // EM_RISCV: R_RISCV_RELATIVE
+                return 3;
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Attributes the file and VM size of libraries to sections, PT_LOAD segments and symbols, in
+ * the manner of bloaty: file size is what a range occupies on disk, VM size what it occupies
+ * once loaded. Each library takes one {@link ElfVisitor} pass over its headers and symbol
+ * tables, and a directory is profiled in parallel.
+ */
+public class SizeProfiler {
+    private static final int PT_LOAD = 1;
+    private static final int SHT_NOBITS = 8;
+    private static final long SHF_ALLOC = 0x2;
+    private static final int PF_X = 0x1;
+    private static final int PF_W = 0x2;
+    private static final int PF_R = 0x4;
+
+    /** The ways a {@link Report} breaks sizes down. */
+    public enum Dimension {
+        SECTIONS, SEGMENTS, SYMBOLS
+    }
+
+    /** File and VM sizes keyed by name, per {@link Dimension}. Not thread-safe. */
+    public static class Report {
+        private final List<Map<String, long[]>> mSizes = new ArrayList<>();
+        private long mFileTotal;
+        private long mVmTotal;
+        private int mFileCount;
+
+        public Report() {
+            for (int i = 0; i < Dimension.values().length; ++i) {
+                mSizes.add(new HashMap<>());
+            }
+        }
+
+        void add(Dimension dimension, String name, long fileSize, long vmSize) {
+            long[] sizes = mSizes.get(dimension.ordinal()).get(name);
+            if (sizes == null) {
+                sizes = new long[2];
+                mSizes.get(dimension.ordinal()).put(name, sizes);
+            }
+            sizes[0] += fileSize;
+            sizes[1] += vmSize;
+        }
+
+        /** Adds everything in {@code other} to this report. */
+        public void merge(Report other) {
+            for (Dimension dimension : Dimension.values()) {
+                for (Map.Entry<String, long[]> e : other.mSizes.get(dimension.ordinal())
+                        .entrySet()) {
+                    add(dimension, e.getKey(), e.getValue()[0], e.getValue()[1]);
+                }
+            }
+            mFileTotal += other.mFileTotal;
+            mVmTotal += other.mVmTotal;
+            mFileCount += other.mFileCount;
+        }
+
+        /** Returns name -> {file size, VM size} for {@code dimension}. */
+        public Map<String, long[]> get(Dimension dimension) {
+            return mSizes.get(dimension.ordinal());
+        }
+
+        /** Total size on disk of every profiled file. */
+        public long getFileTotal() {
+            return mFileTotal;
+        }
+
+        /** Total VM size: the sum of the SHF_ALLOC sections. */
+        public long getVmTotal() {
+            return mVmTotal;
+        }
+
+        public int getFileCount() {
+            return mFileCount;
+        }
+
+        /**
+         * Prints a bloaty-style table of the {@code limit} largest rows of {@code dimension}
+         * by file size, folding the rest into one "[N Others]" row.
+         */
+        public void writeTo(PrintStream out, Dimension dimension, int limit) {
+            List<Map.Entry<String, long[]>> rows = new ArrayList<>(get(dimension).entrySet());
+            rows.sort((a, b) -> {
+                int c = Long.compare(b.getValue()[0], a.getValue()[0]);
+                if (c == 0) {
+                    c = Long.compare(b.getValue()[1], a.getValue()[1]);
+                }
+                return c != 0 ? c : a.getKey().compareTo(b.getKey());
+            });
+            out.println("    FILE SIZE        VM SIZE    ");
+            out.println(" --------------  -------------- ");
+            long otherFile = 0;
+            long otherVm = 0;
+            for (int i = 0; i < rows.size(); ++i) {
+                long[] sizes = rows.get(i).getValue();
+                if (i < limit) {
+                    writeRow(out, rows.get(i).getKey(), sizes[0], sizes[1]);
+                } else {
+                    otherFile += sizes[0];
+                    otherVm += sizes[1];
+                }
+            }
+            if (rows.size() > limit) {
+                writeRow(out, "[" + (rows.size() - limit) + " Others]", otherFile, otherVm);
+            }
+            writeRow(out, "TOTAL", mFileTotal, mVmTotal);
+        }
+
+        private void writeRow(PrintStream out, String name, long fileSize, long vmSize) {
+            out.printf("%6.1f%% %7s %6.1f%% %7s    %s%n",
+                    percent(fileSize, mFileTotal), humanize(fileSize),
+                    percent(vmSize, mVmTotal), humanize(vmSize), name);
+        }
+
+        private static double percent(long part, long total) {
+            return total == 0 ? 0 : 100.0 * part / total;
+        }
+
+        private static String humanize(long size) {
+            if (size < 1024) {
+                return Long.toString(size);
+            }
+            final String[] units = {"Ki", "Mi", "Gi", "Ti"};
+            double value = size;
+            int unit = -1;
+            while (value >= 1024 && unit + 1 < units.length) {
+                value /= 1024;
+                unit++;
+            }
+            // Three significant digits, as bloaty prints them.
+            return String.format(value < 10 ? "%.2f" : value < 100 ? "%.1f" : "%.0f", value)
+                    + units[unit];
+        }
+    }
+
+    private final int mParallelism;
+
+    public SizeProfiler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public SizeProfiler(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        mParallelism = parallelism;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Dimension dimension = Dimension.SECTIONS;
+        int limit = 20;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+            if ("-d".equals(args[i])) {
+                dimension = Dimension.valueOf(args[i + 1].toUpperCase());
+            } else if ("-n".equals(args[i])) {
+                limit = Integer.parseInt(args[i + 1]);
+            } else if ("-j".equals(args[i])) {
+                parallelism = Integer.parseInt(args[i + 1]);
+            } else {
+                break;
+            }
+        }
+        if (i != args.length - 1) {
+            System.err.println("usage: SizeProfiler [-d sections|segments|symbols] [-n rows]"
+                    + " [-j parallelism] <file or directory>");
+            System.exit(1);
+        }
+        File file = new File(args[i]);
+        SizeProfiler profiler = new SizeProfiler(parallelism);
+        Report report = file.isDirectory() ? profiler.profileTree(file) : profiler.profile(file);
+        report.writeTo(System.out, dimension, limit);
+    }
+
+    /** Profiles a single library. */
+    public Report profile(File file) throws IOException {
+        final Report report = new Report();
+        try (ReadElf elf = new ReadElf(file)) {
+            profile(elf, file.length(), report);
+        }
+        return report;
+    }
+
+    /**
+     * Profiles every .so below {@code root}, skipping files that aren't ELF, and returns the
+     * sum of their reports.
+     */
+    public Report profileTree(File root) throws IOException {
+        final List<File> files = new ArrayList<>();
+        collect(root, files);
+        final Report total = new Report();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (File file : files) {
+            tasks.add(() -> {
+                Report report;
+                try {
+                    report = profile(file);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+                synchronized (total) {
+                    total.merge(report);
+                }
+                return null;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while profiling " + root, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to profile " + root, cause);
+        } finally {
+            pool.shutdown();
+        }
+        return total;
+    }
+
+    /** Adds {@code elf}, a file of {@code fileSize} bytes, to {@code report}. */
+    public static void profile(final ReadElf elf, long fileSize, final Report report)
+            throws IOException {
+        // Which sections occupy no file space, by section index; filled in as sections are
+        // visited, which happens before any symbol is.
+        final boolean[][] nobits = new boolean[1][];
+        final long[] headerSizes = new long[1];
+        final long[] attributed = new long[2];
+
+        elf.accept(new ElfVisitor() {
+            private int mSymtabEntries;
+
+            @Override
+            public boolean visitHeader(int elfClass, int data, int type, int machine,
+                                       long entry, long phoff, long shoff, int flags,
+                                       int phnum, int shnum, int shstrndx) {
+                // The Ehdr, Shdr and Phdr sizes of ELFCLASS32 and ELFCLASS64.
+                final boolean is64 = elfClass == 2;
+                headerSizes[0] = (is64 ? 64 : 52) + (long) shnum * (is64 ? 64 : 40)
+                        + (long) phnum * (is64 ? 56 : 32);
+                nobits[0] = new boolean[shnum];
+                report.add(Dimension.SECTIONS, "[ELF Headers]", headerSizes[0], 0);
+                return true;
+            }
+
+            @Override
+            public boolean visitSection(int index, String name, int type, long flags,
+                                        long addr, long offset, long size, int link, int info,
+                                        long addralign, long entsize) {
+                if (index == 0) {
+                    return true; // SHN_UNDEF
+                }
+                final long fileSize = type == SHT_NOBITS ? 0 : size;
+                final long vmSize = (flags & SHF_ALLOC) != 0 ? size : 0;
+                nobits[0][index] = type == SHT_NOBITS;
+                report.add(Dimension.SECTIONS, name != null ? name : "[section " + index + "]",
+                        fileSize, vmSize);
+                attributed[0] += fileSize;
+                attributed[1] += vmSize;
+                return true;
+            }
+
+            @Override
+            public boolean visitSegment(int index, int type, int flags, long offset,
+                                        long vaddr, long paddr, long filesz, long memsz,
+                                        long align) {
+                if (type == PT_LOAD) {
+                    report.add(Dimension.SEGMENTS, "LOAD #" + index + " [" + permissions(flags)
+                            + "]", filesz, memsz);
+                }
+                return true;
+            }
+
+            @Override
+            public boolean visitSymbol(boolean dynamic, int index, int nameOffset, int info,
+                                       int other, int shndx, long value, long size) {
+                if (!dynamic) {
+                    mSymtabEntries++;
+                } else if (mSymtabEntries != 0) {
+                    // .dynsym only repeats .symtab, so it is counted only for stripped files.
+                    return false;
+                }
+                if (size == 0 || shndx == ReadElf.Symbol.SHN_UNDEF) {
+                    return true;
+                }
+                final int symbolType = info & 0xf;
+                if (symbolType != ReadElf.Symbol.STT_FUNC
+                        && symbolType != ReadElf.Symbol.STT_OBJECT) {
+                    return true;
+                }
+                final boolean noFile = shndx < nobits[0].length && nobits[0][shndx];
+                String name;
+                try {
+                    name = elf.getSymbolName(dynamic, nameOffset);
+                } catch (IOException e) {
+                    name = null;
+                }
+                report.add(Dimension.SYMBOLS, name != null ? name : "[unnamed]",
+                        noFile ? 0 : size, size);
+                return true;
+            }
+        });
+
+        final long unmapped = fileSize - attributed[0] - headerSizes[0];
+        if (unmapped > 0) {
+            report.add(Dimension.SECTIONS, "[Unmapped]", unmapped, 0);
+        }
+        report.mFileTotal += fileSize;
+        report.mVmTotal += attributed[1];
+        report.mFileCount++;
+    }
+
+    private static String permissions(int flags) {
+        StringBuilder sb = new StringBuilder(3);
+        if ((flags & PF_R) != 0) {
+            sb.append('R');
+        }
+        if ((flags & PF_W) != 0) {
+            sb.append('W');
+        }
+        if ((flags & PF_X) != 0) {
+            sb.append('X');
+        }
+        return sb.toString();
+    }
+
+    private static void collect(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, files);
+            } else if (child.getName().endsWith(".so")) {
+                files.add(child);
+            }
+        }
+    }
+}
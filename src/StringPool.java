@@ -0,0 +1,249 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A concurrent pool of decoded names shared by every {@link ReadElf} and {@link SymbolTable}.
+ * The same few thousand names ({@code memcpy}, {@code .text}, ...) recur in every copy of every
+ * library in a sysroot, so a name's bytes are hashed and looked up straight from the string
+ * table, and a {@link String} is only decoded the first time those bytes are seen.
+ *
+ * The pool is striped by hash, with each stripe an open-addressing table behind its own lock.
+ * It is a cache rather than a true intern table: a stripe that outgrows its share of the
+ * capacity is cleared, so a long-running process never holds more than a bounded number of
+ * names. Names are decoded with the platform charset, as {@code new String(bytes)} would.
+ *
+ * The {@code readelf.intern.capacity} system property sets the capacity of the pool returned by
+ * {@link #getDefault()}; 0 turns pooling off.
+ */
+public class StringPool {
+    /** System property giving the capacity of {@link #getDefault()}, in names. */
+    public static final String CAPACITY_PROPERTY = "readelf.intern.capacity";
+
+    private static final int DEFAULT_CAPACITY = 1 << 20;
+    private static final int STRIPES = 64;
+    private static final int MAX_POOLED_LENGTH = 1024;
+
+    private static volatile StringPool sDefault;
+
+    private static final class Stripe {
+        private final int mMaxSize;
+        private int[] mHashes = new int[16];
+        private String[] mValues = new String[16];
+        // The encoded bytes of entries that aren't ASCII, whose chars can't be compared with
+        // bytes directly; null for everything else, which is nearly every ELF name.
+        private byte[][] mKeys;
+        private int mSize;
+
+        Stripe(int maxSize) {
+            mMaxSize = maxSize;
+        }
+
+        synchronized String get(ByteBuffer buffer, byte[] array, int offset, int length,
+                int hash, boolean ascii) {
+            final int mask = mValues.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                final String value = mValues[slot];
+                if (value == null) {
+                    break;
+                }
+                if (mHashes[slot] == hash && matches(slot, value, buffer, array, offset, length,
+                        ascii)) {
+                    return value;
+                }
+            }
+            final byte[] bytes = new byte[length];
+            for (int i = 0; i < length; ++i) {
+                bytes[i] = byteAt(buffer, array, offset + i);
+            }
+            final String value = ascii
+                    ? new String(bytes, StandardCharsets.ISO_8859_1) : new String(bytes);
+            if (mSize >= mMaxSize) {
+                clear();
+            }
+            if ((mSize + 1) * 4 > mValues.length * 3) {
+                grow();
+            }
+            put(hash, value, ascii ? null : bytes);
+            return value;
+        }
+
+        synchronized int size() {
+            return mSize;
+        }
+
+        synchronized long getRetainedSize() {
+            long size = 64 + mValues.length * 12L;
+            for (int i = 0; i < mValues.length; ++i) {
+                if (mValues[i] != null) {
+                    size += 40 + mValues[i].length();
+                    if (mKeys != null && mKeys[i] != null) {
+                        size += 16 + mKeys[i].length;
+                    }
+                }
+            }
+            return size;
+        }
+
+        synchronized void clear() {
+            mHashes = new int[16];
+            mValues = new String[16];
+            mKeys = null;
+            mSize = 0;
+        }
+
+        private boolean matches(int slot, String value, ByteBuffer buffer, byte[] array,
+                int offset, int length, boolean ascii) {
+            final byte[] key = mKeys != null ? mKeys[slot] : null;
+            if (key == null) {
+                if (!ascii || value.length() != length) {
+                    return false;
+                }
+                for (int i = 0; i < length; ++i) {
+                    if (value.charAt(i) != byteAt(buffer, array, offset + i)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if (ascii || key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; ++i) {
+                if (key[i] != byteAt(buffer, array, offset + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            final int[] hashes = mHashes;
+            final String[] values = mValues;
+            final byte[][] keys = mKeys;
+            mHashes = new int[hashes.length * 2];
+            mValues = new String[values.length * 2];
+            mKeys = null;
+            mSize = 0;
+            for (int i = 0; i < values.length; ++i) {
+                if (values[i] != null) {
+                    put(hashes[i], values[i], keys != null ? keys[i] : null);
+                }
+            }
+        }
+
+        private void put(int hash, String value, byte[] key) {
+            final int mask = mValues.length - 1;
+            int slot = hash & mask;
+            while (mValues[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            mHashes[slot] = hash;
+            mValues[slot] = value;
+            if (key != null) {
+                if (mKeys == null) {
+                    mKeys = new byte[mValues.length][];
+                }
+                mKeys[slot] = key;
+            }
+            ++mSize;
+        }
+    }
+
+    private final Stripe[] mStripes = new Stripe[STRIPES];
+
+    /** Creates a pool holding up to about {@code capacity} names. */
+    public StringPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Bad capacity: " + capacity);
+        }
+        for (int i = 0; i < STRIPES; ++i) {
+            mStripes[i] = new Stripe(Math.max(1, capacity / STRIPES));
+        }
+    }
+
+    /**
+     * Returns the pool named by {@link #CAPACITY_PROPERTY}, or a pool of 2^20 names if it isn't
+     * set; null if pooling is off.
+     */
+    public static StringPool getDefault() {
+        StringPool pool = sDefault;
+        if (pool == null) {
+            final int capacity = Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY);
+            if (capacity <= 0) {
+                return null;
+            }
+            // Benign race: concurrent first callers may each create a pool; one of them wins.
+            pool = new StringPool(capacity);
+            sDefault = pool;
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the string for {@code length} bytes of {@code buffer} at absolute {@code offset},
+     * whose {@link SymbolTable#hash GNU hash} is {@code hash}.
+     */
+    public String get(ByteBuffer buffer, int offset, int length, int hash) {
+        return get(buffer, null, offset, length, hash);
+    }
+
+    /** Like {@link #get(ByteBuffer, int, int, int)}, for bytes in an array. */
+    public String get(byte[] bytes, int offset, int length, int hash) {
+        return get(null, bytes, offset, length, hash);
+    }
+
+    /** Number of names currently pooled. */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : mStripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /** Bytes of heap held by the pool, including the strings in it. */
+    public long getRetainedSize() {
+        long size = 16 + STRIPES * 8L;
+        for (Stripe stripe : mStripes) {
+            size += stripe.getRetainedSize();
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Stripe stripe : mStripes) {
+            stripe.clear();
+        }
+    }
+
+    /** The GNU hash of {@code length} bytes of {@code bytes} at {@code offset}. */
+    static int hash(byte[] bytes, int offset, int length) {
+        int h = 5381;
+        for (int i = 0; i < length; ++i) {
+            h = h * 33 + (bytes[offset + i] & 0xff);
+        }
+        return h;
+    }
+
+    private String get(ByteBuffer buffer, byte[] array, int offset, int length, int hash) {
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; ++i) {
+            ascii = byteAt(buffer, array, offset + i) >= 0;
+        }
+        if (length > MAX_POOLED_LENGTH) {
+            // Long names (mostly mangled templates) rarely repeat; don't let them churn stripes.
+            final byte[] bytes = new byte[length];
+            for (int i = 0; i < length; ++i) {
+                bytes[i] = byteAt(buffer, array, offset + i);
+            }
+            return ascii ? new String(bytes, StandardCharsets.ISO_8859_1) : new String(bytes);
+        }
+        // Spread the hash so stripe and slot don't draw on the same low bits.
+        final int h = hash ^ (hash >>> 16);
+        return mStripes[(h >>> 26) & (STRIPES - 1)].get(buffer, array, offset, length, h, ascii);
+    }
+
+    private static byte byteAt(ByteBuffer buffer, byte[] array, int index) {
+        return array != null ? array[index] : buffer.get(index);
+    }
+}
@@ -0,0 +1,149 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A persistent cache of what {@link ReadElf} parses out of a file: the header facts, the
+ * section offsets it keeps, and both symbol tables. Each library gets one small binary entry
+ * in the cache directory, keyed by its canonical path and validated against the file's size
+ * and modification time, so a warm run never re-parses an unchanged library.
+ *
+ * The cache is off unless the {@code readelf.cache.dir} system property names a directory;
+ * {@link ReadElf#read(File)} then uses it transparently.
+ */
+public class SymbolCache {
+    /** System property naming the directory used by {@link #getDefault()}. */
+    public static final String CACHE_DIR_PROPERTY = "readelf.cache.dir";
+
+    private static final int MAGIC = 0x52454c46; // "RELF"
+
+    /** Bump whenever ReadElf.writeCacheEntry changes what it writes. */
+    private static final int VERSION = 4;
+
+    private static volatile SymbolCache sDefault;
+
+    private final File mDirectory;
+
+    public SymbolCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /** Returns the cache named by {@link #CACHE_DIR_PROPERTY}, or null if it isn't set. */
+    public static SymbolCache getDefault() {
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        SymbolCache cache = sDefault;
+        if (cache == null || !cache.mDirectory.getPath().equals(dir)) {
+            cache = new SymbolCache(new File(dir));
+            sDefault = cache;
+        }
+        return cache;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Opens {@code file} from its cache entry if that is still valid, and otherwise parses it
+     * and writes a fresh entry. Problems with the cache itself are never fatal: a corrupt or
+     * unwritable entry just means the file is parsed.
+     */
+    public ReadElf open(File file) throws IOException {
+        final String path = file.getCanonicalPath();
+        final long size = file.length();
+        final long mtime = file.lastModified();
+        final File entry = entryFile(path);
+
+        if (entry.isFile()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(entry)))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION
+                        && in.readUTF().equals(path) && in.readLong() == size
+                        && in.readLong() == mtime) {
+                    return new ReadElf(file, in);
+                }
+            } catch (IOException | RuntimeException e) {
+                // A corrupt entry can fail in ways the checks don't anticipate; drop it, then
+                // fall through and rebuild it.
+                try {
+                    Files.deleteIfExists(entry.toPath());
+                } catch (IOException ignored) {
+                    // The write below replaces it anyway.
+                }
+            }
+        }
+
+        ReadElf re = new ReadElf(file);
+        try {
+            write(entry, path, size, mtime, re);
+        } catch (IOException ignored) {
+            // The cache is an optimization; a read-only or full disk shouldn't fail the read.
+        }
+        return re;
+    }
+
+    /** Deletes the entry for {@code file}, if any. */
+    public void invalidate(File file) throws IOException {
+        Files.deleteIfExists(entryFile(file.getCanonicalPath()).toPath());
+    }
+
+    private void write(File entry, String path, long size, long mtime, ReadElf re)
+            throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs() && !mDirectory.isDirectory()) {
+            throw new IOException("Can't create cache directory " + mDirectory);
+        }
+        // Write to a private temporary file and rename it into place, so concurrent readers
+        // and writers only ever see complete entries.
+        Path tmp = Files.createTempFile(mDirectory.toPath(), entry.getName(), ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(path);
+                out.writeLong(size);
+                out.writeLong(mtime);
+                re.writeCacheEntry(out);
+            }
+            try {
+                Files.move(tmp, entry.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private File entryFile(String canonicalPath) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(canonicalPath.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2 + 4);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(mDirectory, sb.append(".sym").toString());
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-1.
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,412 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A decoded .symtab or .dynsym, stored as parallel primitive arrays indexed by symbol index
+ * (entry 0 is the null symbol, exactly as in the file). Names stay in their string table, which
+ * is normally a slice of the file mapping, and are only decoded when asked for.
+ *
+ * Lookup by name goes through an open-addressing index of name hashes that compares the raw
+ * string table bytes, so no {@link String} or {@link ReadElf.Symbol} is created until a match
+ * is returned.
+ */
+public class SymbolTable {
+    private final ByteBuffer mStrTab;
+
+    private final int[] mNameOffsets;
+    private final byte[] mInfos;
+    private final byte[] mOthers;
+    private final short[] mShndxs;
+
+    // st_value and st_size are kept as unsigned ints when every value fits in 32 bits, which
+    // is always true for ELFCLASS32 and nearly always for shared libraries. Exactly one of
+    // each pair is non-null.
+    private final int[] mValues32;
+    private final long[] mValues64;
+    private final int[] mSizes32;
+    private final long[] mSizes64;
+
+    /** Top byte of each entry's name hash, checked before comparing any name bytes. */
+    private final byte[] mHashTags;
+
+    // Open-addressing index: symbol index + 1 per slot, 0 for empty slots. Tables with fewer
+    // than 65535 entries, which is almost all of them, use chars. Exactly one is non-null.
+    private final char[] mSlots16;
+    private final int[] mSlots32;
+    private final int mSlotMask;
+
+    /**
+     * For each entry, the previous entry with the same name, or -1; the index only holds the
+     * last of them. Null, as it is for most tables, until the constructor sees a duplicate.
+     */
+    private int[] mPrevious;
+
+    SymbolTable(ByteBuffer strTab, int[] nameOffsets, long[] values, long[] sizes,
+                byte[] infos, byte[] others, short[] shndxs) {
+        mStrTab = strTab;
+        mNameOffsets = nameOffsets;
+        mInfos = infos;
+        mOthers = others;
+        mShndxs = shndxs;
+        mValues32 = narrow(values);
+        mValues64 = mValues32 == null ? values : null;
+        mSizes32 = narrow(sizes);
+        mSizes64 = mSizes32 == null ? sizes : null;
+        mHashTags = new byte[nameOffsets.length];
+
+        // Keep the load factor at or below 3/4.
+        final int minCapacity = Math.max(2, nameOffsets.length + nameOffsets.length / 3 + 1);
+        final int capacity = Integer.highestOneBit(minCapacity - 1) << 1;
+        mSlots16 = nameOffsets.length < Character.MAX_VALUE ? new char[capacity] : null;
+        mSlots32 = mSlots16 == null ? new int[capacity] : null;
+        mSlotMask = capacity - 1;
+        for (int i = 0; i < nameOffsets.length; ++i) {
+            int length = nameLength(i);
+            if (mNameOffsets[i] == 0 || length < 0) {
+                continue;
+            }
+            int h = hash(mStrTab, mNameOffsets[i], length);
+            mHashTags[i] = tag(h);
+            insert(i, h, length);
+        }
+    }
+
+    /** Returns an empty table, for files that lack the section. */
+    static SymbolTable empty() {
+        return new SymbolTable(ByteBuffer.allocate(0), new int[0], new long[0], new long[0],
+                new byte[0], new byte[0], new short[0]);
+    }
+
+    /** Number of entries, including the null symbol at index 0. */
+    public int size() {
+        return mNameOffsets.length;
+    }
+
+    /** st_name: offset of the entry's name in the string table. */
+    public int getNameOffset(int index) {
+        return mNameOffsets[index];
+    }
+
+    /** Decodes the entry's name, or returns null if it has none. */
+    public String getName(int index) {
+        int length = nameLength(index);
+        if (mNameOffsets[index] == 0 || length < 0) {
+            return null;
+        }
+        final StringPool pool = StringPool.getDefault();
+        if (pool != null) {
+            return pool.get(mStrTab, mNameOffsets[index], length,
+                    hash(mStrTab, mNameOffsets[index], length));
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = mStrTab.get(mNameOffsets[index] + i);
+        }
+        return new String(bytes);
+    }
+
+    public long getValue(int index) {
+        return mValues32 != null ? mValues32[index] & 0xffffffffL : mValues64[index];
+    }
+
+    public long getSize(int index) {
+        return mSizes32 != null ? mSizes32[index] & 0xffffffffL : mSizes64[index];
+    }
+
+    /** st_info: bind in the high nibble, type in the low one. */
+    public int getInfo(int index) {
+        return mInfos[index] & 0xff;
+    }
+
+    public int getBind(int index) {
+        return (mInfos[index] >> 4) & 0x0F;
+    }
+
+    public int getType(int index) {
+        return mInfos[index] & 0x0F;
+    }
+
+    /** st_other: the symbol's visibility. */
+    public int getOther(int index) {
+        return mOthers[index] & 0xff;
+    }
+
+    public int getShndx(int index) {
+        return mShndxs[index] & 0xffff;
+    }
+
+    public boolean isDefined(int index) {
+        return getShndx(index) != ReadElf.Symbol.SHN_UNDEF;
+    }
+
+    /** Creates a {@link ReadElf.Symbol} for entry {@code index}. */
+    public ReadElf.Symbol getSymbol(int index) {
+        return new ReadElf.Symbol(getName(index), getInfo(index), getOther(index),
+                getShndx(index), getValue(index), getSize(index));
+    }
+
+    public ReadElf.Symbol getSymbol(String name) {
+        int index = indexOf(name.getBytes());
+        return index < 0 ? null : getSymbol(index);
+    }
+
+    /**
+     * Returns the index of the entry named {@code name}, or -1. If several entries share the
+     * name, the last one wins.
+     */
+    public int indexOf(byte[] name) {
+        final int h = hash(name);
+        for (int slot = firstSlot(h); ; slot = (slot + 1) & mSlotMask) {
+            int index = getSlot(slot) - 1;
+            if (index < 0) {
+                return -1;
+            }
+            if (mHashTags[index] == tag(h) && nameEquals(index, name)) {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the previous entry with the same name as entry {@code index}, or -1.
+     * Starting from {@link #indexOf}, this visits every entry with that name, last to first.
+     */
+    public int previousIndexOf(int index) {
+        return mPrevious != null ? mPrevious[index] : -1;
+    }
+
+    /**
+     * Materializes a name-keyed map of every named entry. This allocates a {@link String} and a
+     * {@link ReadElf.Symbol} per entry, so it is meant for enumeration rather than lookups.
+     */
+    public Map<String, ReadElf.Symbol> toMap() {
+        Map<String, ReadElf.Symbol> result = new HashMap<>(size() * 4 / 3 + 1);
+        for (int i = 0; i < size(); ++i) {
+            if (mNameOffsets[i] != 0 && nameLength(i) >= 0) {
+                ReadElf.Symbol s = getSymbol(i);
+                result.put(s.name, s);
+            }
+        }
+        return result;
+    }
+
+    /** Bytes of heap held by this table, not counting a string table that lives in a mapping. */
+    public long getRetainedSize() {
+        long size = 64 + (mSlotMask + 1L) * (mSlots16 != null ? 2 : 4)
+                + mNameOffsets.length * (4L + 1 + 1 + 2 + 1);
+        size += mNameOffsets.length * ((mValues32 != null ? 4L : 8L) + (mSizes32 != null ? 4 : 8));
+        if (mPrevious != null) {
+            size += 4L * mPrevious.length;
+        }
+        if (mStrTab.hasArray()) {
+            size += mStrTab.capacity();
+        }
+        return size;
+    }
+
+    /**
+     * Compares the names of entry {@code index} and entry {@code otherIndex} of {@code other}
+     * as unsigned bytes, without decoding either.
+     */
+    int compareNames(int index, SymbolTable other, int otherIndex) {
+        final ByteBuffer a = mStrTab;
+        final ByteBuffer b = other.mStrTab;
+        final int aLimit = a.limit();
+        final int bLimit = b.limit();
+        for (int i = mNameOffsets[index], j = other.mNameOffsets[otherIndex]; ; ++i, ++j) {
+            int x = i < aLimit ? a.get(i) & 0xff : 0;
+            int y = j < bLimit ? b.get(j) & 0xff : 0;
+            if (x != y) {
+                return x - y;
+            }
+            if (x == 0) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Compares the first {@code prefix.length} bytes of entry {@code index}'s name with
+     * {@code prefix} as unsigned bytes: zero means the name starts with {@code prefix}.
+     */
+    int comparePrefix(int index, byte[] prefix) {
+        final int limit = mStrTab.limit();
+        final int start = mNameOffsets[index];
+        for (int i = 0; i < prefix.length; ++i) {
+            int x = start + i < limit ? mStrTab.get(start + i) & 0xff : 0;
+            int y = prefix[i] & 0xff;
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return 0;
+    }
+
+    /** Writes the primitive columns; the string table is the caller's business. */
+    void writeTo(DataOutputStream out) throws IOException {
+        final int count = size();
+        out.writeInt(count);
+        for (int i = 0; i < count; ++i) {
+            out.writeInt(mNameOffsets[i]);
+        }
+        for (int i = 0; i < count; ++i) {
+            out.writeLong(getValue(i));
+        }
+        for (int i = 0; i < count; ++i) {
+            out.writeLong(getSize(i));
+        }
+        out.write(mInfos);
+        out.write(mOthers);
+        for (int i = 0; i < count; ++i) {
+            out.writeShort(mShndxs[i]);
+        }
+    }
+
+    /**
+     * Reads columns written by {@link #writeTo} and attaches them to {@code strTab}. A count
+     * above {@code maxCount}, the entries its section can hold, means the input is corrupt.
+     */
+    static SymbolTable readFrom(DataInputStream in, ByteBuffer strTab, int maxCount)
+            throws IOException {
+        final int count = in.readInt();
+        if (count < 0 || count > maxCount) {
+            throw new IOException("Bad symbol count: " + count);
+        }
+        int[] nameOffsets = new int[count];
+        long[] values = new long[count];
+        long[] sizes = new long[count];
+        byte[] infos = new byte[count];
+        byte[] others = new byte[count];
+        short[] shndxs = new short[count];
+        for (int i = 0; i < count; ++i) {
+            nameOffsets[i] = in.readInt();
+        }
+        for (int i = 0; i < count; ++i) {
+            values[i] = in.readLong();
+        }
+        for (int i = 0; i < count; ++i) {
+            sizes[i] = in.readLong();
+        }
+        in.readFully(infos);
+        in.readFully(others);
+        for (int i = 0; i < count; ++i) {
+            shndxs[i] = in.readShort();
+        }
+        return new SymbolTable(strTab, nameOffsets, values, sizes, infos, others, shndxs);
+    }
+
+    private void insert(int index, int hash, int length) {
+        for (int slot = firstSlot(hash); ; slot = (slot + 1) & mSlotMask) {
+            int other = getSlot(slot) - 1;
+            if (other < 0) {
+                setSlot(slot, index + 1);
+                return;
+            }
+            if (mHashTags[other] == mHashTags[index] && nameLength(other) == length
+                    && sameName(other, index, length)) {
+                // Match the old HashMap.put behaviour: a later duplicate replaces the earlier.
+                if (mPrevious == null) {
+                    mPrevious = new int[mNameOffsets.length];
+                    Arrays.fill(mPrevious, -1);
+                }
+                mPrevious[index] = other;
+                setSlot(slot, index + 1);
+                return;
+            }
+        }
+    }
+
+    private int getSlot(int slot) {
+        return mSlots16 != null ? mSlots16[slot] : mSlots32[slot];
+    }
+
+    private void setSlot(int slot, int value) {
+        if (mSlots16 != null) {
+            mSlots16[slot] = (char) value;
+        } else {
+            mSlots32[slot] = value;
+        }
+    }
+
+    /** Length of the entry's NUL-terminated name, or -1 if it runs off the table. */
+    private int nameLength(int index) {
+        final int start = mNameOffsets[index];
+        final int limit = mStrTab.limit();
+        if (start < 0 || start >= limit) {
+            return -1;
+        }
+        for (int i = start; i < limit; ++i) {
+            if (mStrTab.get(i) == 0) {
+                return i - start;
+            }
+        }
+        return -1;
+    }
+
+    /** True if entry {@code index} is named {@code name}, compared without decoding. */
+    boolean nameEquals(int index, byte[] name) {
+        final int start = mNameOffsets[index];
+        if (start < 0 || start + name.length >= mStrTab.limit()) {
+            return false;
+        }
+        for (int i = 0; i < name.length; ++i) {
+            if (mStrTab.get(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return mStrTab.get(start + name.length) == 0;
+    }
+
+    private boolean sameName(int a, int b, int length) {
+        for (int i = 0; i < length; ++i) {
+            if (mStrTab.get(mNameOffsets[a] + i) != mStrTab.get(mNameOffsets[b] + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns {@code values} as unsigned ints, or null if any of them needs more bits. */
+    private static int[] narrow(long[] values) {
+        for (long value : values) {
+            if ((value >>> 32) != 0) {
+                return null;
+            }
+        }
+        int[] result = new int[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            result[i] = (int) values[i];
+        }
+        return result;
+    }
+
+    private int firstSlot(int hash) {
+        return (hash ^ (hash >>> 16)) & mSlotMask;
+    }
+
+    private static byte tag(int hash) {
+        return (byte) (hash >>> 24);
+    }
+
+    /** The GNU dynamic linker hash. */
+    static int hash(byte[] name) {
+        int h = 5381;
+        for (byte b : name) {
+            h = h * 33 + (b & 0xff);
+        }
+        return h;
+    }
+
+    private static int hash(ByteBuffer strTab, int offset, int length) {
+        int h = 5381;
+        for (int i = 0; i < length; ++i) {
+            h = h * 33 + (strTab.get(offset + i) & 0xff);
+        }
+        return h;
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * The GNU symbol versions of a .dynsym: .gnu.version as one short per symbol, parallel to the
+ * {@link SymbolTable}, and the version names that .gnu.version_d and .gnu.version_r give each
+ * version index. Names are decoded once per library, so asking for the version of every
+ * symbol allocates nothing.
+ *
+ * Version indices 0 (local) and 1 (global) have no version of their own; Android's platform
+ * libraries put their exports in versions such as LIBC, LIBC_N and LIBC_P, and apps' imports
+ * of them carry the same names.
+ */
+public class SymbolVersions {
+    public static final int VER_NDX_LOCAL = 0;
+    public static final int VER_NDX_GLOBAL = 1;
+
+    /** Set in a .gnu.version entry for a non-default version: foo@V rather than foo@@V. */
+    private static final int VERSYM_HIDDEN = 0x8000;
+    private static final int VERSYM_VERSION = 0x7fff;
+
+    private final short[] mVersyms;
+    /** Version names by version index; null where no definition or requirement names one. */
+    private final String[] mNames;
+    /** For required versions, the DT_NEEDED file expected to define them; null otherwise. */
+    private final String[] mFiles;
+
+    SymbolVersions(short[] versyms, String[] names, String[] files) {
+        mVersyms = versyms;
+        mNames = names;
+        mFiles = files;
+    }
+
+    /** Returns versions for a library without .gnu.version: every symbol is global. */
+    static SymbolVersions empty() {
+        return new SymbolVersions(new short[0], new String[0], new String[0]);
+    }
+
+    /** Number of .gnu.version entries: the .dynsym size, or 0 if the library is unversioned. */
+    public int size() {
+        return mVersyms.length;
+    }
+
+    /** Version index of .dynsym entry {@code symbol}, without the hidden bit. */
+    public int getVersionIndex(int symbol) {
+        return symbol < mVersyms.length ? mVersyms[symbol] & VERSYM_VERSION : VER_NDX_GLOBAL;
+    }
+
+    /** True if {@code symbol} is defined in a version other than its default one. */
+    public boolean isHidden(int symbol) {
+        return symbol < mVersyms.length && (mVersyms[symbol] & VERSYM_HIDDEN) != 0;
+    }
+
+    /** The version name of .dynsym entry {@code symbol}, or null if it has none. */
+    public String getVersion(int symbol) {
+        return getVersionName(getVersionIndex(symbol));
+    }
+
+    /**
+     * The file an import of .dynsym entry {@code symbol} is expected to come from, such as
+     * libc.so; null for definitions and unversioned imports.
+     */
+    public String getFile(int symbol) {
+        final int index = getVersionIndex(symbol);
+        return index > VER_NDX_GLOBAL && index < mFiles.length ? mFiles[index] : null;
+    }
+
+    /** Number of version indices, including the local and global ones. */
+    public int getVersionCount() {
+        return mNames.length;
+    }
+
+    /** The name of version index {@code index}, or null for local, global or unknown. */
+    public String getVersionName(int index) {
+        return index > VER_NDX_GLOBAL && index < mNames.length ? mNames[index] : null;
+    }
+
+    /** Returns the version index named {@code version}, or -1. */
+    public int indexOf(String version) {
+        for (int i = VER_NDX_GLOBAL + 1; i < mNames.length; ++i) {
+            if (version.equals(mNames[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * True if .dynsym entry {@code symbol} is in version {@code index}, and, if
+     * {@code defaultOnly} is set, that version is its default.
+     */
+    public boolean matches(int symbol, int index, boolean defaultOnly) {
+        return getVersionIndex(symbol) == index && !(defaultOnly && isHidden(symbol));
+    }
+
+    /** Bytes of heap held, counting version names that may be shared through a StringPool. */
+    public long getRetainedSize() {
+        long size = 64 + 2L * mVersyms.length + 16L * mNames.length;
+        for (String name : mNames) {
+            if (name != null) {
+                size += 48 + name.length();
+            }
+        }
+        return size;
+    }
+}
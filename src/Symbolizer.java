@@ -0,0 +1,185 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Symbolizes batches of native stack frames, such as those in a tombstone, against a set of
+ * libraries. Frames are grouped by library so that each library is opened and indexed once
+ * per batch at most, and each {@link AddressIndex} is kept for later batches. Libraries with
+ * DWARF line tables also get a source file and line per frame, through {@link LineTable}.
+ *
+ * A Symbolizer may be shared between threads.
+ */
+public class Symbolizer {
+    /** A pc inside a library, as an offset into that library's file. */
+    public static class Frame {
+        public final String library;
+        public final long offset;
+
+        public Frame(String library, long offset) {
+            this.library = library;
+            this.offset = offset;
+        }
+
+        @Override
+        public String toString() {
+            return library + "+0x" + Long.toHexString(offset);
+        }
+    }
+
+    /**
+     * A symbolized frame; {@link #symbol} is null when no symbol covers the frame, and
+     * {@link #file} is null when no line table does.
+     */
+    public static class Location {
+        public final Frame frame;
+        public final String symbol;
+        /** Offset of the frame from the start of {@link #symbol}. */
+        public final long symbolOffset;
+        public final String file;
+        public final int line;
+
+        Location(Frame frame, String symbol, long symbolOffset, LineTable.Location source) {
+            this.frame = frame;
+            this.symbol = symbol;
+            this.symbolOffset = symbolOffset;
+            this.file = source != null ? source.file : null;
+            this.line = source != null ? source.line : 0;
+        }
+
+        @Override
+        public String toString() {
+            String result = symbol == null ? frame + " ??"
+                    : frame + " " + symbol + "+0x" + Long.toHexString(symbolOffset);
+            return file == null ? result : result + " " + file + ":" + line;
+        }
+    }
+
+    private final File mSysroot;
+    private final ConcurrentMap<String, AddressIndex> mIndexes = new ConcurrentHashMap<>();
+    /** Line tables by library, read alongside the index; empty when a library has none. */
+    private final ConcurrentMap<String, Optional<LineTable>> mLineTables =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Creates a Symbolizer that looks libraries up below {@code sysroot}, so that a device path
+     * such as /system/lib64/libc.so names a local copy; null uses library paths as they are.
+     */
+    public Symbolizer(File sysroot) {
+        mSysroot = sysroot;
+    }
+
+    /**
+     * Reads frames from stdin, one {@code <library> <hex offset>} pair per line, and prints
+     * one symbolized location per frame.
+     */
+    public static void main(String[] args) throws IOException {
+        File sysroot = null;
+        if (args.length == 2 && "-s".equals(args[0])) {
+            sysroot = new File(args[1]);
+        } else if (args.length != 0) {
+            System.err.println("usage: Symbolizer [-s sysroot] < frames");
+            System.exit(1);
+        }
+        List<Frame> frames = new ArrayList<>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length == 2) {
+                String offset = fields[1].startsWith("0x") ? fields[1].substring(2) : fields[1];
+                frames.add(new Frame(fields[0], Long.parseUnsignedLong(offset, 16)));
+            }
+        }
+        for (Location location : new Symbolizer(sysroot).symbolize(frames)) {
+            System.out.println(location);
+        }
+    }
+
+    /**
+     * Symbolizes {@code frames}, returning one location per frame in the same order. A library
+     * that can't be read leaves its frames unsymbolized rather than failing the batch.
+     */
+    public Location[] symbolize(List<Frame> frames) {
+        Integer[] order = new Integer[frames.size()];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> frames.get(i).library));
+
+        Location[] result = new Location[order.length];
+        AddressIndex index = null;
+        LineTable lines = null;
+        String library = null;
+        for (int i : order) {
+            Frame frame = frames.get(i);
+            if (!frame.library.equals(library)) {
+                library = frame.library;
+                index = getIndex(library);
+                lines = index == null ? null : mLineTables.getOrDefault(library, Optional.empty())
+                        .orElse(null);
+            }
+            LineTable.Location source = null;
+            if (lines != null) {
+                try {
+                    source = lines.lookup(index.toAddress(frame.offset));
+                } catch (IOException e) {
+                    // A malformed line program costs the frame its line, not the batch.
+                }
+            }
+            int position = index == null ? -1 : index.lookupFileOffset(frame.offset);
+            if (position < 0) {
+                result[i] = new Location(frame, null, 0, source);
+            } else {
+                result[i] = new Location(frame, index.getName(position),
+                        index.toAddress(frame.offset) - index.getStart(position), source);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the index for {@code library}, building it on first use, or null. */
+    public AddressIndex getIndex(String library) {
+        AddressIndex index = mIndexes.get(library);
+        if (index == null) {
+            LineTable lines;
+            try (ReadElf elf = ReadElf.read(resolve(library))) {
+                index = AddressIndex.build(elf);
+                try {
+                    lines = LineTable.read(elf);
+                } catch (IOException e) {
+                    lines = null; // Still symbolize without lines.
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                return null;
+            }
+            // Published before the index, so that a reader that sees the index sees this too.
+            mLineTables.putIfAbsent(library, Optional.ofNullable(lines));
+            AddressIndex raced = mIndexes.putIfAbsent(library, index);
+            if (raced != null) {
+                index = raced;
+            }
+        }
+        return index;
+    }
+
+    /** Drops every cached index and line table. */
+    public void clear() {
+        mIndexes.clear();
+        mLineTables.clear();
+    }
+
+    private File resolve(String library) {
+        if (mSysroot == null) {
+            return new File(library);
+        }
+        return new File(mSysroot, library.startsWith("/") ? library.substring(1) : library);
+    }
+}